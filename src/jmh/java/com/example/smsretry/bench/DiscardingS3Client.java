@@ -0,0 +1,54 @@
+// bench/DiscardingS3Client.java
+package com.example.smsretry.bench;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Accepts and drops PUTs (the body is still read, as the SDK would). Unlike
+// InMemoryS3Client it doesn't grow over a long measurement.
+final class DiscardingS3Client implements S3Client {
+    private final AtomicLong puts = new AtomicLong();
+
+    long putCount() {
+        return puts.get();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest req, RequestBody body) {
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            in.transferTo(OutputStreamSink.INSTANCE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        puts.incrementAndGet();
+        return PutObjectResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class OutputStreamSink extends java.io.OutputStream {
+        static final OutputStreamSink INSTANCE = new OutputStreamSink();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+// bench/EngineBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// SmsRetryEngine.newMessage throughput at 1 / 4 / 16 caller threads.
+// Attempt #1 runs inline against a zero-latency mock gateway and a no-op store,
+// so this measures id generation, state bookkeeping and shard hand-off.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+
+    @Param({ "16" })
+    public int shards;
+
+    @Param({ "1", "100" })
+    public int batchMaxSize;
+
+    private MockSendGateway gateway;
+    private SmsRetryEngine engine;
+    private final Message template = new Message(null, "+15551234567", "Your verification code is 482913");
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        gateway = new MockSendGateway(0.7, "none", 0, 0);
+        NoopStateStore store = new NoopStateStore();
+        engine = SmsRetryEngine.builder(gateway, store)
+                .settings(EngineSettings.builder()
+                        .shards(shards)
+                        .batch(batchMaxSize, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .timelineCapacityPerShard(4096)
+                        .build())
+                .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        engine.shutdown();
+        gateway.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String newMessage1() {
+        return engine.newMessage(template);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String newMessage4() {
+        return engine.newMessage(template);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String newMessage16() {
+        return engine.newMessage(template);
+    }
+}
@@ -0,0 +1,20 @@
+// bench/NoopStateStore.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+
+import java.util.List;
+
+// Keeps persistence out of engine/shard measurements.
+final class NoopStateStore implements StateStore {
+    @Override
+    public void enqueue(StateUpdate update) {
+    }
+
+    @Override
+    public List<MessageState> loadPendingAll() {
+        return List.of();
+    }
+}
@@ -0,0 +1,82 @@
+// bench/RecentQueriesBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.RecentOutcome;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// getRecentSuccess / getRecentFailed while other threads keep recording terminal
+// outcomes on the shards: 4 recorders + 2 readers per group.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class RecentQueriesBenchmark {
+
+    private MockSendGateway gateway;
+    private SmsRetryEngine engine;
+    private MessageState[] terminals;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        gateway = new MockSendGateway(0.7, "none", 0, 0);
+        NoopStateStore store = new NoopStateStore();
+        engine = SmsRetryEngine.builder(gateway, store)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .timelineCapacityPerShard(4096)
+                        .build())
+                .build();
+        long now = System.currentTimeMillis();
+        terminals = new MessageState[4096];
+        for (int i = 0; i < terminals.length; i++) {
+            MessageState s = MessageState.fromMessage(new Message("msg-" + i, "+15551234567", "hi"), now);
+            s.status = (i % 2 == 0) ? MessageStatus.SUCCESS : MessageStatus.FAILED;
+            s.attemptCount = (s.status == MessageStatus.SUCCESS) ? 1 : 6;
+            terminals[i] = s;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+        gateway.shutdown();
+    }
+
+    @Benchmark
+    @Group("recent")
+    @GroupThreads(4)
+    public void record() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        MessageState s = terminals[rnd.nextInt(terminals.length)];
+        engine.shard(rnd.nextInt(engine.shardCount())).recordTerminal(s);
+    }
+
+    @Benchmark
+    @Group("recent")
+    @GroupThreads(1)
+    public List<RecentOutcome> readSuccess() {
+        return engine.getRecentSuccess(100);
+    }
+
+    @Benchmark
+    @Group("recent")
+    @GroupThreads(1)
+    public List<RecentOutcome> readFailed() {
+        return engine.getRecentFailed(100);
+    }
+}
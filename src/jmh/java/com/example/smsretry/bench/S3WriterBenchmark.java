@@ -0,0 +1,50 @@
+// bench/S3WriterBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.BinaryStateCodec;
+import com.example.smsretry.store.S3Writer;
+import com.example.smsretry.store.StateUpdate;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// S3Writer.enqueue from 8 threads. `keys` controls how often updates to the same
+// message collide in the coalescing map (few keys = heavy coalescing/contention).
+// PUTs go to a discarding client, so this is the engine-facing cost of enqueue.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@Threads(8)
+@State(Scope.Benchmark)
+public class S3WriterBenchmark {
+
+    @Param({ "1000", "1000000" })
+    public int keys;
+
+    @Param({ "SEGMENTS", "OBJECTS" })
+    public S3Writer.Layout layout;
+
+    private S3Writer writer;
+    private StateUpdate[] updates;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        updates = new StateUpdate[keys];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < keys; i++) {
+            MessageState s = MessageState.fromMessage(new Message("msg-" + i, "+15551234567", "hi"), now);
+            updates[i] = StateUpdate.pending(s);
+        }
+        writer = new S3Writer(new DiscardingS3Client(), "bench", layout, false, 0, 0, BinaryStateCodec.INSTANCE);
+    }
+
+    @Benchmark
+    public void enqueue() {
+        writer.enqueue(updates[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+}
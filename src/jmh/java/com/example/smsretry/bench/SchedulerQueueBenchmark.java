@@ -0,0 +1,90 @@
+// bench/SchedulerQueueBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.ScheduledItem;
+import com.example.smsretry.core.TimingWheel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+// TimingWheel vs the old DelayQueue at 1M / 10M pending retries.
+// fill: schedule N retries spread over the 0.5s..16s delay table
+// drain: expire N retries that are all already due (for the wheel this also
+//        includes moving them from the inbox into buckets)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms6g", "-Xmx6g" })
+@State(Scope.Thread)
+public class SchedulerQueueBenchmark {
+
+    @Param({ "1000000", "10000000" })
+    public int pending;
+
+    @Param({ "wheel", "delayQueue" })
+    public String impl;
+
+    private ScheduledItem[] items;
+    private TimingWheel wheel;
+    private DelayQueue<ScheduledItem> delayQueue;
+    private long nowMs;
+
+    @Setup(Level.Invocation)
+    public void setUp(BenchmarkParams params) {
+        nowMs = System.currentTimeMillis();
+        wheel = new TimingWheel(10, 2048);
+        wheel.drainDue(nowMs, i -> {
+        });
+        delayQueue = new DelayQueue<>();
+
+        SplittableRandom rnd = new SplittableRandom(42);
+        items = new ScheduledItem[pending];
+        boolean due = params.getBenchmark().endsWith("drain");
+        for (int i = 0; i < pending; i++) {
+            long dueAt = due ? nowMs - 1 - rnd.nextInt(16_000) : nowMs + 500 + rnd.nextInt(15_500);
+            items[i] = new ScheduledItem("msg", dueAt);
+        }
+        if (due) {
+            for (ScheduledItem item : items)
+                offer(item);
+            items = null;
+        }
+    }
+
+    @Benchmark
+    public long fill() {
+        for (ScheduledItem item : items)
+            offer(item);
+        return isWheel() ? wheel.size() : delayQueue.size();
+    }
+
+    @Benchmark
+    public long drain(Blackhole bh) {
+        if (isWheel())
+            return wheel.drainDue(System.currentTimeMillis(), bh::consume);
+
+        long n = 0;
+        ScheduledItem item;
+        while ((item = delayQueue.poll()) != null) {
+            bh.consume(item);
+            n++;
+        }
+        return n;
+    }
+
+    private void offer(ScheduledItem item) {
+        if (isWheel())
+            wheel.schedule(item);
+        else
+            delayQueue.offer(item);
+    }
+
+    private boolean isWheel() {
+        return "wheel".equals(impl);
+    }
+}
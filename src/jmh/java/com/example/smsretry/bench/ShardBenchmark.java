@@ -0,0 +1,96 @@
+// bench/ShardBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.RetryExecutor;
+import com.example.smsretry.core.SchedulerShard;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// SchedulerShard at different queue depths, fresh shard per invocation.
+// schedule: per-call cost of scheduling a burst of BURST retries on top of `depth` queued ones
+// drain: one drainDueAndDispatch() over `depth` due retries (send completion
+//        happens on the shard's pool and is not part of the measured time)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class ShardBenchmark {
+
+    private static final int BURST = 100_000;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int depth;
+
+    @Param({ "1", "100" })
+    public int batchMaxSize;
+
+    @Param({ "map", "slots" })
+    public String stateLayout;
+
+    private MockSendGateway gateway;
+    private SchedulerShard shard;
+    private String[] ids;
+    private long[] dueAt;
+
+    @Setup(Level.Invocation)
+    public void setUp(BenchmarkParams params) {
+        boolean due = params.getBenchmark().endsWith("drain");
+        gateway = new MockSendGateway(0.7, "none", 0, 0);
+        shard = new SchedulerShard(RetryExecutor.dedicated(2), gateway, new NoopStateStore(), EngineSettings.builder()
+                .maxInFlightPerShard(depth)
+                .batch(batchMaxSize, 5)
+                .memoryBudgetMbPerShard(0)
+                .tombstones(0, 0)
+                .stateLayout(stateLayout)
+                .recentCapacity(100)
+                .timelineCapacityPerShard(4096)
+                .build());
+
+        long nowMs = System.currentTimeMillis();
+        SplittableRandom rnd = new SplittableRandom(42);
+        for (int i = 0; i < depth; i++) {
+            MessageState s = MessageState.fromMessage(new Message("msg-" + i, "+15551234567", "hi"), nowMs);
+            s.attemptCount = 1;
+            s.nextDueAtMs = due ? nowMs - 1 - rnd.nextInt(1_000) : nowMs + 500 + rnd.nextInt(15_500);
+            shard.upsertState(s);
+            shard.schedule(s.messageId, s.nextDueAtMs);
+        }
+
+        ids = new String[BURST];
+        dueAt = new long[BURST];
+        for (int i = 0; i < BURST; i++) {
+            ids[i] = "msg-" + rnd.nextInt(depth);
+            dueAt[i] = nowMs + 500 + rnd.nextInt(15_500);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        shard.shutdown();
+        gateway.shutdown();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BURST)
+    public long schedule() {
+        for (int i = 0; i < BURST; i++)
+            shard.schedule(ids[i], dueAt[i]);
+        return shard.pendingScheduled();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long drain() {
+        shard.drainDueAndDispatch();
+        return shard.pendingScheduled();
+    }
+}
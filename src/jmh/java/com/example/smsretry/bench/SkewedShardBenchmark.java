@@ -0,0 +1,100 @@
+// bench/SkewedShardBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SchedulerShard;
+import com.example.smsretry.core.SendGateway;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// A wave of due retries spread over SHARDS shards by a Zipf-like skew (shard i gets
+// 1/(i+1) of the weight, ~30% on shard 0), sent through a gateway that blocks for
+// sendMicros. Measures from the drain until the last send is done, i.e. the lateness
+// of the last retry. Both executors get the same thread count: per-shard leaves the
+// hot shard two threads while the rest go idle, shared lets it borrow them.
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Thread)
+public class SkewedShardBenchmark {
+
+    private static final int SHARDS = 16;
+    private static final int THREADS_PER_SHARD = 2;
+    private static final int MESSAGES = 20_000;
+
+    @Param({ "per-shard", "shared" })
+    public String executor;
+
+    @Param({ "500" })
+    public int sendMicros;
+
+    private RetryExecutors executors;
+    private SchedulerShard[] shards;
+    private final AtomicInteger sent = new AtomicInteger();
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        executors = executor.equals("shared")
+                ? RetryExecutors.shared(SHARDS * THREADS_PER_SHARD, 16)
+                : RetryExecutors.perShard(THREADS_PER_SHARD);
+        long sendNanos = TimeUnit.MICROSECONDS.toNanos(sendMicros);
+        SendGateway gateway = m -> {
+            LockSupport.parkNanos(sendNanos); // a blocking client
+            sent.incrementAndGet();
+            return true;
+        };
+        shards = new SchedulerShard[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new SchedulerShard(executors.forShard(MESSAGES), gateway, new NoopStateStore(),
+                    EngineSettings.builder()
+                            .maxInFlightPerShard(MESSAGES)
+                            .batch(1, 5)
+                            .memoryBudgetMbPerShard(0)
+                            .tombstones(0, 0)
+                            .recentCapacity(100)
+                            .timelineCapacityPerShard(0)
+                            .build());
+        }
+
+        double total = 0;
+        for (int i = 0; i < SHARDS; i++)
+            total += 1.0 / (i + 1);
+        long nowMs = System.currentTimeMillis();
+        int n = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            int count = (i == SHARDS - 1) ? MESSAGES - n : (int) (MESSAGES / (i + 1) / total);
+            for (int j = 0; j < count; j++, n++) {
+                MessageState s = MessageState.fromMessage(new Message("msg-" + n, "+15551234567", "hi"), nowMs);
+                s.attemptCount = 1;
+                s.nextDueAtMs = nowMs - 1;
+                shards[i].upsertState(s);
+                shards[i].schedule(s.messageId, s.nextDueAtMs);
+            }
+        }
+        sent.set(0);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        for (SchedulerShard shard : shards)
+            shard.shutdown();
+        executors.shutdown();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int wave() {
+        for (SchedulerShard shard : shards)
+            shard.drainDueAndDispatch();
+        while (sent.get() < MESSAGES)
+            LockSupport.parkNanos(100_000);
+        return sent.get();
+    }
+}
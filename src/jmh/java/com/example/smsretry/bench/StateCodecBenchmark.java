@@ -0,0 +1,64 @@
+// bench/StateCodecBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.BinaryStateCodec;
+import com.example.smsretry.store.JsonStateCodec;
+import com.example.smsretry.store.RecordBuffer;
+import com.example.smsretry.store.StateCodec;
+import com.example.smsretry.store.StateRecords;
+import com.example.smsretry.store.StateUpdate;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Persistence-path encode/decode of one StateUpdate, Jackson vs the binary codec.
+// encode: into the thread's reusable buffer (what the WAL does)
+// encodeCopy: plus the exact-size byte[] copy (what S3 segments keep)
+// Run with -prof gc for allocation per op, e.g.
+// -Djmh.args="StateCodecBenchmark -prof gc"
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StateCodecBenchmark {
+
+    @Param({ "json", "binary" })
+    public String codec;
+
+    private StateCodec impl;
+    private StateUpdate update;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        impl = "json".equals(codec) ? JsonStateCodec.INSTANCE : BinaryStateCodec.INSTANCE;
+        MessageState s = MessageState.fromMessage(
+                new Message("msg-1718000000000-123456", "+15551234567", "Your verification code is 482913"),
+                1_718_000_000_000L);
+        s.attemptCount = 2;
+        s.nextDueAtMs = s.arrivalAtMs + 2_000;
+        s.lastError = "mock failure";
+        update = StateUpdate.pending(s);
+        encoded = StateRecords.encode(update, impl);
+    }
+
+    @Benchmark
+    public RecordBuffer encode() throws IOException {
+        return StateRecords.encodeToBuffer(update, impl);
+    }
+
+    @Benchmark
+    public byte[] encodeCopy() throws IOException {
+        return StateRecords.encode(update, impl);
+    }
+
+    @Benchmark
+    public StateUpdate decode() throws IOException {
+        return StateRecords.decode(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,93 @@
+// bench/StateLayoutBenchmark.java
+package com.example.smsretry.bench;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.RetryExecutor;
+import com.example.smsretry.core.SchedulerShard;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+// Admits `pending` messages into one shard (state + wheel item each) under the map
+// and slots layouts. The score is the fill time; after each iteration the retained
+// heap per pending message is printed ("bytes/message"), which is the number the
+// slots layout exists for. 10M needs a large heap with the map layout.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = { "-Xms12g", "-Xmx12g" })
+@State(Scope.Thread)
+public class StateLayoutBenchmark {
+
+    @Param({ "1000000", "10000000" })
+    public int pending;
+
+    @Param({ "map", "slots" })
+    public String stateLayout;
+
+    private MockSendGateway gateway;
+    private SchedulerShard shard;
+    private MessageState[] states;
+    private long heapBase;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        gateway = new MockSendGateway(0.7, "none", 0, 0);
+        shard = new SchedulerShard(RetryExecutor.dedicated(1), gateway, new NoopStateStore(), EngineSettings.builder()
+                .maxInFlightPerShard(1)
+                .batch(1, 5)
+                .memoryBudgetMbPerShard(0)
+                .tombstones(0, 0)
+                .stateLayout(stateLayout)
+                .recentCapacity(100)
+                .timelineCapacityPerShard(4096)
+                .build());
+        heapBase = usedHeapAfterGc();
+        long now = System.currentTimeMillis();
+        states = new MessageState[pending];
+        for (int i = 0; i < pending; i++) {
+            MessageState s = MessageState.fromMessage(
+                    new Message("msg-" + (now + i) + "-" + (i % 1_000_000), "+15551234567",
+                            "Your verification code is " + (100_000 + i % 900_000)),
+                    now);
+            s.attemptCount = 1;
+            s.nextDueAtMs = now + 60_000;
+            states[i] = s;
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        // drop the input array: the map layout keeps those objects, the slots layout
+        // only its own copies, so what is left above heapBase is the layout's footprint
+        states = null;
+        long used = usedHeapAfterGc() - heapBase;
+        System.out.printf("%n%s: %d bytes/message (%d pending)%n", stateLayout,
+                used / Math.max(1, shard.stateCount()), shard.stateCount());
+        shard.shutdown();
+        gateway.shutdown();
+        shard = null;
+    }
+
+    @Benchmark
+    public int fill() {
+        for (MessageState s : states) {
+            shard.admit(s);
+            shard.schedule(s.messageId, s.nextDueAtMs);
+        }
+        return shard.stateCount();
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean mem = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return mem.getHeapMemoryUsage().getUsed();
+    }
+}
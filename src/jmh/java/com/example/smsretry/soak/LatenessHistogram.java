@@ -0,0 +1,52 @@
+// soak/LatenessHistogram.java
+package com.example.smsretry.soak;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Millisecond buckets up to MAX_MS (later values land in the last one); lock-free
+// record() from the shards' threads, approximate percentiles for the report.
+final class LatenessHistogram {
+    static final int MAX_MS = 60_000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_MS + 1);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long ms) {
+        long v = Math.max(0, ms);
+        counts.incrementAndGet((int) Math.min(MAX_MS, v));
+        total.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // smallest value with at least `p` of the recorded values at or below it
+    long percentile(double p) {
+        long n = total.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int ms = 0; ms <= MAX_MS; ms++) {
+            seen += counts.get(ms);
+            if (seen >= rank)
+                return ms;
+        }
+        return MAX_MS;
+    }
+
+    void reset() {
+        for (int ms = 0; ms <= MAX_MS; ms++)
+            counts.set(ms, 0);
+        total.set(0);
+        max.set(0);
+    }
+}
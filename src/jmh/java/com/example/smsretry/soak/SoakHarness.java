@@ -0,0 +1,401 @@
+// soak/SoakHarness.java
+package com.example.smsretry.soak;
+
+import com.example.smsretry.core.AdmissionControl;
+import com.example.smsretry.core.CapacityExceededException;
+import com.example.smsretry.core.CircuitBreaker;
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.OverloadedException;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.RetryPolicies;
+import com.example.smsretry.core.SchedulerMetrics;
+import com.example.smsretry.core.ShardSnapshot;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.store.InMemoryS3Client;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import com.example.smsretry.store.StateCodec;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Offline capacity / soak run: SmsRetryEngine on an S3StateStore over InMemoryS3Client
+// and a MockSendGateway (latency, success-rate schedule, outage windows), fed open-loop
+// at `rate` new messages/s for `duration` whether or not the engine keeps up. Every
+// `reportEvery` it prints throughput, retry lateness against nextDueAtMs, pending
+// states, heap and writer drops; then a summary over the run after `warmup`. With
+// restart=true the engine is then shut down and a new one recovers, timing the recovery
+// and the drain of the recovered backlog: from the local snapshot written by the
+// graceful shutdown (snapshot=true), otherwise from the in-memory bucket.
+//
+//   ./mvnw -Psoak test-compile exec:exec -Dsoak.args="rate=5000 duration=2h outages=30m+1m"
+//
+// Durations take ms|s|m|h; gateway offsets count from the start of the run.
+public final class SoakHarness {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("rate", "2000");              // new messages per second
+        DEFAULTS.put("duration", "5m");
+        DEFAULTS.put("warmup", "30s");             // excluded from the summary
+        DEFAULTS.put("reportEvery", "10s");
+        DEFAULTS.put("ingestThreads", "2");
+        DEFAULTS.put("shards", "16");
+        DEFAULTS.put("maxInFlight", "256");        // per shard
+        DEFAULTS.put("dispatch", "event");         // tick | event
+        DEFAULTS.put("executor", "per-shard");     // per-shard | shared
+        DEFAULTS.put("stateLayout", "map");        // map | slots
+        DEFAULTS.put("batchMaxSize", "100");
+        DEFAULTS.put("policies", "");              // retry.policies
+        DEFAULTS.put("policy", RetryPolicies.SPEC);
+        DEFAULTS.put("breaker", "true");
+        DEFAULTS.put("successRate", "0.7");
+        DEFAULTS.put("latency", "exponential:50"); // distribution:meanMs
+        DEFAULTS.put("successSchedule", "");       // e.g. 0:0.7,10m:0.3,15m:0.7
+        DEFAULTS.put("outages", "");               // e.g. 5m+30s,40m+2m
+        DEFAULTS.put("layout", "segments");        // store.s3.layout
+        DEFAULTS.put("codec", "binary");
+        DEFAULTS.put("restart", "true");
+        DEFAULTS.put("snapshot", "true");          // warm restart (ShardSnapshot)
+        DEFAULTS.put("drainTimeout", "60s");       // after the restart
+    }
+
+    private final Map<String, String> args;
+    private final double rate;
+    private final String policy;
+    private final InMemoryS3Client s3 = new InMemoryS3Client();
+    private final MockSendGateway gateway;
+    private final RetryPolicies policies;
+    private final ShardSnapshot snapshot;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong ingestLagNs = new AtomicLong();
+    private volatile boolean stopIngest;
+    private volatile SmsRetryEngine engine;
+
+    private SoakHarness(Map<String, String> args) {
+        this.args = args;
+        this.rate = Double.parseDouble(args.get("rate"));
+        this.policies = new RetryPolicies(args.get("policies"), args.get("policy"));
+        this.policy = policies.defaultPolicy().name();
+        String[] latency = args.get("latency").split(":", 2);
+        this.gateway = new MockSendGateway(Double.parseDouble(args.get("successRate")), latency[0],
+                (latency.length > 1) ? Long.parseLong(latency[1].trim()) : 0, 0, args.get("successSchedule"),
+                args.get("outages"));
+        this.snapshot = Boolean.parseBoolean(args.get("snapshot"))
+                ? new ShardSnapshot(true, Path.of(System.getProperty("java.io.tmpdir"),
+                        "soak-" + ProcessHandle.current().pid() + ".snapshot"), 8, 60_000)
+                : ShardSnapshot.disabled();
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new LinkedHashMap<>(DEFAULTS);
+        for (String a : argv) {
+            for (String kv : a.trim().split("\\s+")) {
+                if (kv.isEmpty())
+                    continue;
+                int eq = kv.indexOf('=');
+                if (eq <= 0 || !DEFAULTS.containsKey(kv.substring(0, eq)))
+                    throw new IllegalArgumentException("expected key=value with a key of " + DEFAULTS.keySet()
+                            + ": " + kv);
+                args.put(kv.substring(0, eq), kv.substring(eq + 1));
+            }
+        }
+        try {
+            new SoakHarness(args).run();
+        } finally {
+            System.exit(0); // the old store's writer threads
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.println("soak " + args);
+        long durationMs = durationMs(args.get("duration"));
+        long warmupMs = Math.min(durationMs, durationMs(args.get("warmup")));
+        long reportMs = Math.max(1_000, durationMs(args.get("reportEvery")));
+
+        S3StateStore store = newStore();
+        Recorder recorder = new Recorder();
+        engine = newEngine(store, recorder);
+        engine.recoverFromS3();
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        ticker.scheduleAtFixedRate(() -> engine.wakeup(), 500, 500, TimeUnit.MILLISECONDS);
+
+        long startNs = System.nanoTime();
+        long endNs = startNs + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        int lanes = Math.max(1, Integer.parseInt(args.get("ingestThreads")));
+        List<Thread> ingest = new ArrayList<>();
+        for (int i = 0; i < lanes; i++) {
+            int lane = i;
+            Thread t = new Thread(() -> ingest(lane, lanes, startNs, endNs), "soak-ingest-" + i);
+            t.start();
+            ingest.add(t);
+        }
+
+        Snapshot last = new Snapshot(0, recorder, store);
+        Snapshot measured = null;
+        long baselineHeap = 0;
+        for (long at = reportMs; ; at += reportMs) {
+            long dueNs = startNs + TimeUnit.MILLISECONDS.toNanos(Math.min(at, durationMs));
+            sleepUntil(dueNs);
+            if (measured == null && at >= warmupMs) {
+                baselineHeap = heapAfterGc();
+                recorder.run.reset();
+                measured = new Snapshot(System.nanoTime() - startNs, recorder, store);
+            }
+            Snapshot now = new Snapshot(System.nanoTime() - startNs, recorder, store);
+            report(last, now, recorder);
+            last = now;
+            if (at >= durationMs)
+                break;
+        }
+        stopIngest = true;
+        for (Thread t : ingest)
+            t.join();
+        long endHeap = heapAfterGc();
+        if (measured == null)
+            measured = new Snapshot(0, recorder, store);
+        summary(measured, new Snapshot(System.nanoTime() - startNs, recorder, store), recorder, store,
+                baselineHeap, endHeap);
+
+        if (Boolean.parseBoolean(args.get("restart")))
+            restart(store);
+        ticker.shutdownNow();
+        engine.shutdown();
+        gateway.shutdown();
+        if (snapshot.enabled())
+            Files.deleteIfExists(snapshot.path());
+    }
+
+    // open loop: message k is due at startNs + k / rate, sent late rather than skipped
+    private void ingest(int lane, int lanes, long startNs, long endNs) {
+        double periodNs = 1e9 / rate;
+        for (long k = lane; !stopIngest; ) {
+            long target = startNs + (long) (k * periodNs);
+            if (target >= endNs)
+                return;
+            long now = System.nanoTime();
+            if (target > now) {
+                LockSupport.parkNanos(Math.min(target - now, 1_000_000));
+                continue;
+            }
+            long lag = now - target;
+            ingestLagNs.accumulateAndGet(lag, Math::max);
+            offered.increment();
+            try {
+                engine.accept(new Message(null, "+1555" + (1_000_000 + k % 9_000_000), "soak " + k), policy);
+                accepted.increment();
+            } catch (OverloadedException | CapacityExceededException e) {
+                rejected.increment();
+            }
+            k += lanes;
+        }
+    }
+
+    private void restart(S3StateStore store) throws Exception {
+        long pending = pending(engine);
+        long t0 = System.nanoTime();
+        engine.shutdown();
+        boolean persisted = store.awaitPersisted(60_000);
+        store.close();
+        long persistMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        long snapshotKb = Files.exists(snapshot.path()) ? Files.size(snapshot.path()) >> 10 : -1;
+        long gets = s3.getCount();
+
+        Recorder recorder = new Recorder();
+        long t1 = System.nanoTime();
+        S3StateStore restored = newStore();
+        engine = newEngine(restored, recorder);
+        engine.recoverFromS3();
+        long recoverMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+        long recovered = engine.recoveryProgress().loadedCount();
+
+        long drainTimeoutNs = TimeUnit.MILLISECONDS.toNanos(durationMs(args.get("drainTimeout")));
+        while (pending(engine) > 0 && System.nanoTime() - t1 < drainTimeoutNs)
+            Thread.sleep(50);
+        long left = pending(engine);
+        long drainMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t1);
+
+        System.out.println("== restart ==");
+        System.out.printf(Locale.ROOT, "pending at shutdown %d; writer %s, shutdown took %dms (%s)%n", pending,
+                persisted ? "flushed" : "NOT flushed", persistMs,
+                (snapshotKb >= 0) ? "snapshot " + snapshotKb + "KB" : "no snapshot");
+        System.out.printf(Locale.ROOT, "recovered %d pending states from the %s in %dms (%d S3 gets, %d failed)%n",
+                recovered, engine.recoveryProgress().source(), recoverMs, s3.getCount() - gets,
+                engine.recoveryProgress().failedCount());
+        System.out.printf(Locale.ROOT, "%s %dms after restart; lateness of recovered retries p50 %d p99 %d max %dms%n",
+                (left == 0) ? "backlog drained" : "still " + left + " pending", drainMs,
+                recorder.run.percentile(0.5), recorder.run.percentile(0.99), recorder.run.max());
+    }
+
+    private void report(Snapshot a, Snapshot b, Recorder recorder) {
+        double s = Math.max(1e-9, (b.atNs - a.atNs) / 1e9);
+        LatenessHistogram h = recorder.interval;
+        System.out.printf(Locale.ROOT,
+                "t=%5ds in %7.0f/s rej %5.0f/s | sends %7.0f/s ok %7.0f/s failed %5.1f/s | late p50 %d p99 %d "
+                        + "max %dms | pending %d heap %dMB | writer q %d dropped %d | %s lag %dms%n",
+                TimeUnit.NANOSECONDS.toSeconds(b.atNs), (b.accepted - a.accepted) / s, (b.rejected - a.rejected) / s,
+                (b.sends - a.sends) / s, (b.delivered - a.delivered) / s, (b.failed - a.failed) / s,
+                h.percentile(0.5), h.percentile(0.99), h.max(), pending(engine), heapUsed() >> 20,
+                b.queueDepth, b.dropped, engine.breaker().state(),
+                TimeUnit.NANOSECONDS.toMillis(ingestLagNs.getAndSet(0)));
+        h.reset();
+    }
+
+    private void summary(Snapshot a, Snapshot b, Recorder recorder, S3StateStore store, long heap0, long heap1) {
+        double s = Math.max(1e-9, (b.atNs - a.atNs) / 1e9);
+        LatenessHistogram h = recorder.run;
+        S3Writer writer = store.writer();
+        System.out.printf(Locale.ROOT, "== summary: %.0fs measured after %s warmup ==%n", s, args.get("warmup"));
+        System.out.printf(Locale.ROOT, "offered %.0f/s  accepted %.0f/s  rejected %d (429/503)%n",
+                (b.offered - a.offered) / s, (b.accepted - a.accepted) / s, b.rejected - a.rejected);
+        System.out.printf(Locale.ROOT, "sends %.0f/s  delivered %.0f/s  failed after the last attempt %.1f/s%n",
+                (b.sends - a.sends) / s, (b.delivered - a.delivered) / s, (b.failed - a.failed) / s);
+        System.out.printf(Locale.ROOT, "retry lateness vs nextDueAtMs (n=%d): p50 %d  p90 %d  p99 %d  p99.9 %d  "
+                        + "max %dms%n", h.count(), h.percentile(0.5), h.percentile(0.9), h.percentile(0.99),
+                h.percentile(0.999), h.max());
+        System.out.printf(Locale.ROOT, "heap after GC %.1fMB -> %.1fMB (%+.1fMB, %+.1fMB/h)%n", heap0 / 1048576.0,
+                heap1 / 1048576.0, (heap1 - heap0) / 1048576.0, (heap1 - heap0) / 1048576.0 * 3600 / s);
+        System.out.printf(Locale.ROOT, "writer dropped %d  written %d  S3 puts %d  queue %d/%d%n",
+                b.dropped - a.dropped, writer.writtenCount(), s3.putCount(), writer.queueDepth(),
+                writer.queueCapacity());
+        System.out.printf(Locale.ROOT, "gateway outage errors %d  breaker trips %d  short-circuited %d%n",
+                gateway.outageErrorCount(), engine.breaker().tripCount(), engine.breaker().shortCircuitedCount());
+    }
+
+    private S3StateStore newStore() {
+        return new S3StateStore(s3, "soak", S3Writer.Layout.valueOf(args.get("layout").toUpperCase(Locale.ROOT)),
+                true, 60_000, 32, StateCodec.named(args.get("codec")));
+    }
+
+    // the application.yml defaults unless overridden above; recovery runs synchronously
+    private SmsRetryEngine newEngine(S3StateStore store, Recorder recorder) {
+        CircuitBreaker breaker = Boolean.parseBoolean(args.get("breaker"))
+                ? new CircuitBreaker(true, 5_000, 50, 0.5, 0.98, "", 5_000, 15_000, 10, 100, 10_000)
+                : CircuitBreaker.disabled();
+        SmsRetryEngine e = SmsRetryEngine.builder(gateway, store)
+                .admission(new AdmissionControl(store, 0.8, 0.9, 10_000, 1, 0))
+                .policies(policies)
+                .breaker(breaker)
+                .executors(new RetryExecutors(args.get("executor"), 2, 0, 16))
+                .snapshot(snapshot)
+                .settings(EngineSettings.builder()
+                        .shards(Integer.parseInt(args.get("shards")))
+                        .maxInFlightPerShard(Integer.parseInt(args.get("maxInFlight")))
+                        .batch(Integer.parseInt(args.get("batchMaxSize")), 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(64)
+                        .stateLayout(args.get("stateLayout"))
+                        .dispatchMode(args.get("dispatch"))
+                        .build())
+                .build();
+        for (int i = 0; i < e.shardCount(); i++)
+            e.shard(i).instrument(recorder);
+        return e;
+    }
+
+    private static long pending(SmsRetryEngine e) {
+        long n = 0;
+        for (int i = 0; i < e.shardCount(); i++)
+            n += e.shard(i).stateCount();
+        return n;
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long heapAfterGc() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return heapUsed();
+    }
+
+    private static void sleepUntil(long deadlineNs) throws InterruptedException {
+        for (long left; (left = deadlineNs - System.nanoTime()) > 0; )
+            Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+    }
+
+    // "250ms", "90s", "10m", "2h"; a bare number is ms
+    private static long durationMs(String d) {
+        String v = d.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (v.endsWith("ms")) {
+            v = v.substring(0, v.length() - 2);
+        } else if (v.endsWith("s")) {
+            unit = 1_000;
+            v = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("m")) {
+            unit = 60_000;
+            v = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("h")) {
+            unit = 3_600_000;
+            v = v.substring(0, v.length() - 1);
+        }
+        return (long) (Double.parseDouble(v.trim()) * unit);
+    }
+
+    // counters at one point of the run
+    private final class Snapshot {
+        final long atNs;
+        final long offered = SoakHarness.this.offered.sum();
+        final long accepted = SoakHarness.this.accepted.sum();
+        final long rejected = SoakHarness.this.rejected.sum();
+        final long sends;
+        final long delivered;
+        final long failed;
+        final long dropped;
+        final long queueDepth;
+
+        Snapshot(long atNs, Recorder r, S3StateStore store) {
+            this.atNs = atNs;
+            this.sends = r.sends.sum();
+            this.delivered = r.delivered.sum();
+            this.failed = r.failed.sum();
+            this.dropped = store.droppedUpdates();
+            this.queueDepth = store.queueDepth();
+        }
+    }
+
+    // what the shards report per send; `interval` is reset by every report
+    private final class Recorder implements SchedulerMetrics {
+        final LatenessHistogram interval = new LatenessHistogram();
+        final LatenessHistogram run = new LatenessHistogram();
+        final LongAdder sends = new LongAdder();
+        final LongAdder delivered = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final int lastAttempt = policies.defaultPolicy().maxAttempts();
+
+        @Override
+        public void dispatchLateness(long lateMs) {
+            interval.record(lateMs);
+            run.record(lateMs);
+        }
+
+        @Override
+        public void sendCompleted(int attemptNumber, boolean ok, long latencyNanos) {
+            sends.increment();
+            if (ok)
+                delivered.increment();
+            else if (attemptNumber >= lastAttempt)
+                failed.increment();
+        }
+    }
+}
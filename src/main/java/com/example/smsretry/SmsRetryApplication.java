@@ -20,7 +20,7 @@ public class SmsRetryApplication {
         SpringApplication.run(SmsRetryApplication.class, args);
     }
 
-    // EXACT cadence requirement (every 500ms)
+    // EXACT cadence requirement (every 500ms); no-op with scheduler.dispatch.mode=event
     @Scheduled(fixedRate = 500)
     public void tick() {
         engine.wakeup();
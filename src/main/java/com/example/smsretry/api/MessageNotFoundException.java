@@ -0,0 +1,12 @@
+// api/MessageNotFoundException.java
+package com.example.smsretry.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class MessageNotFoundException extends RuntimeException {
+    public MessageNotFoundException(String messageId) {
+        super("unknown message: " + messageId);
+    }
+}
@@ -1,48 +1,177 @@
 // api/SmsController.java
 package com.example.smsretry.api;
 
+import com.example.smsretry.core.BulkIngestor;
+import com.example.smsretry.core.OverloadedException;
+import com.example.smsretry.core.RemoteShards;
+import com.example.smsretry.core.RetryPolicy;
 import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.core.StoreLookupCache;
 import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatusView;
+import com.example.smsretry.model.MessageTimeline;
+import com.example.smsretry.model.RecentOutcome;
+import com.example.smsretry.store.RecoveryProgress;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 @RestController
 public class SmsController {
+    private static final int MAX_KEY_LENGTH = 128;
+
     private final SmsRetryEngine engine;
+    private final BulkIngestor bulk;
+    private final StoreLookupCache storeLookup;
 
-    public SmsController(SmsRetryEngine engine) {
+    public SmsController(SmsRetryEngine engine, BulkIngestor bulk, StoreLookupCache storeLookup) {
         this.engine = engine;
+        this.bulk = bulk;
+        this.storeLookup = storeLookup;
     }
 
-    public record SendRequest(String phone, String body) {
+    // policy (optional): a configured retry policy (retry.policies), else the default
+    public record SendRequest(String phone, String body, String policy) {
     }
 
+    // Idempotency-Key (optional) becomes the message id: a retried request with the same
+    // key gets the same id and "duplicate": true, and attempt #1 is sent only once
+    // (while the message is pending and for tombstone.ttlMs after it completes).
+    // In cluster mode a message for another node's shard is forwarded to it.
     @PostMapping("/messages")
-    public Map<String, Object> sendOne(@RequestBody SendRequest req) {
-        String id = engine.newMessage(new Message(null, req.phone(), req.body()));
-        return Map.of("messageId", id);
+    public Map<String, Object> sendOne(
+            @RequestHeader(value = RemoteShards.IDEMPOTENCY_KEY, required = false) String key,
+            @RequestHeader(value = RemoteShards.FORWARDED_BY, required = false) String forwardedBy,
+            @RequestBody SendRequest req) {
+        if (key != null && (key.isBlank() || key.length() > MAX_KEY_LENGTH))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    RemoteShards.IDEMPOTENCY_KEY + " must be 1-" + MAX_KEY_LENGTH + " characters");
+        String policy = checkPolicy(req.policy());
+        Message m = new Message(key, req.phone(), req.body());
+        SmsRetryEngine.Accepted a = (forwardedBy != null)
+                ? engine.acceptForwarded(m, policy)
+                : engine.accept(m, policy);
+        if (a.duplicate())
+            return Map.of("messageId", a.messageId(), "duplicate", true);
+        return Map.of("messageId", a.messageId());
     }
 
     @PostMapping("/messages/repeat")
-    public Map<String, Object> sendRepeat(@RequestParam("count") int count, @RequestBody SendRequest req) {
+    public ResponseEntity<Map<String, Object>> sendRepeat(@RequestParam("count") int count,
+            @RequestBody SendRequest req) {
         int n = Math.max(1, Math.min(200_000, count));
+        String policy = checkPolicy(req.policy());
         List<String> ids = new ArrayList<>(Math.min(n, 10_000));
+        OverloadedException throttled = null;
         for (int i = 0; i < n; i++) {
-            ids.add(engine.newMessage(new Message(null, req.phone(), req.body())));
+            try {
+                ids.add(engine.accept(new Message(null, req.phone(), req.body()), policy).messageId());
+            } catch (OverloadedException e) {
+                // stop at the first refusal; the client resubmits the remainder after Retry-After
+                if (ids.isEmpty())
+                    throw e;
+                throttled = e;
+                break;
+            }
         }
         // If N is huge, returning all IDs can be heavy; you can return a summary
         // instead.
-        return Map.of("count", n, "messageIds", ids);
+        if (throttled == null)
+            return ResponseEntity.ok(Map.of("count", ids.size(), "messageIds", ids));
+        // partly accepted: 429 as for a full refusal (ApiExceptionHandler), plus the ids
+        // that were accepted; they are being sent, only requested - count are not
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(throttled.retryAfterSeconds()))
+                .body(Map.of("error", "overloaded", "reason", throttled.reason(),
+                        "retryAfterSeconds", throttled.retryAfterSeconds(),
+                        "count", ids.size(), "requested", n, "messageIds", ids));
+    }
+
+    // NDJSON body, one {"phone","body"} (optionally "messageId") per line; streamed and
+    // fanned out over the shards. Returns a summary with per-shard counts and id ranges.
+    // ?policy= applies one retry policy to every line.
+    @PostMapping("/messages/bulk")
+    public Map<String, Object> sendBulk(@RequestParam(value = "policy", required = false) String policy,
+            InputStream body) throws IOException {
+        return bulk.ingest(body, checkPolicy(policy));
     }
 
     @GetMapping("/messages/success")
-    public List<Map<String, Object>> success(@RequestParam(value = "limit", defaultValue = "100") int limit) {
+    public List<RecentOutcome> success(@RequestParam(value = "limit", defaultValue = "100") int limit) {
         return engine.getRecentSuccess(limit);
     }
 
     @GetMapping("/messages/failed")
-    public List<Map<String, Object>> failed(@RequestParam(value = "limit", defaultValue = "100") int limit) {
+    public List<RecentOutcome> failed(@RequestParam(value = "limit", defaultValue = "100") int limit) {
         return engine.getRecentFailed(limit);
     }
+
+    // memory (pending state or attempt index) first; the store only for older messages
+    @GetMapping("/messages/{id}")
+    public MessageStatusView status(@PathVariable("id") String id) {
+        MessageStatusView view = engine.status(id);
+        if (view != null)
+            return view;
+        MessageState s = storeLookup.get(id);
+        if (s == null)
+            throw new MessageNotFoundException(id);
+        return MessageStatusView.of(s, "store");
+    }
+
+    @GetMapping("/messages/{id}/timeline")
+    public MessageTimeline timeline(@PathVariable("id") String id) {
+        MessageTimeline t = engine.timeline(id);
+        if (t == null)
+            throw new MessageNotFoundException(id);
+        return t;
+    }
+
+    @GetMapping("/retry-policies")
+    public List<Map<String, Object>> retryPolicies() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (RetryPolicy p : engine.policies().all()) {
+            long[] delays = new long[p.maxAttempts()];
+            for (int a = 1; a <= delays.length; a++)
+                delays[a - 1] = p.delayFromArrivalMs(a);
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", p.name());
+            m.put("default", p == engine.policies().defaultPolicy());
+            m.put("maxAttempts", p.maxAttempts());
+            m.put("delaysFromArrivalMs", delays);
+            m.put("jitter", p.jitter().name().toLowerCase(Locale.ROOT));
+            m.put("jitterRatio", p.ratio());
+            out.add(m);
+        }
+        return out;
+    }
+
+    @GetMapping("/recovery")
+    public Map<String, Object> recovery() {
+        Map<String, Object> out = engine.recoveryProgress().snapshot();
+        if (engine.clustered()) {
+            Map<String, Object> shards = new LinkedHashMap<>();
+            for (int i = 0; i < engine.shardCount(); i++) {
+                RecoveryProgress p = engine.activationProgress(i);
+                if (p != null)
+                    shards.put(String.valueOf(i), p.snapshot());
+            }
+            out.put("shards", shards);
+        }
+        return out;
+    }
+
+    private String checkPolicy(String policy) {
+        if (policy == null || policy.isBlank())
+            return null;
+        if (!engine.policies().has(policy))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "unknown retry policy: " + policy);
+        return policy;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+// cluster/ClusterCoordinator.java
+package com.example.smsretry.cluster;
+
+import com.example.smsretry.core.OverloadedException;
+import com.example.smsretry.core.RemoteShards;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.util.Json;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Cluster mode (cluster.enabled): spreads the engine's shards over the live nodes with
+// time-bounded leases in a shared LeaseBackend. Every renewIntervalMs a node
+//   - heartbeats and renews its leases; a shard whose lease it lost is dropped at once,
+//   - works out its fair share, ceil(shards / live nodes),
+//   - above it: hands shards off gracefully (new messages forwarded, in-flight sends
+//     finished, store flushed) and only then releases their leases,
+//   - below it: leases free or expired shards and loads their pending states.
+// At most maxMovesPerRound shards leave a node per round, so a join or leave rebalances
+// over a few rounds instead of reloading everything at once. A node that dies keeps its
+// shards until their leases expire (leaseTtlMs).
+// New messages for another node's shard are forwarded over HTTP: POST /messages with
+// the client id as Idempotency-Key, marked so the receiver never forwards them again.
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class ClusterCoordinator implements RemoteShards {
+    private final SmsRetryEngine engine;
+    private final LeaseBackend leases;
+    private final String node;
+    private final String address;
+    private final long leaseTtlMs;
+    private final long renewIntervalMs;
+    private final long handoffTimeoutMs;
+    private final int maxMovesPerRound;
+    private final Duration forwardTimeout;
+    private final HttpClient http;
+
+    private final TreeSet<Integer> owned = new TreeSet<>(); // under this
+    private volatile Map<Integer, String> ownerAddress = Map.of();
+    private ScheduledExecutorService timer;
+
+    public ClusterCoordinator(
+            SmsRetryEngine engine,
+            StateStore store,
+            LeaseBackend leases,
+            @Value("${cluster.advertiseUrl:http://localhost:${server.port:8080}}") String advertiseUrl,
+            @Value("${cluster.nodeName:}") String nodeName,
+            @Value("${cluster.leaseTtlMs:15000}") long leaseTtlMs,
+            @Value("${cluster.renewIntervalMs:3000}") long renewIntervalMs,
+            @Value("${cluster.handoffTimeoutMs:10000}") long handoffTimeoutMs,
+            @Value("${cluster.maxMovesPerRound:1}") int maxMovesPerRound,
+            @Value("${cluster.forwardTimeoutMs:2000}") long forwardTimeoutMs) {
+        if (!engine.clustered())
+            throw new IllegalStateException("cluster coordinator needs the engine in cluster mode");
+        if (!store.supportsClusterMode())
+            throw new IllegalStateException("cluster.enabled needs a shared store: store.type=s3, store.s3.layout=objects");
+        this.engine = engine;
+        this.leases = leases;
+        this.address = advertiseUrl.endsWith("/") ? advertiseUrl.substring(0, advertiseUrl.length() - 1) : advertiseUrl;
+        this.node = nodeName.isBlank() ? this.address : nodeName.trim().replace(' ', '_');
+        this.leaseTtlMs = Math.max(1, leaseTtlMs);
+        this.renewIntervalMs = Math.max(1, Math.min(renewIntervalMs, this.leaseTtlMs / 2));
+        this.handoffTimeoutMs = Math.max(0, handoffTimeoutMs);
+        this.maxMovesPerRound = Math.max(1, maxMovesPerRound);
+        this.forwardTimeout = Duration.ofMillis(Math.max(1, forwardTimeoutMs));
+        this.http = HttpClient.newBuilder().connectTimeout(forwardTimeout).build();
+        engine.attachRemote(this);
+    }
+
+    @PostConstruct
+    public void start() {
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cluster-leases");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                round();
+            } catch (RuntimeException e) {
+                // lease backend unreachable: keep what we hold until renewals fail
+            }
+        }, 0, renewIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Graceful leave: every shard is handed off and released, so the other nodes pick
+    // them up on their next round rather than after the lease TTL.
+    @PreDestroy
+    public synchronized void stop() {
+        if (timer != null)
+            timer.shutdownNow();
+        for (int shard : owned) {
+            engine.releaseShard(shard, handoffTimeoutMs);
+            leases.release(shard, node);
+        }
+        owned.clear();
+        leases.leave(node);
+    }
+
+    public String nodeName() {
+        return node;
+    }
+
+    public synchronized Set<Integer> ownedShards() {
+        return new TreeSet<>(owned);
+    }
+
+    // One heartbeat/renew/rebalance pass; runs on the timer (tests call it directly).
+    public synchronized void round() {
+        Map<String, String> members = leases.heartbeat(node, address, leaseTtlMs);
+
+        for (Iterator<Integer> it = owned.iterator(); it.hasNext(); ) {
+            int shard = it.next();
+            if (!leases.tryAcquire(shard, node, leaseTtlMs)) {
+                // expired and taken over (we stalled past the TTL): stop at once
+                engine.releaseShard(shard, 0);
+                it.remove();
+            }
+        }
+
+        int shards = engine.shardCount();
+        int fair = (shards + members.size() - 1) / Math.max(1, members.size());
+        Map<Integer, LeaseBackend.Lease> current = leases.leases();
+        if (owned.size() > fair) {
+            for (int moved = 0; moved < maxMovesPerRound && owned.size() > fair; moved++) {
+                int shard = owned.last();
+                engine.releaseShard(shard, handoffTimeoutMs);
+                leases.release(shard, node);
+                owned.remove(shard);
+            }
+        } else {
+            for (int shard = 0; shard < shards && owned.size() < fair; shard++) {
+                if (current.containsKey(shard) || !leases.tryAcquire(shard, node, leaseTtlMs))
+                    continue;
+                owned.add(shard);
+                engine.activateShard(shard);
+            }
+        }
+
+        Map<Integer, String> addresses = new HashMap<>();
+        for (LeaseBackend.Lease lease : leases.leases().values()) {
+            String a = members.get(lease.owner());
+            if (a != null && !lease.owner().equals(node))
+                addresses.put(lease.shard(), a);
+        }
+        ownerAddress = addresses;
+    }
+
+    @Override
+    public SmsRetryEngine.Accepted forward(int shard, Message m, String policy) {
+        String target = ownerAddress.get(shard);
+        if (target == null)
+            throw new OverloadedException(UNOWNED, 1);
+
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(target + "/messages"))
+                .timeout(forwardTimeout)
+                .header("Content-Type", "application/json")
+                .header(FORWARDED_BY, node);
+        if (m.messageId() != null && !m.messageId().isBlank())
+            req.header(IDEMPOTENCY_KEY, m.messageId());
+        try {
+            Map<String, String> body = new LinkedHashMap<>();
+            body.put("phone", m.phone());
+            body.put("body", m.body());
+            if (policy != null)
+                body.put("policy", policy);
+            HttpResponse<byte[]> resp = http.send(
+                    req.POST(HttpRequest.BodyPublishers.ofByteArray(Json.MAPPER.writeValueAsBytes(body))).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            if (resp.statusCode() == 200) {
+                JsonNode out = Json.MAPPER.readTree(resp.body());
+                return new SmsRetryEngine.Accepted(out.path("messageId").asText(), out.path("duplicate").asBoolean());
+            }
+            // 429 from the owner, or it let go of the shard meanwhile
+            int retryAfter = 1;
+            try {
+                retryAfter = Integer.parseInt(resp.headers().firstValue("Retry-After").orElse("1"));
+            } catch (NumberFormatException ignored) {
+            }
+            throw new OverloadedException(UNOWNED, retryAfter);
+        } catch (IOException e) {
+            throw new OverloadedException(UNOWNED, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OverloadedException(UNOWNED, 1);
+        }
+    }
+}
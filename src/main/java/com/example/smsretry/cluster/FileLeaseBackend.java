@@ -0,0 +1,147 @@
+// cluster/FileLeaseBackend.java
+package com.example.smsretry.cluster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Lease backend on one properties file in a directory every node can reach (local disk
+// for several nodes on a host, or a shared mount):
+//   node.<name>  = <expiresAtMs> <address>
+//   shard.<i>    = <expiresAtMs> <owner>
+// Every call is a read-modify-write under an exclusive file lock.
+@Component
+@ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+public class FileLeaseBackend implements LeaseBackend {
+    private static final String NODE = "node.";
+    private static final String SHARD = "shard.";
+    // FileLock is held per process; nodes sharing a JVM (tests) serialize here first
+    private static final Object JVM_LOCK = new Object();
+
+    private final Path file;
+
+    @Autowired
+    public FileLeaseBackend(@Value("${cluster.leaseDir:./data/cluster}") String dir) {
+        this(Path.of(dir));
+    }
+
+    public FileLeaseBackend(Path dir) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.file = dir.resolve("leases.properties");
+    }
+
+    @Override
+    public Map<String, String> heartbeat(String node, String address, long ttlMs) {
+        return update(true, (p, now) -> {
+            p.setProperty(NODE + node, (now + ttlMs) + " " + address);
+            Map<String, String> live = new TreeMap<>();
+            for (String key : p.stringPropertyNames()) {
+                if (!key.startsWith(NODE))
+                    continue;
+                String[] v = p.getProperty(key).split(" ", 2);
+                if (Long.parseLong(v[0]) > now)
+                    live.put(key.substring(NODE.length()), v[1]);
+                else
+                    p.remove(key);
+            }
+            return live;
+        });
+    }
+
+    @Override
+    public void leave(String node) {
+        update(true, (p, now) -> p.remove(NODE + node));
+    }
+
+    @Override
+    public boolean tryAcquire(int shard, String node, long ttlMs) {
+        return update(true, (p, now) -> {
+            String cur = p.getProperty(SHARD + shard);
+            if (cur != null) {
+                String[] v = cur.split(" ", 2);
+                if (Long.parseLong(v[0]) > now && !v[1].equals(node))
+                    return false;
+            }
+            p.setProperty(SHARD + shard, (now + ttlMs) + " " + node);
+            return true;
+        });
+    }
+
+    @Override
+    public void release(int shard, String node) {
+        update(true, (p, now) -> {
+            String cur = p.getProperty(SHARD + shard);
+            if (cur != null && cur.split(" ", 2)[1].equals(node))
+                p.remove(SHARD + shard);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<Integer, Lease> leases() {
+        return update(false, (p, now) -> {
+            Map<Integer, Lease> out = new TreeMap<>();
+            for (String key : p.stringPropertyNames()) {
+                if (!key.startsWith(SHARD))
+                    continue;
+                String[] v = p.getProperty(key).split(" ", 2);
+                long expiresAt = Long.parseLong(v[0]);
+                if (expiresAt > now) {
+                    int shard = Integer.parseInt(key.substring(SHARD.length()));
+                    out.put(shard, new Lease(shard, v[1], expiresAt));
+                }
+            }
+            return out;
+        });
+    }
+
+    private interface Op<T> {
+        T apply(Properties p, long nowMs);
+    }
+
+    private <T> T update(boolean write, Op<T> op) {
+        synchronized (JVM_LOCK) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+                    FileLock ignored = ch.lock()) {
+                byte[] bytes = new byte[(int) ch.size()];
+                ByteBuffer in = ByteBuffer.wrap(bytes);
+                while (in.hasRemaining() && ch.read(in, in.position()) > 0) {
+                }
+                Properties p = new Properties();
+                p.load(new ByteArrayInputStream(bytes));
+
+                T result = op.apply(p, System.currentTimeMillis());
+                if (write) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    p.store(out, null);
+                    ch.truncate(0);
+                    ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+                    while (buf.hasRemaining())
+                        ch.write(buf, buf.position());
+                    ch.force(false);
+                }
+                return result;
+            } catch (IOException e) {
+                throw new UncheckedIOException("lease file " + file, e);
+            }
+        }
+    }
+}
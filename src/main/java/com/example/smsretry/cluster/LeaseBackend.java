@@ -0,0 +1,29 @@
+// cluster/LeaseBackend.java
+package com.example.smsretry.cluster;
+
+import java.util.Map;
+
+// Shared record of the cluster's members and shard leases. Each call is atomic with
+// respect to the other nodes. Expiry is wall-clock ms, so node clocks must roughly
+// agree (skew eats into the lease TTL).
+public interface LeaseBackend {
+
+    record Lease(int shard, String owner, long expiresAtMs) {
+    }
+
+    // Announces `node` (reachable at `address`) for ttlMs; returns the live members,
+    // node -> address, including this one.
+    Map<String, String> heartbeat(String node, String address, long ttlMs);
+
+    // Graceful leave: drops `node` from the members at once.
+    void leave(String node);
+
+    // Takes or renews a lease: succeeds if the shard is free, expired or already `node`'s.
+    boolean tryAcquire(int shard, String node, long ttlMs);
+
+    // No-op unless `node` holds the lease.
+    void release(int shard, String node);
+
+    // Unexpired leases by shard.
+    Map<Integer, Lease> leases();
+}
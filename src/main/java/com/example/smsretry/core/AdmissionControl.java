@@ -0,0 +1,104 @@
+// core/AdmissionControl.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.store.StateStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Refuses new messages (OverloadedException -> 429 + Retry-After) while a downstream
+// stage is saturated, so overload shows up at the API instead of as silently dropped
+// state writes or an ever-growing retry backlog:
+//   store   - persistence queue fill (S3 writer) above storeHighWater
+//   memory  - owning shard's state bytes above memoryHighWater of its budget
+//   backlog - owning shard pushed back more than maxDueBacklog due retries last tick
+//             because all of its in-flight permits were taken
+// With maxWaitMs > 0 a request waits that long for the pressure to clear before it is
+// refused. Recovery and retries are never subject to admission. Every threshold is off
+// by default, as in unlimited().
+@Component
+public class AdmissionControl {
+    public static final String STORE = "store";
+    public static final String MEMORY = "memory";
+    public static final String BACKLOG = "backlog";
+
+    private final StateStore store;
+    private final double storeHighWater;
+    private final double memoryHighWater;
+    private final int maxDueBacklog;
+    private final int retryAfterSeconds;
+    private final long maxWaitNs;
+
+    private final LongAdder rejectedStore = new LongAdder();
+    private final LongAdder rejectedMemory = new LongAdder();
+    private final LongAdder rejectedBacklog = new LongAdder();
+
+    @Autowired
+    public AdmissionControl(
+            StateStore store,
+            @Value("${admission.storeHighWater:1.0}") double storeHighWater,
+            @Value("${admission.memoryHighWater:1.0}") double memoryHighWater,
+            @Value("${admission.maxDueBacklog:0}") int maxDueBacklog,
+            @Value("${admission.retryAfterSeconds:1}") int retryAfterSeconds,
+            @Value("${admission.maxWaitMs:0}") long maxWaitMs) {
+        this.store = store;
+        this.storeHighWater = storeHighWater;
+        this.memoryHighWater = memoryHighWater;
+        this.maxDueBacklog = maxDueBacklog;
+        this.retryAfterSeconds = Math.max(1, retryAfterSeconds);
+        this.maxWaitNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+    }
+
+    // thresholds at 1.0 / 0 never trip (benchmarks, tests)
+    public static AdmissionControl unlimited(StateStore store) {
+        return new AdmissionControl(store, 1.0, 1.0, 0, 1, 0);
+    }
+
+    public void check(SchedulerShard shard) {
+        String reason = overloaded(shard);
+        if (reason == null)
+            return;
+        if (maxWaitNs > 0) {
+            long deadline = System.nanoTime() + maxWaitNs;
+            while (reason != null && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                reason = overloaded(shard);
+            }
+            if (reason == null)
+                return;
+        }
+        counter(reason).increment();
+        throw new OverloadedException(reason, retryAfterSeconds);
+    }
+
+    // Cheapest signals first; null when the message may be admitted.
+    private String overloaded(SchedulerShard shard) {
+        if (maxDueBacklog > 0 && shard.dueBacklog() > maxDueBacklog)
+            return BACKLOG;
+        if (storeHighWater < 1.0 && store.saturation() >= storeHighWater)
+            return STORE;
+        if (memoryHighWater < 1.0 && shard.memorySaturation() >= memoryHighWater)
+            return MEMORY;
+        return null;
+    }
+
+    public long rejectedCount(String reason) {
+        return counter(reason).sum();
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    private LongAdder counter(String reason) {
+        return switch (reason) {
+            case STORE -> rejectedStore;
+            case MEMORY -> rejectedMemory;
+            default -> rejectedBacklog;
+        };
+    }
+}
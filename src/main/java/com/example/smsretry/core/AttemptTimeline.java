@@ -0,0 +1,99 @@
+// core/AttemptTimeline.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.AttemptRecord;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.MessageTimeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-shard attempt history for the last `capacity` messages that were sent, pending or
+// terminal. Each attempt is one packed long:
+//   [32 bits start, ms after arrival][30 bits latency, us (capped)][1 bit ok][1 bit set]
+// in a fixed column of maxAttempts longs per slot. Slots are handed out in FIFO order;
+// when the table is full the oldest message's slot is reused, so memory is fixed at
+// construction. Ids are found through a SlotIndex, as in SlotStateTable. All access is
+// under the monitor.
+final class AttemptTimeline {
+    private static final MessageStatus[] STATUSES = MessageStatus.values();
+    private static final long MAX_OFFSET_MS = 0xFFFF_FFFFL;
+    private static final long MAX_LATENCY_US = 0x3FFF_FFFFL;
+
+    private final String[] ids; // null = free slot
+    private final long[] arrivalAtMs;
+    private final long[] attempts;
+    private final byte[] count;
+    private final byte[] status;
+    private final int maxAttempts;
+    private int nextSlot;
+
+    private final SlotIndex index;
+
+    AttemptTimeline(int capacity) {
+        this(capacity, RetryDelays.ATTEMPTS);
+    }
+
+    // maxAttempts: the longest retry policy; later attempts are not recorded
+    AttemptTimeline(int capacity, int maxAttempts) {
+        int cap = Math.max(16, capacity);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        ids = new String[cap];
+        arrivalAtMs = new long[cap];
+        attempts = new long[cap * maxAttempts];
+        count = new byte[cap];
+        status = new byte[cap];
+        index = new SlotIndex(cap, (slot, id) -> id.equals(ids[slot]));
+    }
+
+    int capacity() {
+        return ids.length;
+    }
+
+    synchronized void record(String messageId, long arrivalMs, int attemptNumber, long startMs, long latencyNs,
+            boolean ok, MessageStatus after) {
+        if (attemptNumber < 1 || attemptNumber > maxAttempts)
+            return;
+        int slot = index.find(messageId);
+        if (slot < 0)
+            slot = insert(messageId, arrivalMs);
+
+        long offset = Math.min(MAX_OFFSET_MS, Math.max(0, startMs - arrivalAtMs[slot]));
+        long latencyUs = Math.min(MAX_LATENCY_US, Math.max(0, latencyNs / 1000));
+        attempts[slot * maxAttempts + attemptNumber - 1] = (offset << 32) | (latencyUs << 2) | (ok ? 2 : 0) | 1;
+        count[slot] = (byte) Math.max(count[slot], attemptNumber);
+        status[slot] = (byte) after.ordinal();
+    }
+
+    synchronized MessageTimeline get(String messageId) {
+        int slot = index.find(messageId);
+        if (slot < 0)
+            return null;
+        long arrival = arrivalAtMs[slot];
+        List<AttemptRecord> out = new ArrayList<>(count[slot]);
+        for (int a = 0; a < count[slot]; a++) {
+            long p = attempts[slot * maxAttempts + a];
+            if ((p & 1) == 0)
+                continue; // not recorded (e.g. its outcome is still in flight)
+            out.add(new AttemptRecord(a + 1, arrival + (p >>> 32), ((p >>> 2) & MAX_LATENCY_US) / 1000.0,
+                    (p & 2) != 0));
+        }
+        return new MessageTimeline(messageId, arrival, STATUSES[status[slot]], count[slot], out);
+    }
+
+    private int insert(String messageId, long arrivalMs) {
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1 == ids.length) ? 0 : nextSlot + 1;
+        if (ids[slot] != null)
+            index.remove(slot);
+
+        ids[slot] = messageId;
+        arrivalAtMs[slot] = arrivalMs;
+        count[slot] = 0;
+        status[slot] = (byte) MessageStatus.PENDING.ordinal();
+        for (int a = 0; a < maxAttempts; a++)
+            attempts[slot * maxAttempts + a] = 0;
+        index.add(slot, messageId);
+        return slot;
+    }
+}
@@ -0,0 +1,269 @@
+// core/BulkIngestor.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageIds;
+import com.example.smsretry.util.Json;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// NDJSON bulk ingestion: one {"phone","body"[,"messageId"]} object per line, parsed as
+// it streams in. Lines are grouped by owning shard (generated ids round-robin over this
+// node's shards) into chunks of chunkSize, and each full chunk is admitted on the bulk
+// pool; in cluster mode lines for another node's shard are forwarded one by one.
+// At most `window` chunks are queued or running; the reader blocks beyond that, so
+// memory stays at ~(shards + window) * chunkSize messages whatever the body size, and
+// a slow engine slows the upload down instead of buffering it.
+// A chunk that hits admission control waits (up to maxStallMs per message) rather
+// than failing the rest of the stream. Lines whose messageId the engine already has
+// are counted as duplicates and not sent again.
+@Component
+public class BulkIngestor {
+    private static final ObjectReader LINE = Json.MAPPER.readerFor(Message.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final int MAX_REPORTED_LINES = 100;
+
+    private final SmsRetryEngine engine;
+    private final int chunkSize;
+    private final int window;
+    private final long maxStallNs;
+    private final ExecutorService pool;
+
+    public BulkIngestor(
+            SmsRetryEngine engine,
+            @Value("${bulk.parallelism:0}") int parallelism,
+            @Value("${bulk.chunkSize:512}") int chunkSize,
+            @Value("${bulk.window:0}") int window,
+            @Value("${bulk.maxStallMs:30000}") long maxStallMs) {
+        this.engine = engine;
+        int threads = (parallelism > 0) ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = Math.max(1, chunkSize);
+        this.window = (window > 0) ? window : 4 * threads;
+        this.maxStallNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxStallMs));
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bulk-ingest-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public Map<String, Object> ingest(InputStream body) throws IOException {
+        return ingest(body, null);
+    }
+
+    // policy: retry policy for every line (null = the default); the caller checks the name
+    public Map<String, Object> ingest(InputStream body, String policy) throws IOException {
+        long startNs = System.nanoTime();
+        int shards = engine.shardCount();
+        Run run = new Run(shards, policy);
+        List<List<Line>> open = new ArrayList<>(Collections.nCopies(shards, null));
+        int roundRobin = 0;
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), 1 << 16);
+        int lineNo = 0;
+        String text;
+        try {
+            while ((text = in.readLine()) != null) {
+                lineNo++;
+                if (text.isBlank())
+                    continue;
+                Message m;
+                try {
+                    m = LINE.readValue(text);
+                } catch (IOException e) {
+                    run.invalid(lineNo);
+                    continue;
+                }
+                if (m == null || m.phone() == null || m.body() == null) {
+                    run.invalid(lineNo);
+                    continue;
+                }
+
+                int shard;
+                if (m.messageId() == null || m.messageId().isBlank()) {
+                    shard = engine.localShard(roundRobin);
+                    roundRobin = (roundRobin + 1 == shards) ? 0 : roundRobin + 1;
+                } else {
+                    shard = engine.shardIndexFor(m.messageId());
+                }
+                List<Line> chunk = open.get(shard);
+                if (chunk == null) {
+                    chunk = new ArrayList<>(chunkSize);
+                    open.set(shard, chunk);
+                }
+                chunk.add(new Line(lineNo, m));
+                if (chunk.size() == chunkSize) {
+                    submit(run, shard, chunk);
+                    open.set(shard, null);
+                }
+            }
+            for (int shard = 0; shard < shards; shard++) {
+                if (open.get(shard) != null)
+                    submit(run, shard, open.get(shard));
+            }
+        } finally {
+            run.awaitAll(window);
+        }
+        return run.summary(lineNo, System.nanoTime() - startNs);
+    }
+
+    private void submit(Run run, int shard, List<Line> chunk) {
+        run.slots.acquireUninterruptibly();
+        try {
+            pool.execute(() -> {
+                try {
+                    admitChunk(run, shard, chunk);
+                } finally {
+                    run.slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            run.slots.release();
+            for (Line l : chunk)
+                run.rejected(l.number);
+        }
+    }
+
+    private void admitChunk(Run run, int shard, List<Line> chunk) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        int accepted = 0;
+        int duplicates = 0;
+        for (Line l : chunk) {
+            SmsRetryEngine.Accepted a = admit(shard, l.message, run.policy);
+            if (a == null) {
+                run.rejected(l.number);
+                continue;
+            }
+            if (a.duplicate()) {
+                duplicates++;
+                continue;
+            }
+            accepted++;
+            long raw = MessageIds.parse(a.messageId());
+            if (raw >= 0) {
+                first = Math.min(first, raw);
+                last = Math.max(last, raw);
+            }
+        }
+        run.accepted(shard, accepted, duplicates, first, last);
+    }
+
+    // Null if the engine kept refusing the message.
+    private SmsRetryEngine.Accepted admit(int shard, Message m, String policy) {
+        long deadline = System.nanoTime() + maxStallNs;
+        while (true) {
+            try {
+                return engine.accept(m, shard, policy);
+            } catch (OverloadedException | CapacityExceededException e) {
+                if (System.nanoTime() >= deadline)
+                    return null;
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    private record Line(int number, Message message) {
+    }
+
+    // Counters of one request; chunk workers update them concurrently.
+    private final class Run {
+        final Semaphore slots = new Semaphore(window);
+        final String policy;
+        final long[] count;
+        final long[] firstId;
+        final long[] lastId;
+        int invalid;
+        int rejected;
+        long duplicates;
+        final List<Integer> invalidLines = new ArrayList<>();
+        final List<Integer> rejectedLines = new ArrayList<>();
+
+        Run(int shards, String policy) {
+            this.policy = policy;
+            count = new long[shards];
+            firstId = new long[shards];
+            lastId = new long[shards];
+            Arrays.fill(firstId, Long.MAX_VALUE);
+            Arrays.fill(lastId, Long.MIN_VALUE);
+        }
+
+        synchronized void accepted(int shard, int n, int dup, long first, long last) {
+            count[shard] += n;
+            duplicates += dup;
+            firstId[shard] = Math.min(firstId[shard], first);
+            lastId[shard] = Math.max(lastId[shard], last);
+        }
+
+        synchronized void invalid(int line) {
+            invalid++;
+            if (invalidLines.size() < MAX_REPORTED_LINES)
+                invalidLines.add(line);
+        }
+
+        synchronized void rejected(int line) {
+            rejected++;
+            if (rejectedLines.size() < MAX_REPORTED_LINES)
+                rejectedLines.add(line);
+        }
+
+        void awaitAll(int permits) {
+            slots.acquireUninterruptibly(permits);
+            slots.release(permits);
+        }
+
+        // Compact result: per-shard counts with the generated-id range (ids sort by time,
+        // so every id the bulk request produced on a shard lies within [firstId, lastId]).
+        synchronized Map<String, Object> summary(int lines, long elapsedNs) {
+            long accepted = 0;
+            List<Map<String, Object>> perShard = new ArrayList<>();
+            for (int shard = 0; shard < count.length; shard++) {
+                if (count[shard] == 0)
+                    continue;
+                accepted += count[shard];
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("shard", shard);
+                m.put("count", count[shard]);
+                if (firstId[shard] != Long.MAX_VALUE) {
+                    m.put("firstId", MessageIds.format(firstId[shard]));
+                    m.put("lastId", MessageIds.format(lastId[shard]));
+                }
+                perShard.add(m);
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("lines", lines);
+            out.put("accepted", accepted);
+            out.put("duplicates", duplicates);
+            out.put("invalid", invalid);
+            out.put("rejected", rejected);
+            out.put("durationMs", TimeUnit.NANOSECONDS.toMillis(elapsedNs));
+            out.put("shards", perShard);
+            if (!invalidLines.isEmpty())
+                out.put("invalidLines", invalidLines);
+            if (!rejectedLines.isEmpty())
+                out.put("rejectedLines", rejectedLines);
+            return out;
+        }
+    }
+}
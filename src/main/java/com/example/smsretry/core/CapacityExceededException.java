@@ -0,0 +1,13 @@
+// core/CapacityExceededException.java
+package com.example.smsretry.core;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// The owning shard has no memory budget left for another pending message.
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class CapacityExceededException extends RuntimeException {
+    public CapacityExceededException(String message) {
+        super(message);
+    }
+}
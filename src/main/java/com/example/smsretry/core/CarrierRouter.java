@@ -0,0 +1,186 @@
+// core/CarrierRouter.java
+package com.example.smsretry.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-carrier adaptive concurrency limits in front of the SendGateway.
+// Numbers are classified by longest matching prefix (carriers.routes, e.g.
+// "vodafone-uk=+44740|+44741,att=+1205"); anything else goes to the "default"
+// carrier. Each carrier's limit follows AIMD:
+//   - a fast completion while the limit is binding (in-flight >= limit/2) adds 1/limit,
+//     i.e. about +1 per limit's worth of sends
+//   - a gateway error or a completion slower than latencyTargetMs multiplies it by
+//     backoff, at most once per decreaseIntervalMs so one slow burst counts once
+// A plain "not delivered" outcome is a message-level failure and does not move it.
+// The shards ask acquire() before sending; at the limit they defer the message on
+// their wheel for deferMs instead of blocking a thread or holding a shard permit,
+// so a degraded carrier cannot starve sends to healthy ones.
+@Component
+public class CarrierRouter {
+    public static final String DEFAULT_CARRIER = "default";
+
+    private final boolean adaptive;
+    private final double minLimit;
+    private final double maxLimit;
+    private final long latencyTargetNs;
+    private final double backoff;
+    private final long decreaseIntervalNs;
+    private final long deferMs;
+
+    private final Map<String, Carrier> byPrefix = new HashMap<>();
+    private final int[] prefixLengths; // longest first
+    private final Carrier fallback;
+    private final List<Carrier> carriers = new ArrayList<>();
+
+    @Autowired
+    public CarrierRouter(
+            @Value("${carriers.routes:}") String routes,
+            @Value("${carriers.adaptive:true}") boolean adaptive,
+            @Value("${carriers.initialLimit:1024}") int initialLimit,
+            @Value("${carriers.minLimit:8}") int minLimit,
+            @Value("${carriers.maxLimit:8192}") int maxLimit,
+            @Value("${carriers.latencyTargetMs:2000}") long latencyTargetMs,
+            @Value("${carriers.backoff:0.7}") double backoff,
+            @Value("${carriers.decreaseIntervalMs:500}") long decreaseIntervalMs,
+            @Value("${carriers.deferMs:50}") long deferMs) {
+        this.adaptive = adaptive;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTargetNs = TimeUnit.MILLISECONDS.toNanos(latencyTargetMs);
+        this.backoff = Math.min(0.99, Math.max(0.1, backoff));
+        this.decreaseIntervalNs = TimeUnit.MILLISECONDS.toNanos(decreaseIntervalMs);
+        this.deferMs = Math.max(1, deferMs);
+        double initial = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+
+        Map<String, Carrier> named = new LinkedHashMap<>();
+        TreeSet<Integer> lengths = new TreeSet<>(Comparator.reverseOrder());
+        for (String route : routes.split(",")) {
+            if (route.isBlank())
+                continue;
+            int eq = route.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("carriers.routes entry must be name=prefix|prefix: " + route);
+            String name = route.substring(0, eq).trim();
+            Carrier c = named.computeIfAbsent(name, n -> new Carrier(n, initial));
+            for (String prefix : route.substring(eq + 1).split("\\|")) {
+                String p = prefix.trim();
+                if (p.isEmpty())
+                    continue;
+                byPrefix.put(p, c);
+                lengths.add(p.length());
+            }
+        }
+        this.fallback = named.computeIfAbsent(DEFAULT_CARRIER, n -> new Carrier(n, initial));
+        this.carriers.addAll(named.values());
+        this.prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // one carrier, limit effectively unbounded (benchmarks, tests)
+    public static CarrierRouter unlimited() {
+        return new CarrierRouter("", false, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 0, 0.7, 0, 50);
+    }
+
+    public Carrier carrierOf(String phone) {
+        if (phone != null) {
+            for (int len : prefixLengths) {
+                if (phone.length() < len)
+                    continue;
+                Carrier c = byPrefix.get(phone.substring(0, len));
+                if (c != null)
+                    return c;
+            }
+        }
+        return fallback;
+    }
+
+    // A send slot on the number's carrier, or null when it is at its limit (the caller
+    // defers by deferMs()). Every non-null result must be released exactly once.
+    public Carrier acquire(String phone) {
+        Carrier c = carrierOf(phone);
+        if (c.tryAcquire())
+            return c;
+        c.deferred.increment();
+        return null;
+    }
+
+    public long deferMs() {
+        return deferMs;
+    }
+
+    public List<Carrier> carriers() {
+        return Collections.unmodifiableList(carriers);
+    }
+
+    public final class Carrier {
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder deferred = new LongAdder();
+        private final LongAdder decreases = new LongAdder();
+        private volatile double limit;
+        private long lastDecreaseNs; // under this
+
+        Carrier(String name, double limit) {
+            this.name = name;
+            this.limit = limit;
+            this.lastDecreaseNs = System.nanoTime() - decreaseIntervalNs;
+        }
+
+        private boolean tryAcquire() {
+            int cur;
+            do {
+                cur = inFlight.get();
+                if (cur >= (int) limit)
+                    return false;
+            } while (!inFlight.compareAndSet(cur, cur + 1));
+            return true;
+        }
+
+        // error: the gateway failed (exception/timeout), as opposed to "not delivered"
+        public void release(long latencyNs, boolean error) {
+            int before = inFlight.getAndDecrement();
+            if (!adaptive)
+                return;
+            if (error || latencyNs > latencyTargetNs) {
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    if (now - lastDecreaseNs < decreaseIntervalNs)
+                        return;
+                    lastDecreaseNs = now;
+                    limit = Math.max(minLimit, limit * backoff);
+                }
+                decreases.increment();
+            } else if (before >= limit / 2 && limit < maxLimit) {
+                synchronized (this) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public double limit() {
+            return limit;
+        }
+
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        public long deferredCount() {
+            return deferred.sum();
+        }
+
+        public long decreaseCount() {
+            return decreases.sum();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+// core/CircuitBreaker.java
+package com.example.smsretry.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+// Gateway outage detection in front of the SendGateway, shared by all shards.
+// Outcomes are counted over windowMs (ten buckets) as sends, errors (exceptions of
+// errorTypes, any exception if empty) and failures (errors + "not delivered"). Once
+// minCalls sends are in the window it trips when errors/sends >= errorRate or
+// failures/sends >= failureRate:
+//   CLOSED     -> OPEN       on a trip; no sends for openMs (doubling up to maxOpenMs
+//                            while probes keep failing)
+//   OPEN       -> HALF_OPEN  after openMs; `probes` trial sends go out
+//   HALF_OPEN  -> RECOVERING when the probes stay under both rates, else back to OPEN
+//   RECOVERING -> CLOSED     after rampMs; sends are rate limited meanwhile, starting at
+//                            rampStartPerSec and doubling every rampMs / 8
+// The shards ask tryAcquire() before each send and park due retries while it says no,
+// so an outage costs neither attempts nor store writes, and the parked backlog drains
+// at the ramp's rate instead of all at once.
+@Component
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN, RECOVERING
+    }
+
+    private static final int BUCKETS = 10;
+    private static final int RAMP_STEPS = 8;
+
+    private final boolean enabled;
+    private final long bucketMs;
+    private final int minCalls;
+    private final double errorRate;
+    private final double failureRate;
+    private final Set<String> errorTypes;
+    private final long openMs;
+    private final long maxOpenMs;
+    private final int probes;
+    private final double rampStartPerSec;
+    private final long rampMs;
+
+    private final ClassValue<Boolean> isError = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            if (errorTypes.isEmpty())
+                return true;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                if (errorTypes.contains(c.getName()) || errorTypes.contains(c.getSimpleName()))
+                    return true;
+            }
+            return false;
+        }
+    };
+
+    private volatile State state = State.CLOSED;
+    private volatile long openUntilMs;
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    // under this
+    private final long[] bucketEpoch = new long[BUCKETS];
+    private final int[] calls = new int[BUCKETS];
+    private final int[] errors = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+    private long currentOpenMs;
+    private long stateSinceMs;
+    private int probesIssued;
+    private int probeResults;
+    private int probeErrors;
+    private int probeFailures;
+    private double tokens;
+    private long tokensAtNs;
+
+    @Autowired
+    public CircuitBreaker(
+            @Value("${breaker.enabled:false}") boolean enabled,
+            @Value("${breaker.windowMs:5000}") long windowMs,
+            @Value("${breaker.minCalls:50}") int minCalls,
+            @Value("${breaker.errorRate:0.5}") double errorRate,
+            @Value("${breaker.failureRate:0.98}") double failureRate,
+            @Value("${breaker.errorTypes:}") String errorTypes,
+            @Value("${breaker.openMs:5000}") long openMs,
+            @Value("${breaker.maxOpenMs:15000}") long maxOpenMs,
+            @Value("${breaker.probes:10}") int probes,
+            @Value("${breaker.rampStartPerSec:100}") double rampStartPerSec,
+            @Value("${breaker.rampMs:10000}") long rampMs) {
+        this.enabled = enabled;
+        this.bucketMs = Math.max(1, windowMs / BUCKETS);
+        this.minCalls = Math.max(1, minCalls);
+        this.errorRate = errorRate;
+        this.failureRate = failureRate;
+        this.errorTypes = new HashSet<>();
+        for (String t : errorTypes.split(",")) {
+            if (!t.isBlank())
+                this.errorTypes.add(t.trim());
+        }
+        this.openMs = Math.max(1, openMs);
+        this.maxOpenMs = Math.max(this.openMs, maxOpenMs);
+        this.probes = Math.max(1, probes);
+        this.rampStartPerSec = Math.max(1, rampStartPerSec);
+        this.rampMs = Math.max(0, rampMs);
+        this.currentOpenMs = this.openMs;
+    }
+
+    // never trips (benchmarks, tests)
+    public static CircuitBreaker disabled() {
+        return new CircuitBreaker(false, 5_000, 50, 0.5, 0.98, "", 5_000, 15_000, 10, 100, 10_000);
+    }
+
+    public State state() {
+        return state;
+    }
+
+    // Whether a send may go out now. Lock-free while CLOSED or paused; a true in HALF_OPEN or
+    // RECOVERING uses up a probe or a ramp token, so call it right before sending.
+    public boolean tryAcquire() {
+        State st = state;
+        if (st == State.CLOSED)
+            return true;
+        long now = System.currentTimeMillis();
+        if ((st == State.OPEN && now < openUntilMs) || !admit(now)) {
+            shortCircuited.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // When parked retries may be tried again: the end of the pause while OPEN, else 0.
+    public long resumeAtMs() {
+        return (state == State.OPEN) ? openUntilMs : 0;
+    }
+
+    // One send's outcome: ok, "not delivered" (ok false, err null) or a gateway error.
+    public void record(boolean ok, Throwable err) {
+        if (!enabled)
+            return;
+        boolean error = err != null && isError.get(unwrap(err).getClass());
+        boolean failure = !ok;
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            switch (state) {
+                case OPEN -> {
+                    // sends that left before the trip; they say nothing new
+                }
+                case HALF_OPEN -> {
+                    probeResults++;
+                    if (error)
+                        probeErrors++;
+                    if (failure)
+                        probeFailures++;
+                    if (probeResults >= probesIssued && probesIssued >= probes) {
+                        if (tripped(probeResults, probeErrors, probeFailures)) {
+                            currentOpenMs = Math.min(maxOpenMs, currentOpenMs * 2);
+                            open(now);
+                        } else {
+                            enter(State.RECOVERING, now);
+                            tokens = 0;
+                            tokensAtNs = System.nanoTime();
+                        }
+                    }
+                }
+                default -> {
+                    int b = bucket(now);
+                    calls[b]++;
+                    if (error)
+                        errors[b]++;
+                    if (failure)
+                        failures[b]++;
+                    int n = 0;
+                    int e = 0;
+                    int f = 0;
+                    for (int i = 0; i < BUCKETS; i++) {
+                        if (now - bucketEpoch[i] < bucketMs * BUCKETS) {
+                            n += calls[i];
+                            e += errors[i];
+                            f += failures[i];
+                        }
+                    }
+                    if (n >= minCalls && tripped(n, e, f))
+                        open(now);
+                }
+            }
+        }
+    }
+
+    public long tripCount() {
+        return trips.sum();
+    }
+
+    // sends refused while not CLOSED (each one parked a retry or a first attempt)
+    public long shortCircuitedCount() {
+        return shortCircuited.sum();
+    }
+
+    private synchronized boolean admit(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now < openUntilMs)
+                    return false;
+                enter(State.HALF_OPEN, now);
+                probesIssued = 0;
+                probeResults = 0;
+                probeErrors = 0;
+                probeFailures = 0;
+                // fall through
+            case HALF_OPEN:
+                if (probesIssued >= probes) {
+                    // probes that never came back count as failed
+                    if (now - stateSinceMs >= currentOpenMs) {
+                        currentOpenMs = Math.min(maxOpenMs, currentOpenMs * 2);
+                        open(now);
+                    }
+                    return false;
+                }
+                probesIssued++;
+                return true;
+            default: // RECOVERING
+                long elapsed = now - stateSinceMs;
+                if (elapsed >= rampMs) {
+                    currentOpenMs = openMs;
+                    enter(State.CLOSED, now);
+                    return true;
+                }
+                double rate = rampStartPerSec * Math.pow(2, elapsed / Math.max(1.0, rampMs / (double) RAMP_STEPS));
+                long nowNs = System.nanoTime();
+                // at most one 500ms tick's worth banked, so the ramp never releases a wave
+                tokens = Math.min(Math.max(1, rate / 2), tokens + rate * (nowNs - tokensAtNs) / 1e9);
+                tokensAtNs = nowNs;
+                if (tokens < 1)
+                    return false;
+                tokens -= 1;
+                return true;
+        }
+    }
+
+    private boolean tripped(int n, int e, int f) {
+        return e >= errorRate * n || f >= failureRate * n;
+    }
+
+    private void open(long now) {
+        openUntilMs = now + currentOpenMs;
+        enter(State.OPEN, now);
+        trips.increment();
+        Arrays.fill(calls, 0);
+        Arrays.fill(errors, 0);
+        Arrays.fill(failures, 0);
+    }
+
+    private void enter(State next, long now) {
+        state = next;
+        stateSinceMs = now;
+    }
+
+    private int bucket(long now) {
+        long epoch = now / bucketMs;
+        int b = (int) (epoch % BUCKETS);
+        if (bucketEpoch[b] != epoch * bucketMs) {
+            bucketEpoch[b] = epoch * bucketMs;
+            calls[b] = 0;
+            errors[b] = 0;
+            failures[b] = 0;
+        }
+        return b;
+    }
+
+    private static Throwable unwrap(Throwable err) {
+        return (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+    }
+}
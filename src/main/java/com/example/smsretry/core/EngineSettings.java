@@ -0,0 +1,256 @@
+// core/EngineSettings.java
+package com.example.smsretry.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+// Scalar settings of the engine and its shards (scheduler.*, recovery.async, ids.nodeId,
+// recent.capacity, cluster.enabled). Code outside Spring starts from builder(), whose
+// defaults are the same as the @Value ones, and sets only what it cares about.
+@Component
+public class EngineSettings {
+    private final int shards;
+    private final int maxInFlightPerShard;
+    private final long wheelTickMs;
+    private final int wheelBuckets;
+    private final int batchMaxSize;
+    private final long batchMaxDelayMs;
+    private final boolean recoverAsync;
+    private final long memoryBudgetBytesPerShard; // 0 = unlimited
+    private final long tombstoneTtlMs;
+    private final int maxTombstonesPerShard;
+    private final String stateLayout;
+    private final int nodeId;
+    private final boolean eventDriven;
+    private final int recentCapacity;
+    private final int timelineCapacityPerShard;
+    private final boolean clustered;
+
+    @Autowired
+    public EngineSettings(
+            @Value("${scheduler.shards:16}") int shards,
+            @Value("${scheduler.maxInFlightPerShard:256}") int maxInFlightPerShard,
+            @Value("${scheduler.wheel.tickMs:10}") long wheelTickMs,
+            @Value("${scheduler.wheel.buckets:2048}") int wheelBuckets,
+            @Value("${scheduler.batch.maxSize:1}") int batchMaxSize,
+            @Value("${scheduler.batch.maxDelayMs:5}") long batchMaxDelayMs,
+            @Value("${recovery.async:true}") boolean recoverAsync,
+            @Value("${scheduler.memoryBudgetMbPerShard:0}") long memoryBudgetMbPerShard,
+            @Value("${scheduler.tombstone.ttlMs:300000}") long tombstoneTtlMs,
+            @Value("${scheduler.tombstone.maxPerShard:20000}") int maxTombstonesPerShard,
+            @Value("${scheduler.stateLayout:map}") String stateLayout,
+            @Value("${ids.nodeId:0}") int nodeId,
+            @Value("${scheduler.dispatch.mode:tick}") String dispatchMode,
+            @Value("${recent.capacity:1000}") int recentCapacity,
+            @Value("${scheduler.timelineCapacityPerShard:65536}") int timelineCapacityPerShard,
+            @Value("${cluster.enabled:false}") boolean clustered) {
+        this(builder()
+                .shards(shards)
+                .maxInFlightPerShard(maxInFlightPerShard)
+                .wheel(wheelTickMs, wheelBuckets)
+                .batch(batchMaxSize, batchMaxDelayMs)
+                .recoverAsync(recoverAsync)
+                .memoryBudgetMbPerShard(memoryBudgetMbPerShard)
+                .tombstones(tombstoneTtlMs, maxTombstonesPerShard)
+                .stateLayout(stateLayout)
+                .nodeId(nodeId)
+                .dispatchMode(dispatchMode)
+                .recentCapacity(recentCapacity)
+                .timelineCapacityPerShard(timelineCapacityPerShard)
+                .clustered(clustered));
+    }
+
+    private EngineSettings(Builder b) {
+        this.shards = Math.max(1, b.shards);
+        this.maxInFlightPerShard = Math.max(1, b.maxInFlightPerShard);
+        this.wheelTickMs = b.wheelTickMs;
+        this.wheelBuckets = b.wheelBuckets;
+        this.batchMaxSize = Math.max(1, b.batchMaxSize);
+        this.batchMaxDelayMs = Math.max(0, b.batchMaxDelayMs);
+        this.recoverAsync = b.recoverAsync;
+        this.memoryBudgetBytesPerShard = Math.max(0, b.memoryBudgetBytesPerShard);
+        this.tombstoneTtlMs = b.tombstoneTtlMs;
+        this.maxTombstonesPerShard = b.maxTombstonesPerShard;
+        this.stateLayout = b.stateLayout;
+        this.nodeId = b.nodeId;
+        // tick: wakeup() sweeps every shard (the 500ms spec cadence);
+        // event: each shard fires its retries at their due time on its own thread
+        this.eventDriven = switch (b.dispatchMode.trim().toLowerCase(Locale.ROOT)) {
+            case "tick" -> false;
+            case "event" -> true;
+            default -> throw new IllegalArgumentException("unknown scheduler.dispatch.mode: " + b.dispatchMode);
+        };
+        this.recentCapacity = Math.max(1, b.recentCapacity);
+        this.timelineCapacityPerShard = b.timelineCapacityPerShard;
+        this.clustered = b.clustered;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public int maxInFlightPerShard() {
+        return maxInFlightPerShard;
+    }
+
+    public long wheelTickMs() {
+        return wheelTickMs;
+    }
+
+    public int wheelBuckets() {
+        return wheelBuckets;
+    }
+
+    public int batchMaxSize() {
+        return batchMaxSize;
+    }
+
+    public long batchMaxDelayMs() {
+        return batchMaxDelayMs;
+    }
+
+    public boolean recoverAsync() {
+        return recoverAsync;
+    }
+
+    public long memoryBudgetBytesPerShard() {
+        return memoryBudgetBytesPerShard;
+    }
+
+    public long tombstoneTtlMs() {
+        return tombstoneTtlMs;
+    }
+
+    public int maxTombstonesPerShard() {
+        return maxTombstonesPerShard;
+    }
+
+    public String stateLayout() {
+        return stateLayout;
+    }
+
+    public int nodeId() {
+        return nodeId;
+    }
+
+    public boolean eventDriven() {
+        return eventDriven;
+    }
+
+    public int recentCapacity() {
+        return recentCapacity;
+    }
+
+    public int timelineCapacityPerShard() {
+        return timelineCapacityPerShard;
+    }
+
+    public boolean clustered() {
+        return clustered;
+    }
+
+    public static final class Builder {
+        private int shards = 16;
+        private int maxInFlightPerShard = 256;
+        private long wheelTickMs = 10;
+        private int wheelBuckets = 2048;
+        private int batchMaxSize = 1;
+        private long batchMaxDelayMs = 5;
+        private boolean recoverAsync = true;
+        private long memoryBudgetBytesPerShard;
+        private long tombstoneTtlMs = 300_000;
+        private int maxTombstonesPerShard = 20_000;
+        private String stateLayout = "map";
+        private int nodeId;
+        private String dispatchMode = "tick";
+        private int recentCapacity = 1000;
+        private int timelineCapacityPerShard = 65_536;
+        private boolean clustered;
+
+        private Builder() {
+        }
+
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder maxInFlightPerShard(int maxInFlightPerShard) {
+            this.maxInFlightPerShard = maxInFlightPerShard;
+            return this;
+        }
+
+        public Builder wheel(long tickMs, int buckets) {
+            this.wheelTickMs = tickMs;
+            this.wheelBuckets = buckets;
+            return this;
+        }
+
+        public Builder batch(int maxSize, long maxDelayMs) {
+            this.batchMaxSize = maxSize;
+            this.batchMaxDelayMs = maxDelayMs;
+            return this;
+        }
+
+        public Builder recoverAsync(boolean recoverAsync) {
+            this.recoverAsync = recoverAsync;
+            return this;
+        }
+
+        public Builder memoryBudgetMbPerShard(long mb) {
+            return memoryBudgetBytesPerShard(mb << 20);
+        }
+
+        public Builder memoryBudgetBytesPerShard(long bytes) {
+            this.memoryBudgetBytesPerShard = bytes;
+            return this;
+        }
+
+        public Builder tombstones(long ttlMs, int maxPerShard) {
+            this.tombstoneTtlMs = ttlMs;
+            this.maxTombstonesPerShard = maxPerShard;
+            return this;
+        }
+
+        public Builder stateLayout(String stateLayout) {
+            this.stateLayout = stateLayout;
+            return this;
+        }
+
+        public Builder nodeId(int nodeId) {
+            this.nodeId = nodeId;
+            return this;
+        }
+
+        public Builder dispatchMode(String dispatchMode) {
+            this.dispatchMode = dispatchMode;
+            return this;
+        }
+
+        public Builder recentCapacity(int recentCapacity) {
+            this.recentCapacity = recentCapacity;
+            return this;
+        }
+
+        public Builder timelineCapacityPerShard(int timelineCapacityPerShard) {
+            this.timelineCapacityPerShard = timelineCapacityPerShard;
+            return this;
+        }
+
+        public Builder clustered(boolean clustered) {
+            this.clustered = clustered;
+            return this;
+        }
+
+        public EngineSettings build() {
+            return new EngineSettings(this);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// core/IdempotencyIndex.java
+package com.example.smsretry.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Per-shard de-duplication of client-supplied message ids. claim() is one putIfAbsent,
+// so of two concurrent requests with the same id exactly one wins and sends attempt #1.
+// A claimed id stays LIVE until its message turns terminal; retire() then keeps it for
+// ttlMs (at most maxRetained ids, oldest dropped first), so a client retrying after the
+// state left memory gets the same id back instead of a second send.
+// Generated ids are unique by construction and are only entered on retire().
+final class IdempotencyIndex {
+    private static final long LIVE = Long.MAX_VALUE;
+
+    private final long ttlMs;
+    private final int maxRetained;
+
+    // id -> LIVE or the time its retained entry expires
+    private final ConcurrentHashMap<String, Long> claims = new ConcurrentHashMap<>();
+    // retired ids in expiry order (the TTL is fixed); a single sweeper pops them
+    private final ConcurrentLinkedQueue<Retained> retained = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger retainedCount = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    IdempotencyIndex(long ttlMs, int maxRetained) {
+        this.ttlMs = Math.max(0, ttlMs);
+        this.maxRetained = Math.max(0, maxRetained);
+    }
+
+    // True if the caller now owns the id: it was unknown, or only retained past its TTL.
+    boolean claim(String messageId, long nowMs) {
+        Long prev = claims.putIfAbsent(messageId, LIVE);
+        if (prev == null)
+            return true;
+        return prev != LIVE && prev <= nowMs && claims.replace(messageId, prev, LIVE);
+    }
+
+    // The claimed message was not admitted after all (429/503).
+    void release(String messageId) {
+        claims.remove(messageId, LIVE);
+    }
+
+    // The message left memory in a terminal state.
+    void retire(String messageId, long nowMs) {
+        if (ttlMs == 0 || maxRetained == 0) {
+            claims.remove(messageId, LIVE);
+            return;
+        }
+        long expiresAt = nowMs + ttlMs;
+        // claimed ids hold LIVE; generated ones are absent
+        if (!claims.replace(messageId, LIVE, expiresAt) && claims.putIfAbsent(messageId, expiresAt) != null)
+            return;
+        retained.add(new Retained(messageId, expiresAt));
+        retainedCount.incrementAndGet();
+        sweep(nowMs);
+    }
+
+    boolean isRetained(String messageId, long nowMs) {
+        Long v = claims.get(messageId);
+        return v != null && v != LIVE && v > nowMs;
+    }
+
+    int retainedCount() {
+        return retainedCount.get();
+    }
+
+    int size() {
+        return claims.size();
+    }
+
+    private void sweep(long nowMs) {
+        if (!sweeping.compareAndSet(false, true))
+            return; // whoever holds it covers our entry on its next pass
+        try {
+            Retained oldest;
+            while ((oldest = retained.peek()) != null
+                    && (oldest.expiresAt <= nowMs || retainedCount.get() > maxRetained)) {
+                retained.poll();
+                retainedCount.decrementAndGet();
+                // a re-claim after expiry replaced the value, so this leaves it alone
+                claims.remove(oldest.id, oldest.expiresAt);
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private record Retained(String id, long expiresAt) {
+    }
+}
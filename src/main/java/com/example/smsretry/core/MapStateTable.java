@@ -0,0 +1,90 @@
+// core/MapStateTable.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// One MessageState object per message, keyed by id. Callers mutate the live object.
+final class MapStateTable implements StateTable {
+    private final ConcurrentHashMap<String, MessageState> states = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    @Override
+    public MessageState get(String messageId) {
+        return states.get(messageId);
+    }
+
+    @Override
+    public MessageState get(ScheduledItem item) {
+        return states.get(item.messageId);
+    }
+
+    @Override
+    public boolean isPending(String messageId) {
+        MessageState s = states.get(messageId);
+        return s != null && s.status == MessageStatus.PENDING;
+    }
+
+    @Override
+    public void put(MessageState s) {
+        MessageState prev = states.put(s.messageId, s);
+        bytes.addAndGet(bytesFor(s) - (prev != null ? bytesFor(prev) : 0));
+    }
+
+    @Override
+    public boolean putIfAbsent(MessageState s) {
+        if (states.putIfAbsent(s.messageId, s) != null)
+            return false;
+        bytes.addAndGet(bytesFor(s));
+        return true;
+    }
+
+    @Override
+    public void update(MessageState s) {
+        // callers already mutated the live object
+    }
+
+    @Override
+    public boolean remove(MessageState s) {
+        if (!states.remove(s.messageId, s))
+            return false;
+        bytes.addAndGet(-bytesFor(s));
+        return true;
+    }
+
+    @Override
+    public ScheduledItem itemFor(MessageState s, long dueAtMs) {
+        return new ScheduledItem(s.messageId, dueAtMs);
+    }
+
+    @Override
+    public int size() {
+        return states.size();
+    }
+
+    @Override
+    public void forEach(Consumer<MessageState> action) {
+        states.values().forEach(action);
+    }
+
+    @Override
+    public long bytes() {
+        return bytes.get();
+    }
+
+    // Map node, MessageState, scheduled item and the strings (compact Latin-1).
+    // lastError is covered by the fixed part since it changes after admission and
+    // the estimate has to match on removal.
+    @Override
+    public long bytesFor(MessageState s) {
+        return 112 + stringBytes(s.messageId) + stringBytes(s.phone) + stringBytes(s.body);
+    }
+
+    private static long stringBytes(String str) {
+        return (str == null) ? 0 : 40 + str.length();
+    }
+}
@@ -2,22 +2,255 @@
 package com.example.smsretry.core;
 
 import com.example.smsretry.model.Message;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.ThreadLocalRandom;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
+// Simulated SMS provider. Besides the latency distribution, the outcome can follow the
+// clock (offsets from construction, e.g. "90s", "10m", "1h"):
+//   send.successSchedule "0:0.7,10m:0.3,15m:0.7" - success rate from each offset on
+//                        (send.successRate before the first one)
+//   send.outages         "5m+30s,40m+2m"          - start+duration windows in which every
+//                        send fails with a gateway error (what a dead provider looks like
+//                        to the circuit breaker)
 @Component
 public class MockSendGateway implements SendGateway {
 
+    // simulated provider round-trip time
+    public enum Latency {
+        NONE, FIXED, UNIFORM, EXPONENTIAL
+    }
+
     private final double successRate;
+    private final Latency latency;
+    private final long meanLatencyMs;
+    private final long maxLatencyMs;
+    private final long startMs = System.currentTimeMillis();
+    private final long[] rateFromMs;
+    private final double[] rates;
+    private final long[] outageFromMs;
+    private final long[] outageUntilMs;
+    private final AtomicLong outageErrors = new AtomicLong();
+
+    // completes async sends after their simulated latency without holding a thread
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "mock-gateway-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MockSendGateway(double successRate, String distribution, long meanLatencyMs, long maxLatencyMs) {
+        this(successRate, distribution, meanLatencyMs, maxLatencyMs, "", "");
+    }
+
+    @Autowired
+    public MockSendGateway(
+            @Value("${send.successRate:0.7}") double successRate,
+            @Value("${send.latency.distribution:none}") String distribution,
+            @Value("${send.latency.meanMs:0}") long meanLatencyMs,
+            @Value("${send.latency.maxMs:0}") long maxLatencyMs,
+            @Value("${send.successSchedule:}") String successSchedule,
+            @Value("${send.outages:}") String outages) {
+        this.successRate = clamp(successRate);
+        this.latency = Latency.valueOf(distribution.trim().toUpperCase(Locale.ROOT));
+        this.meanLatencyMs = Math.max(0, meanLatencyMs);
+        this.maxLatencyMs = (maxLatencyMs > 0) ? maxLatencyMs : Math.max(1, this.meanLatencyMs) * 10;
+
+        List<String[]> steps = entries(successSchedule, ":", "send.successSchedule");
+        steps.sort((a, b) -> Long.compare(durationMs(a[0]), durationMs(b[0])));
+        this.rateFromMs = new long[steps.size()];
+        this.rates = new double[steps.size()];
+        for (int i = 0; i < steps.size(); i++) {
+            rateFromMs[i] = durationMs(steps.get(i)[0]);
+            rates[i] = clamp(Double.parseDouble(steps.get(i)[1].trim()));
+        }
+        List<String[]> windows = entries(outages, "+", "send.outages");
+        this.outageFromMs = new long[windows.size()];
+        this.outageUntilMs = new long[windows.size()];
+        for (int i = 0; i < windows.size(); i++) {
+            outageFromMs[i] = durationMs(windows.get(i)[0]);
+            outageUntilMs[i] = outageFromMs[i] + durationMs(windows.get(i)[1]);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
 
-    public MockSendGateway(@Value("${send.successRate:0.7}") double successRate) {
-        this.successRate = Math.max(0.0, Math.min(1.0, successRate));
+    // sends failed by an outage window so far
+    public long outageErrorCount() {
+        return outageErrors.get();
+    }
+
+    // whether `elapsedMs` after construction falls in an outage window
+    public boolean inOutage(long elapsedMs) {
+        for (int i = 0; i < outageFromMs.length; i++) {
+            if (elapsedMs >= outageFromMs[i] && elapsedMs < outageUntilMs[i])
+                return true;
+        }
+        return false;
     }
 
     @Override
     public boolean send(Message message) {
-        return ThreadLocalRandom.current().nextDouble() < successRate;
+        long delayMs = sampleLatencyMs();
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        checkOutage();
+        return outcome();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendAsync(Message message) {
+        long delayMs = sampleLatencyMs();
+        if (delayMs <= 0) {
+            try {
+                checkOutage();
+            } catch (IllegalStateException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(outcome());
+        }
+
+        CompletableFuture<Boolean> f = new CompletableFuture<>();
+        timer.schedule(() -> {
+            try {
+                checkOutage();
+                f.complete(outcome());
+            } catch (IllegalStateException e) {
+                f.completeExceptionally(e);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return f;
+    }
+
+    // a bulk submit costs one round trip regardless of size
+    @Override
+    public List<Boolean> sendBatch(List<Message> messages) {
+        long delayMs = sampleLatencyMs();
+        if (delayMs > 0) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.nCopies(messages.size(), false);
+            }
+        }
+        checkOutage();
+        return outcomes(messages.size());
+    }
+
+    @Override
+    public CompletableFuture<List<Boolean>> sendBatchAsync(List<Message> messages) {
+        int n = messages.size();
+        long delayMs = sampleLatencyMs();
+        if (delayMs <= 0) {
+            try {
+                checkOutage();
+            } catch (IllegalStateException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return CompletableFuture.completedFuture(outcomes(n));
+        }
+
+        CompletableFuture<List<Boolean>> f = new CompletableFuture<>();
+        timer.schedule(() -> {
+            try {
+                checkOutage();
+                f.complete(outcomes(n));
+            } catch (IllegalStateException e) {
+                f.completeExceptionally(e);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+        return f;
+    }
+
+    private List<Boolean> outcomes(int n) {
+        double rate = successRate(System.currentTimeMillis() - startMs);
+        List<Boolean> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            out.add(ThreadLocalRandom.current().nextDouble() < rate);
+        return out;
+    }
+
+    private boolean outcome() {
+        return ThreadLocalRandom.current().nextDouble() < successRate(System.currentTimeMillis() - startMs);
+    }
+
+    private double successRate(long elapsedMs) {
+        double rate = successRate;
+        for (int i = 0; i < rateFromMs.length && rateFromMs[i] <= elapsedMs; i++)
+            rate = rates[i];
+        return rate;
+    }
+
+    private void checkOutage() {
+        if (outageFromMs.length > 0 && inOutage(System.currentTimeMillis() - startMs)) {
+            outageErrors.incrementAndGet();
+            throw new IllegalStateException("provider unavailable (simulated outage)");
+        }
+    }
+
+    long sampleLatencyMs() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long ms = switch (latency) {
+            case NONE -> 0L;
+            case FIXED -> meanLatencyMs;
+            case UNIFORM -> (meanLatencyMs == 0) ? 0L : rnd.nextLong(2 * meanLatencyMs + 1);
+            case EXPONENTIAL -> (long) (-meanLatencyMs * Math.log(1.0 - rnd.nextDouble()));
+        };
+        return Math.min(ms, maxLatencyMs);
+    }
+
+    private static double clamp(double rate) {
+        return Math.max(0.0, Math.min(1.0, rate));
+    }
+
+    // "a<sep>b, c<sep>d" -> [[a, b], [c, d]]
+    private static List<String[]> entries(String spec, String sep, String property) {
+        List<String[]> out = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank())
+                continue;
+            int at = entry.indexOf(sep);
+            if (at <= 0)
+                throw new IllegalArgumentException(property + " entries must look like a" + sep + "b: " + entry);
+            out.add(new String[] { entry.substring(0, at).trim(), entry.substring(at + 1).trim() });
+        }
+        return out;
+    }
+
+    // "250ms", "90s", "10m", "2h"; a bare number is ms
+    static long durationMs(String d) {
+        String v = d.trim().toLowerCase(Locale.ROOT);
+        long unit = 1;
+        if (v.endsWith("ms")) {
+            v = v.substring(0, v.length() - 2);
+        } else if (v.endsWith("s")) {
+            unit = 1_000;
+            v = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("m")) {
+            unit = 60_000;
+            v = v.substring(0, v.length() - 1);
+        } else if (v.endsWith("h")) {
+            unit = 3_600_000;
+            v = v.substring(0, v.length() - 1);
+        }
+        return (long) (Double.parseDouble(v.trim()) * unit);
     }
 }
\ No newline at end of file
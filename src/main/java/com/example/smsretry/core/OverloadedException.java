@@ -0,0 +1,23 @@
+// core/OverloadedException.java
+package com.example.smsretry.core;
+
+// Admission control refused a message; the client should back off for retryAfterSeconds.
+// Mapped to 429 + Retry-After by api/ApiExceptionHandler.
+public class OverloadedException extends RuntimeException {
+    private final String reason;
+    private final int retryAfterSeconds;
+
+    public OverloadedException(String reason, int retryAfterSeconds) {
+        super("overloaded: " + reason);
+        this.reason = reason;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String reason() {
+        return reason;
+    }
+
+    public int retryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,88 @@
+// core/RecentRing.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.RecentOutcome;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Fixed-size ring of the latest terminal outcomes. Writers claim a sequence number
+// with one getAndIncrement and publish into its slot; nobody takes a lock. Readers walk
+// back from the cursor and skip slots that are not yet published or were already
+// overwritten by a lapping writer (their sequence does not match). Reads come out in
+// write order, newest first; concurrent writers can publish a few microseconds out of
+// timestamp order, and that is left as is rather than re-sorted.
+final class RecentRing {
+    // for merging several rings (SmsRetryEngine): the reader with the newest head first
+    static final Comparator<Reader> NEWEST_HEAD_FIRST =
+            (a, b) -> Long.compare(b.head().finalTimestampMs(), a.head().finalTimestampMs());
+
+    private record Slot(long seq, RecentOutcome outcome) {
+    }
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final int mask;
+    private final AtomicLong cursor = new AtomicLong();
+
+    RecentRing(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(n);
+        this.mask = n - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    void add(RecentOutcome outcome) {
+        long seq = cursor.getAndIncrement();
+        slots.set((int) (seq & mask), new Slot(seq, outcome));
+    }
+
+    // up to `limit` latest outcomes, newest first
+    List<RecentOutcome> latest(int limit) {
+        Reader r = reader();
+        List<RecentOutcome> out = new ArrayList<>(Math.min(limit, capacity()));
+        for (; r.head() != null && out.size() < limit; r.advance())
+            out.add(r.head());
+        return out;
+    }
+
+    // a walk back from the cursor as it is now
+    Reader reader() {
+        return new Reader();
+    }
+
+    final class Reader {
+        private final long lo;
+        private long seq;
+        private RecentOutcome head;
+
+        private Reader() {
+            long hi = cursor.get();
+            this.lo = Math.max(0, hi - slots.length());
+            this.seq = hi;
+            advance();
+        }
+
+        // null once the ring is exhausted
+        RecentOutcome head() {
+            return head;
+        }
+
+        void advance() {
+            head = null;
+            while (seq > lo) {
+                seq--;
+                Slot slot = slots.get((int) (seq & mask));
+                if (slot != null && slot.seq == seq) {
+                    head = slot.outcome;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// core/RemoteShards.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+
+// Cluster mode: new messages for a shard another node leases are handed to that node.
+public interface RemoteShards {
+    String UNOWNED = "unowned"; // OverloadedException reason
+
+    // HTTP headers of a forwarded POST /messages
+    String IDEMPOTENCY_KEY = "Idempotency-Key";
+    String FORWARDED_BY = "X-Sms-Forwarded-By";
+
+    // Accepts `m` on the owner of `shard`. OverloadedException (429) while the shard has
+    // no live owner, e.g. during a hand-off; the client retries after Retry-After.
+    // policy: the message's retry policy name, null = the default
+    SmsRetryEngine.Accepted forward(int shard, Message m, String policy);
+
+    RemoteShards NONE = (shard, m, policy) -> {
+        throw new OverloadedException(UNOWNED, 1);
+    };
+}
@@ -2,10 +2,12 @@
 package com.example.smsretry.core;
 
 public final class RetryDelays {
+    public static final int ATTEMPTS = 6;
+
     private RetryDelays() {
     }
 
-    // attempt number -> delay from arrival (ms)
+    // attempt number -> delay from arrival (ms); the "spec" retry policy
     public static long delayFromArrivalMs(int attemptNumber) {
         return switch (attemptNumber) {
             case 1 -> 0L;
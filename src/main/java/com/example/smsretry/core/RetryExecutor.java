@@ -0,0 +1,46 @@
+// core/RetryExecutor.java
+package com.example.smsretry.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Where a shard runs its sends (processRetry, attemptBatch): its own fixed pool or its
+// lane of the shared pool (RetryExecutors). execute() throws RejectedExecutionException
+// once shut down.
+public interface RetryExecutor extends Executor {
+
+    // tasks waiting to run
+    int queueDepth();
+
+    // tasks running now
+    int activeThreads();
+
+    void shutdown();
+
+    // a fixed pool of `threads` for one shard (scheduler.executor=per-shard)
+    static RetryExecutor dedicated(int threads) {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(Math.max(1, threads));
+        return new RetryExecutor() {
+            @Override
+            public void execute(Runnable task) {
+                pool.execute(task);
+            }
+
+            @Override
+            public int queueDepth() {
+                return pool.getQueue().size();
+            }
+
+            @Override
+            public int activeThreads() {
+                return pool.getActiveCount();
+            }
+
+            @Override
+            public void shutdown() {
+                pool.shutdown();
+            }
+        };
+    }
+}
@@ -0,0 +1,198 @@
+// core/RetryExecutors.java
+package com.example.smsretry.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands each shard its RetryExecutor (scheduler.executor):
+//   per-shard - a fixed pool of retryThreadsPerShard threads per shard; a hot shard
+//               queues behind its own threads while the others' sit idle
+//   shared    - one work-stealing ForkJoinPool (shared.threads, 0 = one per core) with a
+//               lane per shard. A lane queues at most `capacity` tasks (the shard's
+//               in-flight limit, which already bounds them) and runs them through up to
+//               `threads` drainers; a drainer runs `quantum` of them and then queues
+//               its lane's next turn behind every other lane's, so a busy shard gets
+//               every idle thread but a quiet one waits for at most a quantum per thread.
+@Component
+public class RetryExecutors {
+    private final boolean shared;
+    private final int threadsPerShard;
+    private final int quantum;
+    private final ForkJoinPool pool; // shared only
+    private final ConcurrentLinkedQueue<Lane> turns = new ConcurrentLinkedQueue<>();
+    private final Runnable runTurn = this::runTurn;
+
+    @Autowired
+    public RetryExecutors(
+            @Value("${scheduler.executor:per-shard}") String mode,
+            @Value("${scheduler.retryThreadsPerShard:2}") int threadsPerShard,
+            @Value("${scheduler.shared.threads:0}") int sharedThreads,
+            @Value("${scheduler.shared.quantum:16}") int quantum) {
+        this.shared = switch (mode.trim().toLowerCase(Locale.ROOT)) {
+            case "per-shard" -> false;
+            case "shared" -> true;
+            default -> throw new IllegalArgumentException("unknown scheduler.executor: " + mode);
+        };
+        this.threadsPerShard = Math.max(1, threadsPerShard);
+        this.quantum = Math.max(1, quantum);
+        if (shared) {
+            int threads = (sharedThreads > 0) ? sharedThreads : Runtime.getRuntime().availableProcessors();
+            // asyncMode: FIFO local queues (turns never join, nothing needs LIFO)
+            this.pool = new ForkJoinPool(threads, p -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                t.setName("retry-shared-" + t.getPoolIndex());
+                return t;
+            }, null, true);
+        } else {
+            this.pool = null;
+        }
+    }
+
+    // a dedicated pool of `threadsPerShard` per shard (benchmarks, tests)
+    public static RetryExecutors perShard(int threadsPerShard) {
+        return new RetryExecutors("per-shard", threadsPerShard, 0, 16);
+    }
+
+    // one pool of `threads` for all shards (benchmarks, tests)
+    public static RetryExecutors shared(int threads, int quantum) {
+        return new RetryExecutors("shared", 1, threads, quantum);
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    // The executor for one shard; `capacity` bounds a shared lane's queue.
+    public RetryExecutor forShard(int capacity) {
+        return shared ? new Lane(Math.max(1, capacity)) : RetryExecutor.dedicated(threadsPerShard);
+    }
+
+    // worker threads of the shared pool (0 when per-shard)
+    public int poolSize() {
+        return shared ? pool.getParallelism() : 0;
+    }
+
+    // tasks one shared worker took from another's queue
+    public long stealCount() {
+        return shared ? pool.getStealCount() : 0;
+    }
+
+    // after the shards' own shutdown(); queued tasks still run
+    public void shutdown() {
+        if (shared)
+            pool.shutdown();
+    }
+
+    // Runs the lane at the head of `turns`. One of these is submitted per entry, so the
+    // pool's work stealing spreads them over its threads while the lanes still take turns
+    // in global FIFO order (a drainer re-submitted straight to the pool would land in its
+    // worker's local queue and run ahead of other lanes' external submissions).
+    private void runTurn() {
+        Lane lane = turns.poll();
+        if (lane != null)
+            lane.drain();
+    }
+
+    private boolean enqueueTurn(Lane lane) {
+        turns.add(lane);
+        try {
+            pool.execute(runTurn);
+            return true;
+        } catch (RejectedExecutionException e) {
+            turns.remove(lane);
+            return false;
+        }
+    }
+
+    final class Lane implements RetryExecutor {
+        private final int capacity;
+        private final int maxDrainers;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger drainers = new AtomicInteger();
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile boolean closed;
+
+        Lane(int capacity) {
+            this.capacity = capacity;
+            this.maxDrainers = pool.getParallelism();
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (closed || pool.isShutdown())
+                throw new RejectedExecutionException("retry lane is shut down");
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                throw new RejectedExecutionException("retry lane is full (" + capacity + ")");
+            }
+            tasks.add(task);
+            spawn();
+        }
+
+        @Override
+        public int queueDepth() {
+            return size.get();
+        }
+
+        @Override
+        public int activeThreads() {
+            return running.get();
+        }
+
+        @Override
+        public void shutdown() {
+            closed = true;
+        }
+
+        // one more drainer while queued tasks outnumber them
+        private void spawn() {
+            for (;;) {
+                int d = drainers.get();
+                if (d >= maxDrainers || d >= size.get())
+                    return;
+                if (drainers.compareAndSet(d, d + 1))
+                    break;
+            }
+            if (!enqueueTurn(this))
+                drainers.decrementAndGet(); // pool shut down; what is queued is dropped
+        }
+
+        // one drainer's turn: up to `quantum` tasks, then back of the line
+        private void drain() {
+            for (;;) {
+                for (int i = 0; i < quantum; i++) {
+                    Runnable r = tasks.poll();
+                    if (r == null)
+                        break;
+                    size.decrementAndGet();
+                    running.incrementAndGet();
+                    try {
+                        r.run();
+                    } catch (RuntimeException e) {
+                        // the task's own failure; the lane keeps going
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+                if (tasks.isEmpty())
+                    break;
+                if (enqueueTurn(this))
+                    return;
+                // pool shutting down: finish the queue here
+            }
+            drainers.decrementAndGet();
+            // a task added between the last poll and the decrement saw this drainer still counted
+            if (!tasks.isEmpty())
+                spawn();
+        }
+    }
+}
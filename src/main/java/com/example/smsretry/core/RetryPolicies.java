@@ -0,0 +1,77 @@
+// core/RetryPolicies.java
+package com.example.smsretry.core;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+// The configured retry policies (retry.policies, e.g.
+// "spec=0|500|2000|4000|8000|16000,smooth=0|500|2000|4000|8000|16000/up:0.5") plus the
+// built-in "spec" (RetryDelays, no jitter) unless the config redefines it. A message
+// keeps the policy it was accepted with (MessageState.policy, null = the default); one
+// whose policy is no longer configured falls back to the default.
+@Component
+public class RetryPolicies {
+    public static final String SPEC = "spec";
+
+    private final Map<String, RetryPolicy> byName = new LinkedHashMap<>();
+    private final RetryPolicy defaultPolicy;
+    private final int maxAttempts;
+
+    @Autowired
+    public RetryPolicies(
+            @Value("${retry.policies:}") String policies,
+            @Value("${retry.defaultPolicy:spec}") String defaultPolicy) {
+        long[] spec = new long[RetryDelays.ATTEMPTS];
+        for (int a = 1; a <= spec.length; a++)
+            spec[a - 1] = RetryDelays.delayFromArrivalMs(a);
+        byName.put(SPEC, new RetryPolicy(SPEC, spec, RetryPolicy.Jitter.NONE, 0));
+
+        for (String entry : policies.split(",")) {
+            if (entry.isBlank())
+                continue;
+            int eq = entry.indexOf('=');
+            if (eq <= 0)
+                throw new IllegalArgumentException("retry.policies entry must be name=delay|delay|...[/jitter:ratio]: "
+                        + entry);
+            String name = entry.substring(0, eq).trim();
+            byName.put(name, RetryPolicy.parse(name, entry.substring(eq + 1).trim()));
+        }
+        this.defaultPolicy = byName.get(defaultPolicy.trim());
+        if (this.defaultPolicy == null)
+            throw new IllegalArgumentException("retry.defaultPolicy is not a configured policy: " + defaultPolicy);
+        this.maxAttempts = byName.values().stream().mapToInt(RetryPolicy::maxAttempts).max().orElse(1);
+    }
+
+    // just "spec" (benchmarks, tests)
+    public static RetryPolicies spec() {
+        return new RetryPolicies("", SPEC);
+    }
+
+    public boolean has(String name) {
+        return byName.containsKey(name);
+    }
+
+    // null = the default policy
+    public RetryPolicy of(String name) {
+        if (name == null)
+            return defaultPolicy;
+        RetryPolicy p = byName.get(name);
+        return (p != null) ? p : defaultPolicy;
+    }
+
+    public RetryPolicy defaultPolicy() {
+        return defaultPolicy;
+    }
+
+    public Collection<RetryPolicy> all() {
+        return Collections.unmodifiableCollection(byName.values());
+    }
+
+    // the longest schedule; sizes per-attempt metrics and the attempt timeline
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,113 @@
+// core/RetryPolicy.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// A named retry schedule: attempt n goes out delays[n - 1] ms after arrival, and the
+// message fails after delays.length attempts. Jitter moves each retry (never attempt #1)
+// by up to `ratio` of the gap to the previous attempt, precomputed per attempt:
+//   none - exactly on the table (the spec cadence)
+//   up   - [0, +bound]: never early, the burst is spread over the gap after the slot
+//   both - [-bound, +bound], ratio capped at 0.5 so a retry stays in its half of the gap
+// The offset is a hash of (messageId, attempt), so a message's schedule is reproducible
+// while a burst of messages that arrived together spreads out evenly.
+public final class RetryPolicy {
+    public static final int MAX_ATTEMPTS = 16;
+
+    public enum Jitter {
+        NONE, UP, BOTH
+    }
+
+    private final String name;
+    private final long[] delays;
+    private final long[] bound; // jitter bound per attempt, ms
+    private final Jitter jitter;
+    private final double ratio;
+
+    public RetryPolicy(String name, long[] delaysFromArrivalMs, Jitter jitter, double ratio) {
+        if (delaysFromArrivalMs.length < 1 || delaysFromArrivalMs.length > MAX_ATTEMPTS)
+            throw new IllegalArgumentException("retry policy " + name + " needs 1.." + MAX_ATTEMPTS + " attempts");
+        for (int i = 0; i < delaysFromArrivalMs.length; i++) {
+            if (delaysFromArrivalMs[i] < 0 || (i > 0 && delaysFromArrivalMs[i] < delaysFromArrivalMs[i - 1]))
+                throw new IllegalArgumentException("retry policy " + name + " delays must be >= 0 and ascending");
+        }
+        this.name = name;
+        this.delays = delaysFromArrivalMs.clone();
+        this.jitter = jitter;
+        this.ratio = switch (jitter) {
+            case NONE -> 0;
+            case UP -> Math.min(1, Math.max(0, ratio));
+            case BOTH -> Math.min(0.5, Math.max(0, ratio));
+        };
+        this.bound = new long[delays.length];
+        for (int i = 1; i < delays.length; i++)
+            bound[i] = (long) ((delays[i] - delays[i - 1]) * this.ratio);
+    }
+
+    // "0|500|2000[/up:0.5]": delays from arrival for attempts 1..n, then the jitter
+    static RetryPolicy parse(String name, String spec) {
+        String table = spec;
+        Jitter jitter = Jitter.NONE;
+        double ratio = 0;
+        int slash = spec.indexOf('/');
+        if (slash >= 0) {
+            table = spec.substring(0, slash);
+            String[] j = spec.substring(slash + 1).trim().split(":", 2);
+            try {
+                jitter = Jitter.valueOf(j[0].trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("retry policy " + name + ": jitter must be none|up|both: " + j[0]);
+            }
+            ratio = (j.length > 1) ? Double.parseDouble(j[1].trim()) : 0.5;
+        }
+        long[] delays = Arrays.stream(table.split("\\|")).map(String::trim).filter(d -> !d.isEmpty())
+                .mapToLong(Long::parseLong).toArray();
+        return new RetryPolicy(name, delays, jitter, ratio);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int maxAttempts() {
+        return delays.length;
+    }
+
+    public Jitter jitter() {
+        return jitter;
+    }
+
+    public double ratio() {
+        return ratio;
+    }
+
+    public long delayFromArrivalMs(int attemptNumber) {
+        return delays[attemptNumber - 1];
+    }
+
+    // Due time of attempt `attemptNumber` (2..maxAttempts) of `s`, jitter included.
+    public long dueAtMs(MessageState s, int attemptNumber) {
+        long due = s.arrivalAtMs + delays[attemptNumber - 1];
+        long b = bound[attemptNumber - 1];
+        if (b == 0)
+            return due;
+        // 53 bits of the mixed hash as a fraction in [0, 1)
+        double f = (mix(s.messageId.hashCode() * 0x9E3779B97F4A7C15L + attemptNumber) >>> 11) * 0x1.0p-53;
+        return (jitter == Jitter.UP) ? due + (long) (f * (b + 1)) : due + (long) ((2 * f - 1) * b);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public String toString() {
+        return name + Arrays.toString(delays) + (jitter == Jitter.NONE ? "" : "/" + jitter + ":" + ratio);
+    }
+}
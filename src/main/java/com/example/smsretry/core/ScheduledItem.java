@@ -7,10 +7,23 @@ import java.util.concurrent.TimeUnit;
 public class ScheduledItem implements Delayed {
     public final String messageId;
     public final long dueAtMs;
+    // slot layout: (slot << 32 | generation) in the SlotStateTable, messageId is null;
+    // -1 when the item is keyed by messageId
+    public final long slotRef;
+
+    // intrusive link used by TimingWheel (inbox stack / bucket chain)
+    ScheduledItem next;
 
     public ScheduledItem(String messageId, long dueAtMs) {
         this.messageId = messageId;
         this.dueAtMs = dueAtMs;
+        this.slotRef = -1;
+    }
+
+    public ScheduledItem(long slotRef, long dueAtMs) {
+        this.messageId = null;
+        this.dueAtMs = dueAtMs;
+        this.slotRef = slotRef;
     }
 
     @Override
@@ -21,6 +34,9 @@ public class ScheduledItem implements Delayed {
 
     @Override
     public int compareTo(Delayed other) {
+        // ordering by due time needs no clock reads
+        if (other instanceof ScheduledItem o)
+            return Long.compare(dueAtMs, o.dueAtMs);
         long d = this.getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
         return (d == 0) ? 0 : (d < 0 ? -1 : 1);
     }
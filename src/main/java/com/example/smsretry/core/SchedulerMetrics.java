@@ -0,0 +1,22 @@
+// core/SchedulerMetrics.java
+package com.example.smsretry.core;
+
+// Hot-path hooks a shard reports through (see metrics/EngineMetrics). Called once per
+// send, so implementations must record into pre-registered meters without allocating.
+public interface SchedulerMetrics {
+    SchedulerMetrics NOOP = new SchedulerMetrics() {
+        @Override
+        public void dispatchLateness(long lateMs) {
+        }
+
+        @Override
+        public void sendCompleted(int attemptNumber, boolean ok, long latencyNanos) {
+        }
+    };
+
+    // how long after its nextDueAtMs a retry actually went out
+    void dispatchLateness(long lateMs);
+
+    // gateway round trip of one attempt (a batch reports each of its messages)
+    void sendCompleted(int attemptNumber, boolean ok, long latencyNanos);
+}
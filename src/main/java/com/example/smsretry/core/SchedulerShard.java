@@ -1,145 +1,691 @@
 // core/SchedulerShard.java
 package com.example.smsretry.core;
 
+import com.example.smsretry.model.Message;
 import com.example.smsretry.model.MessageState;
 import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.MessageTimeline;
+import com.example.smsretry.model.RecentOutcome;
 import com.example.smsretry.store.StateStore;
 import com.example.smsretry.store.StateUpdate;
 
 import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 public class SchedulerShard {
-    private final DelayQueue<ScheduledItem> delayQueue = new DelayQueue<>();
-    private final ConcurrentHashMap<String, MessageState> states = new ConcurrentHashMap<>();
-    private final ExecutorService retryPool;
+    private final TimingWheel wheel;
+    private final StateTable states;
+    private final RetryExecutor retryPool;
     private final SendGateway sendGateway;
     private final StateStore store;
-    private final Deque<MessageState> lastSuccess = new ArrayDeque<>();
-    private final Deque<MessageState> lastFailed = new ArrayDeque<>();
-    private final Object recentLock = new Object();
+    private final RecentRing recentSuccess;
+    private final RecentRing recentFailed;
+    private final AttemptTimeline timeline;
+    private final CarrierRouter carriers;
+    private final RetryPolicies policies;
+    private final CircuitBreaker breaker;
 
-    public SchedulerShard(int threads, SendGateway sendGateway, StateStore store) {
-        this.retryPool = Executors.newFixedThreadPool(threads);
+    // bounds concurrent sends per shard; a permit is held from dispatch until the send completes
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    // micro-batching of due retries (batchMaxSize <= 1 sends one by one);
+    // batch state is only touched by the draining thread, under batchLock
+    private final int batchMaxSize;
+    private final long batchBudgetNs;
+    private final Object batchLock = new Object();
+    private final List<MessageState> batch = new ArrayList<>();
+    private final List<CarrierRouter.Carrier> batchCarriers = new ArrayList<>();
+    private long batchStartNs;
+    private long drainNowMs;
+
+    private final Consumer<ScheduledItem> dispatcher;
+
+    // `states` only holds non-terminal messages; its estimated footprint is capped by
+    // memoryBudgetBytes (0 = unlimited) and new messages are refused beyond it
+    private final long memoryBudgetBytes;
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // due retries the breaker refused, oldest first; they keep their attempt count and
+    // go out again as it lets them (draining thread only, under batchLock)
+    private final ArrayDeque<ScheduledItem> parked = new ArrayDeque<>();
+    private volatile int parkedCount;
+
+    // due retries the last drain had to push back because every in-flight permit was taken
+    private volatile int dueBacklog;
+    private int deferredThisDrain; // draining thread only
+
+    // client ids of live messages, and of terminal ones for tombstone.ttlMs (de-duplication)
+    private final IdempotencyIndex ids;
+    private final LongAdder duplicates = new LongAdder();
+
+    private volatile SchedulerMetrics metrics = SchedulerMetrics.NOOP;
+
+    // cluster mode: the shard holds messages only while this node leases it. New-message
+    // calls run between enter() and exit(), so deactivate() and quiesce() can wait them out.
+    private volatile boolean active = true;
+    private final AtomicInteger admitting = new AtomicInteger();
+
+    // event-driven dispatch (scheduler.dispatch.mode=event): a dedicated thread parks
+    // until the wheel's earliest due time; schedule() unparks it for anything earlier.
+    // parkedUntilMs is Long.MIN_VALUE while it is draining (a later scan sees new items)
+    private static final long MAX_PARK_NS = TimeUnit.SECONDS.toNanos(1);
+    private volatile Thread dispatcherThread;
+    private volatile long parkedUntilMs = Long.MIN_VALUE;
+    private volatile boolean dispatching;
+
+    // unlimited carriers, the spec retry schedule, no breaker (tests, benchmarks)
+    public SchedulerShard(RetryExecutor retryPool, SendGateway sendGateway, StateStore store,
+            EngineSettings settings) {
+        this(retryPool, sendGateway, store, settings, CarrierRouter.unlimited(), RetryPolicies.spec(),
+                CircuitBreaker.disabled());
+    }
+
+    // retryPool: runs the sends (RetryExecutors); shut down with the shard
+    // settings: the per-shard scheduler.* values (in-flight limit, wheel, batching, memory
+    //   budget, tombstones, state layout) and recent/timeline capacities
+    // carriers: per-carrier send limits, shared by all shards
+    // policies: retry schedules, picked per message (MessageState.policy)
+    // breaker: gateway outage detection, shared by all shards
+    public SchedulerShard(RetryExecutor retryPool, SendGateway sendGateway, StateStore store,
+            EngineSettings settings, CarrierRouter carriers, RetryPolicies policies, CircuitBreaker breaker) {
+        this.carriers = carriers;
+        this.policies = policies;
+        this.breaker = breaker;
+        this.timeline = new AttemptTimeline(settings.timelineCapacityPerShard(), policies.maxAttempts());
+        this.recentSuccess = new RecentRing(settings.recentCapacity());
+        this.recentFailed = new RecentRing(settings.recentCapacity());
+        this.states = StateTable.create(settings.stateLayout());
+        this.wheel = new TimingWheel(settings.wheelTickMs(), settings.wheelBuckets());
+        this.retryPool = retryPool;
+        this.maxInFlight = settings.maxInFlightPerShard();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.batchMaxSize = settings.batchMaxSize();
+        this.batchBudgetNs = TimeUnit.MILLISECONDS.toNanos(settings.batchMaxDelayMs());
+        this.dispatcher = this::dispatch;
         this.sendGateway = sendGateway;
         this.store = store;
+        this.memoryBudgetBytes = settings.memoryBudgetBytesPerShard();
+        this.ids = new IdempotencyIndex(settings.tombstoneTtlMs(), settings.maxTombstonesPerShard());
     }
 
     public void shutdown() {
+        dispatching = false;
+        Thread t = dispatcherThread;
+        if (t != null)
+            LockSupport.unpark(t);
         retryPool.shutdown();
     }
 
+    // Switches the shard to event-driven dispatch; drainDueAndDispatch() need not be
+    // called from outside afterwards.
+    public void startDispatcher(String threadName) {
+        dispatching = true;
+        Thread t = new Thread(this::runDispatcher, threadName);
+        t.setDaemon(true);
+        dispatcherThread = t;
+        t.start();
+    }
+
+    private void runDispatcher() {
+        while (dispatching) {
+            try {
+                drainDueAndDispatch();
+            } catch (RuntimeException e) {
+                // keep dispatching (in real life: log)
+            }
+
+            // Publish "wake me for anything" before scanning, so an item scheduled during
+            // the scan either shows up in it or unparks us.
+            parkedUntilMs = Long.MAX_VALUE;
+            long next;
+            if (!active)
+                next = Long.MAX_VALUE; // handed off; recover() after activate() unparks us
+            else if (dueBacklog > 0)
+                next = System.currentTimeMillis() + wheel.tickMs(); // at the in-flight limit: wait for permits
+            else if (parkedCount > 0) // breaker: when it may let parked retries go again
+                next = Math.min(wheel.nextDueMs(),
+                        Math.max(System.currentTimeMillis() + wheel.tickMs(), breaker.resumeAtMs()));
+            else
+                next = wheel.nextDueMs();
+            parkedUntilMs = next;
+            long waitMs = next - System.currentTimeMillis();
+            if (waitMs > 0)
+                LockSupport.parkNanos(this, Math.min(MAX_PARK_NS, TimeUnit.MILLISECONDS.toNanos(waitMs)));
+            parkedUntilMs = Long.MIN_VALUE;
+        }
+    }
+
+    public void instrument(SchedulerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // With the slots layout this is a snapshot; write changes back with upsertState.
     public MessageState getState(String messageId) {
         return states.get(messageId);
     }
 
+    public boolean isPending(String messageId) {
+        return states.isPending(messageId);
+    }
+
     public void upsertState(MessageState s) {
-        states.put(s.messageId, s);
+        states.put(s);
+    }
+
+    // New-message path: like upsertState, but refuses the message once the shard's
+    // memory budget is used up.
+    public void admit(MessageState s) {
+        long used = states.bytes();
+        if (memoryBudgetBytes > 0 && used + states.bytesFor(s) > memoryBudgetBytes) {
+            rejected.increment();
+            throw new CapacityExceededException("shard memory budget exhausted ("
+                    + used + "/" + memoryBudgetBytes + " bytes)");
+        }
+        upsertState(s);
+    }
+
+    // Recovery path: a message the engine already knows (e.g. re-submitted while recovery
+    // was still streaming) keeps its live state; otherwise adopt and schedule it.
+    // Recovered messages are admitted regardless of the budget.
+    public boolean recover(MessageState s, long nowMs) {
+        if (!ids.claim(s.messageId, nowMs))
+            return false;
+        if (!states.putIfAbsent(s)) {
+            ids.release(s.messageId); // a live generated id, never claimed
+            return false;
+        }
+        schedule(s, (s.nextDueAtMs > 0) ? s.nextDueAtMs : nowMs);
+        return true;
+    }
+
+    // Atomic first-sender check for a client-supplied id: true for exactly one caller
+    // while the message is live or within the tombstone TTL after it turned terminal.
+    // The winner must admit the message or releaseClaim() it.
+    public boolean claim(String messageId) {
+        if (ids.claim(messageId, System.currentTimeMillis()))
+            return true;
+        duplicates.increment();
+        return false;
+    }
+
+    public void releaseClaim(String messageId) {
+        ids.release(messageId);
+    }
+
+    // True if the message reached SUCCESS/FAILED within the tombstone TTL.
+    public boolean isRecentlyTerminal(String messageId) {
+        return ids.isRetained(messageId, System.currentTimeMillis());
+    }
+
+    public int stateCount() {
+        return states.size();
+    }
+
+    // every held message (slots layout: detached copies), for the shutdown snapshot
+    public void forEachState(Consumer<MessageState> action) {
+        states.forEach(action);
     }
 
+    public long stateBytes() {
+        return states.bytes();
+    }
+
+    public long memoryBudgetBytes() {
+        return memoryBudgetBytes;
+    }
+
+    public int tombstoneCount() {
+        return ids.retainedCount();
+    }
+
+    public long duplicateCount() {
+        return duplicates.sum();
+    }
+
+    public long evictedCount() {
+        return evicted.sum();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public int retryQueueDepth() {
+        return retryPool.queueDepth();
+    }
+
+    public int retryActiveThreads() {
+        return retryPool.activeThreads();
+    }
+
+    public int dueBacklog() {
+        return dueBacklog;
+    }
+
+    // due retries held back by the gateway circuit breaker
+    public int parkedCount() {
+        return parkedCount;
+    }
+
+    // share of the memory budget in use (0 when unlimited)
+    public double memorySaturation() {
+        return (memoryBudgetBytes == 0) ? 0 : (double) states.bytes() / memoryBudgetBytes;
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    // Schedules a message already held by this shard.
     public void schedule(String messageId, long dueAtMs) {
-        delayQueue.offer(new ScheduledItem(messageId, dueAtMs));
+        MessageState s = states.get(messageId);
+        if (s != null)
+            schedule(s, dueAtMs);
     }
 
+    private void schedule(MessageState s, long dueAtMs) {
+        if (!active) {
+            // handed off: the pending state is in the store for the next owner
+            forget(s);
+            return;
+        }
+        wheel.schedule(states.itemFor(s, dueAtMs));
+        if (dueAtMs < parkedUntilMs) {
+            Thread t = dispatcherThread;
+            if (t != null)
+                LockSupport.unpark(t);
+        }
+    }
+
+    public long pendingScheduled() {
+        return wheel.size();
+    }
+
+    public int inFlightSends() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    // Lock-free: one getAndIncrement on the outcome's ring. The entry is an immutable
+    // copy, so the state itself can be evicted right after.
     public void recordTerminal(MessageState s) {
-        synchronized (recentLock) {
-            Deque<MessageState> target = (s.status == MessageStatus.SUCCESS) ? lastSuccess : lastFailed;
-            target.addFirst(s);
-            while (target.size() > 100)
-                target.removeLast();
+        RecentRing ring = (s.status == MessageStatus.SUCCESS) ? recentSuccess : recentFailed;
+        ring.add(new RecentOutcome(s.messageId, s.attemptCount, s.status, System.currentTimeMillis(), s.lastError));
+    }
+
+    // newest first
+    public List<RecentOutcome> recentSuccess(int limit) {
+        return recentSuccess.latest(limit);
+    }
+
+    public List<RecentOutcome> recentFailed(int limit) {
+        return recentFailed.latest(limit);
+    }
+
+    // for SmsRetryEngine's merge across shards
+    RecentRing.Reader recentReader(boolean success) {
+        return (success ? recentSuccess : recentFailed).reader();
+    }
+
+    public int recentCapacity() {
+        return recentSuccess.capacity();
+    }
+
+    // attempt history of one of the last timelineCapacity messages sent, else null
+    public MessageTimeline timeline(String messageId) {
+        return timeline.get(messageId);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    // Takes the shard (back) on; the caller then recover()s its pending states.
+    public void activate() {
+        active = true;
+    }
+
+    // False while the shard is inactive: the caller must not admit into it.
+    public boolean enter() {
+        admitting.incrementAndGet();
+        if (active)
+            return true;
+        admitting.decrementAndGet();
+        return false;
+    }
+
+    public void exit() {
+        admitting.decrementAndGet();
+    }
+
+    // Graceful shutdown: stops admitting and dispatching (due retries stay on the wheel),
+    // waits up to timeoutMs for new-message calls and in-flight sends to record their
+    // outcomes and keeps every held message (forEachState). False if it had to stop waiting.
+    public boolean quiesce(long timeoutMs) {
+        active = false;
+        synchronized (batchLock) {
+            // a drain that started before the flag flipped is done dispatching now
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (admitting.get() > 0 || inFlight.availablePermits() < maxInFlight) {
+            if (System.currentTimeMillis() >= deadline)
+                return false;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
         }
+        return true;
     }
 
-    public Deque<MessageState> snapshotSuccess(int limit) {
-        synchronized (recentLock) {
-            return copyDeque(lastSuccess, limit);
+    // Hand-off: quiesce(), then drops every held message (their pending states are in
+    // the store). False if it had to stop waiting.
+    public boolean deactivate(long timeoutMs) {
+        boolean quiet = quiesce(timeoutMs);
+        Consumer<ScheduledItem> drop = item -> {
+            MessageState s = states.get(item);
+            if (s != null)
+                forget(s);
+        };
+        wheel.clear(drop);
+        synchronized (batchLock) {
+            parked.forEach(drop);
+            parked.clear();
+            parkedCount = 0;
         }
+        return quiet;
+    }
+
+    private void forget(MessageState s) {
+        if (states.remove(s))
+            ids.release(s.messageId);
     }
 
-    public Deque<MessageState> snapshotFailed(int limit) {
-        synchronized (recentLock) {
-            return copyDeque(lastFailed, limit);
+    // Called by wakeup() (tick mode) or the shard's dispatcher thread (event mode):
+    // expire every due bucket, submit work to pool
+    public void drainDueAndDispatch() {
+        synchronized (batchLock) {
+            if (!active)
+                return;
+            drainNowMs = System.currentTimeMillis();
+            deferredThisDrain = 0;
+            releaseParked();
+            wheel.drainDue(drainNowMs, dispatcher);
+            flushBatch();
+            dueBacklog = deferredThisDrain;
+            parkedCount = parked.size();
         }
     }
 
-    private Deque<MessageState> copyDeque(Deque<MessageState> src, int limit) {
-        Deque<MessageState> out = new ArrayDeque<>();
-        int i = 0;
-        for (MessageState s : src) {
-            if (i++ >= limit)
-                break;
-            out.addLast(s);
+    // Parked retries go before newly due ones, oldest first, as far as the breaker (its
+    // recovery ramp) and the in-flight permits allow.
+    private void releaseParked() {
+        if (parked.isEmpty() || breaker.resumeAtMs() > drainNowMs)
+            return;
+        for (int n = parked.size(); n > 0; n--) {
+            ScheduledItem item = parked.pollFirst();
+            int deferred = deferredThisDrain;
+            dispatcher.accept(item);
+            if (parked.peekLast() == item) {
+                // refused again: it keeps its place at the front
+                parked.pollLast();
+                parked.addFirst(item);
+                return;
+            }
+            if (deferredThisDrain > deferred)
+                return; // out of permits; it waits on the wheel
         }
-        return out;
     }
 
-    // Called by wakeup(): drain due items fast, submit work to pool
-    public void drainDueAndDispatch() {
-        while (true) {
-            ScheduledItem item = delayQueue.poll(); // returns due-only
-            if (item == null)
+    // Attempt #1 for a freshly accepted message; runs on the caller's thread.
+    // If the shard is at its in-flight limit the attempt is deferred to the next tick,
+    // if the carrier is at its limit by the router's deferMs.
+    public void submitFirstAttempt(MessageState s) {
+        if (inFlight.tryAcquire()) {
+            if (!breaker.tryAcquire()) {
+                // gateway outage: the first drain parks it, attempt #1 still unspent
+                inFlight.release();
+                store.enqueue(StateUpdate.pending(s));
+                schedule(s, s.nextDueAtMs);
                 return;
+            }
+            CarrierRouter.Carrier carrier = carriers.acquire(s.phone);
+            if (carrier != null) {
+                attempt(s, 1, carrier);
+                return;
+            }
+            inFlight.release();
+            store.enqueue(StateUpdate.pending(s));
+            schedule(s, System.currentTimeMillis() + carriers.deferMs());
+            return;
+        }
+        store.enqueue(StateUpdate.pending(s));
+        schedule(s, s.nextDueAtMs);
+    }
 
-            retryPool.submit(() -> processRetry(item.messageId));
+    private void dispatch(ScheduledItem item) {
+        if (batchMaxSize > 1) {
+            collect(item);
+            return;
+        }
+        if (!inFlight.tryAcquire()) {
+            // at the in-flight limit: keep the original due time, retry on the next tick
+            deferredThisDrain++;
+            wheel.schedule(item);
+            return;
+        }
+        if (!breaker.tryAcquire()) {
+            inFlight.release();
+            parked.addLast(item);
+            return;
+        }
+        try {
+            retryPool.execute(() -> processRetry(item));
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
         }
     }
 
-    private void processRetry(String messageId) {
-        MessageState s = states.get(messageId);
-        if (s == null)
+    // Batch mode: validate on the draining thread and group sends; a batch is
+    // cut when it is full or when its oldest entry has waited batchBudgetNs.
+    private void collect(ScheduledItem item) {
+        MessageState s = states.get(item);
+        if (s == null || s.status != MessageStatus.PENDING || s.attemptCount >= policies.of(s.policy).maxAttempts())
             return;
-        if (s.status != MessageStatus.PENDING)
+        if (s.nextDueAtMs > drainNowMs) {
+            schedule(s, s.nextDueAtMs);
             return;
+        }
+        if (!inFlight.tryAcquire()) {
+            deferredThisDrain++;
+            wheel.schedule(item);
+            return;
+        }
+        if (!breaker.tryAcquire()) {
+            inFlight.release();
+            parked.addLast(item);
+            return;
+        }
+        CarrierRouter.Carrier carrier = carriers.acquire(s.phone);
+        if (carrier == null) {
+            inFlight.release();
+            schedule(s, drainNowMs + carriers.deferMs());
+            return;
+        }
+
+        if (batch.isEmpty())
+            batchStartNs = System.nanoTime();
+        batch.add(s);
+        batchCarriers.add(carrier);
+        if (batch.size() >= batchMaxSize || System.nanoTime() - batchStartNs >= batchBudgetNs)
+            flushBatch();
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty())
+            return;
+        List<MessageState> toSend = new ArrayList<>(batch);
+        List<CarrierRouter.Carrier> slots = new ArrayList<>(batchCarriers);
+        batch.clear();
+        batchCarriers.clear();
+        try {
+            retryPool.execute(() -> attemptBatch(toSend, slots));
+        } catch (RejectedExecutionException e) {
+            for (CarrierRouter.Carrier c : slots)
+                c.release(0, false);
+            inFlight.release(toSend.size());
+        }
+    }
+
+    // One permit per message is held; all are released once every outcome is recorded.
+    private void attemptBatch(List<MessageState> states, List<CarrierRouter.Carrier> slots) {
+        int n = states.size();
+        SchedulerMetrics m = metrics;
+        long now = System.currentTimeMillis();
+        List<Message> messages = new ArrayList<>(n);
+        for (MessageState s : states) {
+            messages.add(s.toMessage());
+            m.dispatchLateness(now - s.nextDueAtMs);
+        }
+
+        long startNs = System.nanoTime();
+        CompletableFuture<List<Boolean>> result;
+        try {
+            result = sendGateway.sendBatchAsync(messages);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((oks, err) -> {
+            try {
+                long latencyNs = System.nanoTime() - startNs;
+                for (int i = 0; i < n; i++) {
+                    MessageState s = states.get(i);
+                    boolean ok = oks != null && i < oks.size() && Boolean.TRUE.equals(oks.get(i));
+                    int attemptNumber = s.attemptCount + 1;
+                    slots.get(i).release(latencyNs, err != null);
+                    breaker.record(ok, err);
+                    m.sendCompleted(attemptNumber, ok, latencyNs);
+                    onAttemptComplete(s, attemptNumber, ok, err);
+                    timeline.record(s.messageId, s.arrivalAtMs, attemptNumber, now, latencyNs, ok, s.status);
+                }
+            } finally {
+                inFlight.release(n);
+            }
+        });
+    }
+
+    private void processRetry(ScheduledItem item) {
+        MessageState s = states.get(item);
+        if (s == null || s.status != MessageStatus.PENDING) {
+            inFlight.release();
+            return;
+        }
 
         long now = System.currentTimeMillis();
         if (s.nextDueAtMs > now) {
-            // Not due yet; reschedule (rare because DelayQueue already guards)
-            schedule(messageId, s.nextDueAtMs);
+            // Not due yet; reschedule (rare because the wheel already guards)
+            inFlight.release();
+            schedule(s, s.nextDueAtMs);
             return;
         }
 
         // Next attempt number is attemptCount + 1
         int nextAttempt = s.attemptCount + 1;
-        if (nextAttempt > 6)
+        if (nextAttempt > policies.of(s.policy).maxAttempts()) {
+            inFlight.release();
             return;
+        }
+
+        CarrierRouter.Carrier carrier = carriers.acquire(s.phone);
+        if (carrier == null) {
+            inFlight.release();
+            schedule(s, now + carriers.deferMs());
+            return;
+        }
 
-        boolean ok;
+        metrics.dispatchLateness(now - s.nextDueAtMs);
+        attempt(s, nextAttempt, carrier);
+    }
+
+    // Caller holds an in-flight permit and a carrier slot; both are released once the
+    // outcome is recorded.
+    private void attempt(MessageState s, int attemptNumber, CarrierRouter.Carrier carrier) {
+        SchedulerMetrics m = metrics;
+        long startMs = System.currentTimeMillis();
+        long startNs = System.nanoTime();
+        CompletableFuture<Boolean> result;
         try {
-            ok = sendGateway.send(s.toMessage());
+            result = sendGateway.sendAsync(s.toMessage());
         } catch (Exception e) {
-            ok = false;
-            s.lastError = e.getMessage();
+            result = CompletableFuture.failedFuture(e);
         }
+        result.whenComplete((ok, err) -> {
+            try {
+                long latencyNs = System.nanoTime() - startNs;
+                carrier.release(latencyNs, err != null);
+                breaker.record(Boolean.TRUE.equals(ok), err);
+                m.sendCompleted(attemptNumber, Boolean.TRUE.equals(ok), latencyNs);
+                onAttemptComplete(s, attemptNumber, Boolean.TRUE.equals(ok), err);
+                timeline.record(s.messageId, s.arrivalAtMs, attemptNumber, startMs, latencyNs, Boolean.TRUE.equals(ok),
+                        s.status);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
 
-        s.attemptCount = nextAttempt;
+    private void onAttemptComplete(MessageState s, int attemptNumber, boolean ok, Throwable err) {
+        if (err != null)
+            s.lastError = errorMessage(err);
+
+        s.attemptCount = attemptNumber;
 
         if (ok) {
             s.status = MessageStatus.SUCCESS;
             s.nextDueAtMs = 0L;
             store.enqueue(StateUpdate.success(s));
             recordTerminal(s);
+            evict(s);
             return;
         }
 
         // Failed
-        if (nextAttempt >= 6) {
+        RetryPolicy policy = policies.of(s.policy);
+        if (attemptNumber >= policy.maxAttempts()) {
             s.status = MessageStatus.FAILED;
             s.nextDueAtMs = 0L;
             if (s.lastError == null)
                 s.lastError = "All retries exhausted";
             store.enqueue(StateUpdate.failed(s));
             recordTerminal(s);
+            evict(s);
             return;
         }
 
-        // Schedule next due based on arrival + delay table
-        int upcomingAttempt = nextAttempt + 1;
-        long due = s.arrivalAtMs + RetryDelays.delayFromArrivalMs(upcomingAttempt);
+        // Schedule next due based on arrival + the policy's delay table (and jitter)
+        long due = policy.dueAtMs(s, attemptNumber + 1);
         s.nextDueAtMs = due;
 
+        states.update(s);
         store.enqueue(StateUpdate.pending(s));
-        schedule(messageId, due);
+        schedule(s, due);
+    }
+
+    // The terminal update is with the store now; only a small tombstone stays behind.
+    // The id stays claimed until retire(), so a resubmission never sees a gap.
+    private void evict(MessageState s) {
+        if (!states.remove(s))
+            return;
+        evicted.increment();
+        ids.retire(s.messageId, System.currentTimeMillis());
+    }
+
+    private static String errorMessage(Throwable err) {
+        Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
     }
 }
\ No newline at end of file
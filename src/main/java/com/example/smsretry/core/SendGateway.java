@@ -3,6 +3,44 @@ package com.example.smsretry.core;
 
 import com.example.smsretry.model.Message;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface SendGateway {
     boolean send(Message message);
+
+    // Non-blocking variant used by the engine. The default runs send() on the
+    // caller's thread; gateways with an async client should override it.
+    default CompletableFuture<Boolean> sendAsync(Message message) {
+        try {
+            return CompletableFuture.completedFuture(send(message));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Bulk submit: one outcome per message, in the same order. The default
+    // falls back to one send() per message; gateways with a bulk API override it.
+    default List<Boolean> sendBatch(List<Message> messages) {
+        List<Boolean> out = new ArrayList<>(messages.size());
+        for (Message m : messages) {
+            boolean ok;
+            try {
+                ok = send(m);
+            } catch (Exception e) {
+                ok = false;
+            }
+            out.add(ok);
+        }
+        return out;
+    }
+
+    default CompletableFuture<List<Boolean>> sendBatchAsync(List<Message> messages) {
+        try {
+            return CompletableFuture.completedFuture(sendBatch(messages));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+// core/ShardSnapshot.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.store.BinaryStateCodec;
+import com.example.smsretry.store.RecordBuffer;
+import com.example.smsretry.store.RecoveryProgress;
+import com.example.smsretry.store.StateRecords;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Warm restart (snapshot.*): a graceful shutdown writes every message the quiesced
+// shards hold to a local file, sealed with the store's position (StateStore.seal). The
+// next start memory-maps it and, if the store confirms nothing was written since
+// (claimSeal), loads the shards from it in parallel instead of reading the whole store;
+// otherwise (first start, crash, new host) recovery reads the store as before. The file
+// is deleted once read, so it is never applied twice.
+//
+// Layout (big-endian):
+//   header  [int magic][int version][long createdAtMs][int sealLength][seal, UTF-8][int sections]
+//   index   per section: [long offset][int length][int records][int crc32]
+//   section one shard's messages: [int length][StateRecords binary form of StateUpdate.pending]...
+@Component
+public class ShardSnapshot {
+    private static final int MAGIC = 0x534D5353; // "SMSS"
+    private static final int VERSION = 1;
+    private static final int FIXED_HEADER = 24; // magic .. sealLength, sections
+    private static final int INDEX_ENTRY = 20;
+    private static final int MAX_SEAL = 4096;
+
+    private final boolean enabled;
+    private final Path path;
+    private final int parallelism;
+    private final long drainTimeoutMs;
+
+    // drainTimeoutMs: how long shutdown waits for in-flight sends and the store,
+    // snapshot or not
+    @Autowired
+    public ShardSnapshot(
+            @Value("${snapshot.enabled:false}") boolean enabled,
+            @Value("${snapshot.path:./data/shards.snapshot}") String path,
+            @Value("${snapshot.parallelism:8}") int parallelism,
+            @Value("${shutdown.drainTimeoutMs:10000}") long drainTimeoutMs) {
+        this(enabled, Paths.get(path), parallelism, drainTimeoutMs);
+    }
+
+    public ShardSnapshot(boolean enabled, Path path, int parallelism, long drainTimeoutMs) {
+        this.enabled = enabled;
+        this.path = path;
+        this.parallelism = Math.max(1, parallelism);
+        this.drainTimeoutMs = Math.max(0, drainTimeoutMs);
+    }
+
+    // no snapshot, no drain wait at shutdown (tests, benchmarks)
+    public static ShardSnapshot disabled() {
+        return new ShardSnapshot(false, Paths.get("shards.snapshot"), 1, 0);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public long drainTimeoutMs() {
+        return drainTimeoutMs;
+    }
+
+    private record Section(byte[] bytes, int records, int crc) {
+    }
+
+    private record Entry(long offset, int length, int records, int crc) {
+    }
+
+    // Writes the pending messages of quiesced shards, one section per shard (encoded in
+    // parallel), and replaces an older snapshot atomically. Returns the message count.
+    public long write(SchedulerShard[] shards, String seal) throws IOException {
+        List<Callable<Section>> tasks = new ArrayList<>(shards.length);
+        for (SchedulerShard shard : shards)
+            tasks.add(() -> encode(shard));
+        List<Section> sections = runAll(tasks);
+
+        byte[] sealBytes = seal.getBytes(StandardCharsets.UTF_8);
+        int headerBytes = FIXED_HEADER + sealBytes.length + INDEX_ENTRY * sections.size();
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        header.putInt(sealBytes.length).put(sealBytes).putInt(sections.size());
+        long offset = headerBytes;
+        long records = 0;
+        for (Section s : sections) {
+            header.putLong(offset).putInt(s.bytes.length).putInt(s.records).putInt(s.crc);
+            offset += s.bytes.length;
+            records += s.records;
+        }
+        header.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, header);
+            for (Section s : sections)
+                writeFully(ch, ByteBuffer.wrap(s.bytes));
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    private static Section encode(SchedulerShard shard) throws IOException {
+        List<MessageState> held = new ArrayList<>(shard.stateCount());
+        shard.forEachState(held::add);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int records = 0;
+        for (MessageState s : held) {
+            if (s.status != MessageStatus.PENDING)
+                continue;
+            RecordBuffer r = StateRecords.encodeToBuffer(StateUpdate.pending(s), BinaryStateCodec.INSTANCE);
+            out.writeInt(r.length());
+            out.write(r.array(), 0, r.length());
+            records++;
+        }
+        out.flush();
+        byte[] b = bytes.toByteArray();
+        return new Section(b, records, crc(ByteBuffer.wrap(b)));
+    }
+
+    // Loads the snapshot into `sink` (from several threads at once) if there is one and
+    // the store claims its seal. Every section's CRC is checked before anything is
+    // loaded. False = recover from the store instead; a state loaded before a later
+    // failure does no harm there, recovery keeps what a shard already holds.
+    public boolean restore(StateStore store, Consumer<MessageState> sink, RecoveryProgress progress) {
+        if (!enabled || !Files.isRegularFile(path))
+            return false;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer fixed = readAt(ch, 0, FIXED_HEADER - 4); // up to the seal
+            if (fixed.getInt() != MAGIC || fixed.getInt() != VERSION)
+                return false;
+            fixed.getLong(); // createdAtMs
+            int sealLength = fixed.getInt();
+            if (sealLength < 0 || sealLength > MAX_SEAL || FIXED_HEADER + sealLength > size)
+                return false;
+            ByteBuffer rest = readAt(ch, FIXED_HEADER - 4, sealLength + 4);
+            byte[] sealBytes = new byte[sealLength];
+            rest.get(sealBytes);
+            int sections = rest.getInt();
+            long indexEnd = FIXED_HEADER + sealLength + (long) INDEX_ENTRY * sections;
+            if (sections < 0 || indexEnd > size)
+                return false;
+            ByteBuffer index = readAt(ch, FIXED_HEADER + sealLength, INDEX_ENTRY * sections);
+            List<Entry> entries = new ArrayList<>(sections);
+            for (int i = 0; i < sections; i++) {
+                Entry e = new Entry(index.getLong(), index.getInt(), index.getInt(), index.getInt());
+                if (e.offset < indexEnd || e.length < 0 || e.offset + e.length > size)
+                    return false;
+                entries.add(e);
+            }
+
+            if (!store.claimSeal(new String(sealBytes, StandardCharsets.UTF_8)))
+                return false;
+
+            List<MappedByteBuffer> maps = new ArrayList<>(sections);
+            List<Callable<Boolean>> checks = new ArrayList<>(sections);
+            for (Entry e : entries) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, e.offset, e.length);
+                maps.add(map);
+                checks.add(() -> crc(map.duplicate()) == e.crc);
+            }
+            if (runAll(checks).contains(false))
+                return false;
+
+            progress.source("snapshot");
+            progress.start(sections);
+            List<Callable<Void>> loads = new ArrayList<>(sections);
+            for (int i = 0; i < sections; i++) {
+                ByteBuffer section = maps.get(i).duplicate();
+                int records = entries.get(i).records;
+                loads.add(() -> {
+                    load(section, records, store, sink, progress);
+                    return null;
+                });
+            }
+            runAll(loads);
+            store.snapshotRestored();
+            progress.finish();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            progress.source("store");
+            return false; // (in real life: log)
+        } finally {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // a stale snapshot fails its seal check next time
+            }
+        }
+    }
+
+    private static void load(ByteBuffer section, int records, StateStore store, Consumer<MessageState> sink,
+            RecoveryProgress progress) throws IOException {
+        byte[] record = new byte[256];
+        for (int i = 0; i < records; i++) {
+            int len = section.getInt();
+            if (len <= 0 || len > section.remaining())
+                throw new IOException("bad snapshot record length " + len);
+            if (len > record.length)
+                record = new byte[Math.max(len, record.length * 2)];
+            section.get(record, 0, len);
+            MessageState s = StateRecords.decode(record, 0, len).state;
+            sink.accept(s);
+            store.adoptPending(s);
+            progress.loaded();
+        }
+        progress.unitDone();
+    }
+
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, tasks.size())));
+        try {
+            List<T> out = new ArrayList<>(tasks.size());
+            for (Future<T> f : pool.invokeAll(tasks))
+                out.add(f.get());
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("snapshot interrupted");
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException io) ? io : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel ch, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, position + buf.position()) < 0)
+                throw new IOException("snapshot truncated");
+        }
+        return buf.flip();
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            ch.write(buf);
+    }
+
+    private static int crc(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        return (int) crc.getValue();
+    }
+}
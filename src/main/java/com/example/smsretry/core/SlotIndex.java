@@ -0,0 +1,99 @@
+// core/SlotIndex.java
+package com.example.smsretry.core;
+
+import java.util.Arrays;
+
+// Open-addressing index from a String id to an int slot of the owner's columns
+// (SlotStateTable, AttemptTimeline): linear probing over slot + 1 entries (0 = empty)
+// with backward-shift delete, so removals leave no tombstones. Keeps each slot's spread
+// hash; the owner says whether a slot holds a given id. Not thread-safe: owners call it
+// under their own monitor.
+final class SlotIndex {
+
+    interface Ids {
+        boolean holds(int slot, String id);
+    }
+
+    private final Ids ids;
+    private int[] hash; // per slot
+    private int[] table;
+    private int entries;
+
+    SlotIndex(int slots, Ids ids) {
+        this.ids = ids;
+        this.hash = new int[slots];
+        this.table = new int[Integer.highestOneBit(slots * 2 - 1) << 1];
+    }
+
+    // the owner's columns grew to `slots`
+    void growSlots(int slots) {
+        hash = Arrays.copyOf(hash, slots);
+    }
+
+    int find(String id) {
+        int h = spread(id.hashCode());
+        int mask = table.length - 1;
+        for (int i = h & mask; table[i] != 0; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            if (hash[slot] == h && ids.holds(slot, id))
+                return slot;
+        }
+        return -1;
+    }
+
+    // `slot` must not be indexed yet; the table doubles once it is half full
+    void add(int slot, String id) {
+        hash[slot] = spread(id.hashCode());
+        if ((++entries << 1) > table.length)
+            rehash(table.length << 1);
+        insert(table, slot);
+    }
+
+    void remove(int slot) {
+        int mask = table.length - 1;
+        int i = hash[slot] & mask;
+        while (table[i] != slot + 1)
+            i = (i + 1) & mask;
+        deleteAt(i);
+        entries--;
+    }
+
+    private void deleteAt(int pos) {
+        int mask = table.length - 1;
+        int i = pos;
+        int j = pos;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0)
+                break;
+            int home = hash[table[j] - 1] & mask;
+            // move j back into the hole at i unless its home lies cyclically in (i, j]
+            boolean between = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+    }
+
+    private void rehash(int newLength) {
+        int[] next = new int[newLength];
+        for (int e : table)
+            if (e != 0)
+                insert(next, e - 1);
+        table = next;
+    }
+
+    private void insert(int[] into, int slot) {
+        int mask = into.length - 1;
+        int i = hash[slot] & mask;
+        while (into[i] != 0)
+            i = (i + 1) & mask;
+        into[i] = slot + 1;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,279 @@
+// core/SlotStateTable.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.store.RecordBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Pending messages as parallel primitive columns indexed by an int slot:
+// attemptCount, arrivalAtMs, nextDueAtMs, status, plus one byte[] per slot holding
+// id/phone/body/lastError/policy as length-prefixed UTF-8. Ids are found through a
+// SlotIndex (open addressing over slot numbers), and wheel items
+// carry (slot << 32 | generation) instead of the id, so a freed and reused slot is
+// never mistaken for the message that was scheduled. Every object put in or handed out
+// is stamped with its slot and generation (MessageState.tableRef); update() and
+// remove() ignore a stale one, as the map layout ignores a replaced object.
+// With SMS-sized fields (1M fill, ~70 chars of id/phone/body) this retains ~175 bytes
+// per pending message including its wheel item, vs ~275 for the map layout.
+// All access is under the table's monitor; get() hands out detached copies.
+final class SlotStateTable implements StateTable {
+    private static final MessageStatus[] STATUSES = MessageStatus.values();
+    // columns + index share + scheduled item + blob array header
+    private static final long FIXED_BYTES = 33 + 16 + 40 + 16;
+
+    private static final ThreadLocal<RecordBuffer> BLOB = ThreadLocal.withInitial(() -> new RecordBuffer(256));
+
+    private int[] attemptCount;
+    private long[] arrivalAtMs;
+    private long[] nextDueAtMs;
+    private byte[] status;
+    private int[] generation;
+    private byte[][] blob; // null = free slot
+
+    private int[] freeSlots;
+    private int freeCount;
+    private int highWater; // slots [0, highWater) have been handed out at least once
+    private int size;
+    private long bytes;
+
+    private final SlotIndex index;
+
+    SlotStateTable() {
+        this(1024);
+    }
+
+    SlotStateTable(int initialCapacity) {
+        int cap = Math.max(16, initialCapacity);
+        attemptCount = new int[cap];
+        arrivalAtMs = new long[cap];
+        nextDueAtMs = new long[cap];
+        status = new byte[cap];
+        generation = new int[cap];
+        blob = new byte[cap][];
+        freeSlots = new int[cap];
+        index = new SlotIndex(cap, (slot, id) -> idEquals(blob[slot], id));
+    }
+
+    @Override
+    public synchronized MessageState get(String messageId) {
+        int slot = index.find(messageId);
+        return (slot < 0) ? null : materialize(slot);
+    }
+
+    @Override
+    public synchronized MessageState get(ScheduledItem item) {
+        int slot = (int) (item.slotRef >>> 32);
+        if (slot < 0 || slot >= highWater || blob[slot] == null || generation[slot] != (int) item.slotRef)
+            return null;
+        return materialize(slot);
+    }
+
+    @Override
+    public synchronized boolean isPending(String messageId) {
+        int slot = index.find(messageId);
+        return slot >= 0 && status[slot] == MessageStatus.PENDING.ordinal();
+    }
+
+    @Override
+    public synchronized void put(MessageState s) {
+        int slot = index.find(s.messageId);
+        if (slot >= 0)
+            write(slot, s);
+        else
+            insert(s);
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(MessageState s) {
+        if (index.find(s.messageId) >= 0)
+            return false;
+        insert(s);
+        return true;
+    }
+
+    @Override
+    public synchronized void update(MessageState s) {
+        int slot = index.find(s.messageId);
+        if (slot >= 0 && s.tableRef == ref(slot))
+            write(slot, s);
+    }
+
+    @Override
+    public synchronized boolean remove(MessageState s) {
+        int slot = index.find(s.messageId);
+        if (slot < 0 || s.tableRef != ref(slot))
+            return false;
+        index.remove(slot);
+        free(slot);
+        s.tableRef = 0;
+        return true;
+    }
+
+    @Override
+    public synchronized ScheduledItem itemFor(MessageState s, long dueAtMs) {
+        int slot = index.find(s.messageId);
+        if (slot < 0)
+            return new ScheduledItem(-1L, dueAtMs); // slot -1: never resolves
+        return new ScheduledItem(((long) slot << 32) | (generation[slot] & 0xFFFFFFFFL), dueAtMs);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void forEach(Consumer<MessageState> action) {
+        for (int slot = 0; slot < highWater; slot++)
+            if (blob[slot] != null)
+                action.accept(materialize(slot));
+    }
+
+    @Override
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public long bytesFor(MessageState s) {
+        return FIXED_BYTES + 4 + utf8Bound(s.messageId) + utf8Bound(s.phone) + utf8Bound(s.body)
+                + utf8Bound(s.lastError) + utf8Bound(s.policy);
+    }
+
+    // ---- slots ----
+
+    private void insert(MessageState s) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (highWater == blob.length)
+                grow();
+            slot = highWater++;
+        }
+        write(slot, s);
+        size++;
+        index.add(slot, s.messageId);
+    }
+
+    private void write(int slot, MessageState s) {
+        attemptCount[slot] = s.attemptCount;
+        arrivalAtMs[slot] = s.arrivalAtMs;
+        nextDueAtMs[slot] = s.nextDueAtMs;
+        status[slot] = (byte) (s.status == null ? MessageStatus.PENDING.ordinal() : s.status.ordinal());
+
+        byte[] old = blob[slot];
+        byte[] b = encodeStrings(s);
+        blob[slot] = b;
+        bytes += (old == null) ? FIXED_BYTES + b.length : b.length - old.length;
+        s.tableRef = ref(slot);
+    }
+
+    // never 0, which marks an object that did not come from this table
+    private long ref(int slot) {
+        return ((long) (slot + 1) << 32) | (generation[slot] & 0xFFFFFFFFL);
+    }
+
+    private void free(int slot) {
+        bytes -= FIXED_BYTES + blob[slot].length;
+        blob[slot] = null;
+        generation[slot]++;
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    private MessageState materialize(int slot) {
+        MessageState s = new MessageState();
+        s.attemptCount = attemptCount[slot];
+        s.arrivalAtMs = arrivalAtMs[slot];
+        s.nextDueAtMs = nextDueAtMs[slot];
+        s.status = STATUSES[status[slot]];
+
+        byte[] b = blob[slot];
+        int[] pos = { 0 };
+        s.messageId = readString(b, pos);
+        s.phone = readString(b, pos);
+        s.body = readString(b, pos);
+        s.lastError = readString(b, pos);
+        s.policy = readString(b, pos);
+        s.tableRef = ref(slot);
+        return s;
+    }
+
+    private void grow() {
+        int cap = blob.length << 1;
+        attemptCount = Arrays.copyOf(attemptCount, cap);
+        arrivalAtMs = Arrays.copyOf(arrivalAtMs, cap);
+        nextDueAtMs = Arrays.copyOf(nextDueAtMs, cap);
+        status = Arrays.copyOf(status, cap);
+        generation = Arrays.copyOf(generation, cap);
+        index.growSlots(cap);
+        blob = Arrays.copyOf(blob, cap);
+        freeSlots = Arrays.copyOf(freeSlots, cap);
+    }
+
+    // ---- string blob ----
+
+    private static byte[] encodeStrings(MessageState s) {
+        RecordBuffer buf = BLOB.get();
+        buf.reset();
+        buf.writeString(s.messageId);
+        buf.writeString(s.phone);
+        buf.writeString(s.body);
+        buf.writeString(s.lastError);
+        buf.writeString(s.policy);
+        return buf.toByteArray();
+    }
+
+    // Compares the leading id of a blob with `id` without decoding it (ASCII fast path).
+    private static boolean idEquals(byte[] b, String id) {
+        int[] pos = { 0 };
+        long n = readVarLong(b, pos);
+        if (n == 0)
+            return false;
+        int len = (int) (n - 1);
+        int off = pos[0];
+        int chars = id.length();
+        if (len == chars) {
+            int i = 0;
+            while (i < chars && id.charAt(i) < 0x80 && b[off + i] == (byte) id.charAt(i))
+                i++;
+            if (i == chars)
+                return true;
+            if (id.charAt(i) < 0x80)
+                return false;
+        } else if (len < chars) {
+            return false;
+        }
+        byte[] utf8 = id.getBytes(StandardCharsets.UTF_8);
+        return utf8.length == len && Arrays.equals(b, off, off + len, utf8, 0, len);
+    }
+
+    private static String readString(byte[] b, int[] pos) {
+        long n = readVarLong(b, pos);
+        if (n == 0)
+            return null;
+        int len = (int) (n - 1);
+        String s = new String(b, pos[0], len, StandardCharsets.UTF_8);
+        pos[0] += len;
+        return s;
+    }
+
+    private static long readVarLong(byte[] b, int[] pos) {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            byte x = b[pos[0]++];
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0)
+                return v;
+        }
+    }
+
+    private static long utf8Bound(String s) {
+        return (s == null) ? 1 : 2 + s.length();
+    }
+}
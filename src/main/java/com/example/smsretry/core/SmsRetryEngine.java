@@ -2,147 +2,505 @@
 package com.example.smsretry.core;
 
 import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageIds;
 import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatusView;
 import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.MessageTimeline;
+import com.example.smsretry.model.RecentOutcome;
+import com.example.smsretry.store.RecoveryProgress;
 import com.example.smsretry.store.StateStore;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 @Service
 public class SmsRetryEngine {
 
+    public static final String SHUTTING_DOWN = "shutting-down"; // OverloadedException reason
+
     private final SchedulerShard[] shards;
     private final int shardCount;
+    private final MessageIds ids;
 
-    private final SendGateway sendGateway;
     private final StateStore store;
+    private final AdmissionControl admission;
+    private final CarrierRouter carriers;
+    private final RetryPolicies policies;
+    private final CircuitBreaker breaker;
+    private final RetryExecutors executors;
+    private final ShardSnapshot snapshot;
+    private final boolean recoverAsync;
+    private final boolean eventDriven;
+    private final int recentCapacity;
+    private final RecoveryProgress recovery = new RecoveryProgress();
+    private final boolean clustered;
+    private final AtomicReferenceArray<RecoveryProgress> activations; // cluster mode: latest load per shard
+    private volatile RemoteShards remote = RemoteShards.NONE;
+    private volatile int[] localShards; // shards this node owns, ascending
+    private volatile boolean stopping;
 
+    // settings: scheduler.*, recovery.async, ids.nodeId, recent.capacity, cluster.enabled;
+    // outside Spring, builder() fills in everything but the gateway and store
     public SmsRetryEngine(
             SendGateway sendGateway,
             StateStore store,
-            @Value("${scheduler.shards:16}") int shardCount,
-            @Value("${scheduler.retryThreadsPerShard:2}") int threadsPerShard) {
-        this.sendGateway = sendGateway;
+            AdmissionControl admission,
+            CarrierRouter carriers,
+            RetryPolicies policies,
+            CircuitBreaker breaker,
+            RetryExecutors executors,
+            ShardSnapshot snapshot,
+            EngineSettings settings) {
         this.store = store;
-        this.shardCount = Math.max(1, shardCount);
+        this.admission = admission;
+        this.carriers = carriers;
+        this.policies = policies;
+        this.breaker = breaker;
+        this.executors = executors;
+        this.snapshot = snapshot;
+        this.recoverAsync = settings.recoverAsync();
+        this.shardCount = settings.shards();
+        this.recentCapacity = settings.recentCapacity();
+        this.ids = new MessageIds(settings.nodeId(), this.shardCount);
         this.shards = new SchedulerShard[this.shardCount];
         for (int i = 0; i < this.shardCount; i++) {
-            shards[i] = new SchedulerShard(Math.max(1, threadsPerShard), sendGateway, store);
+            shards[i] = new SchedulerShard(executors.forShard(settings.maxInFlightPerShard()), sendGateway, store,
+                    settings, carriers, policies, breaker);
+        }
+
+        // cluster mode: no shard is ours until the coordinator leases it; a shard then
+        // loads the storage partitions p with p % shards == index
+        this.clustered = settings.clustered();
+        this.activations = new AtomicReferenceArray<>(this.shardCount);
+        if (clustered) {
+            if (MessageIds.BUCKETS % this.shardCount != 0)
+                throw new IllegalArgumentException("cluster.enabled needs scheduler.shards to divide "
+                        + MessageIds.BUCKETS + ": " + this.shardCount);
+            for (SchedulerShard shard : shards)
+                shard.deactivate(0);
+        }
+        updateLocalShards();
+
+        this.eventDriven = settings.eventDriven();
+        if (eventDriven) {
+            for (int i = 0; i < this.shardCount; i++)
+                shards[i].startDispatcher("shard-" + i + "-dispatch");
+        }
+    }
+
+    public static Builder builder(SendGateway sendGateway, StateStore store) {
+        return new Builder(sendGateway, store);
+    }
+
+    // Engine outside Spring (tests, benchmarks, the soak harness). Defaults: no admission
+    // limits, unlimited carriers, the spec retry schedule, no breaker, 2 retry threads
+    // per shard, no snapshot and EngineSettings.builder()'s settings.
+    public static final class Builder {
+        private final SendGateway sendGateway;
+        private final StateStore store;
+        private AdmissionControl admission;
+        private CarrierRouter carriers = CarrierRouter.unlimited();
+        private RetryPolicies policies = RetryPolicies.spec();
+        private CircuitBreaker breaker = CircuitBreaker.disabled();
+        private RetryExecutors executors;
+        private ShardSnapshot snapshot = ShardSnapshot.disabled();
+        private EngineSettings settings;
+
+        private Builder(SendGateway sendGateway, StateStore store) {
+            this.sendGateway = sendGateway;
+            this.store = store;
+        }
+
+        public Builder admission(AdmissionControl admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        public Builder carriers(CarrierRouter carriers) {
+            this.carriers = carriers;
+            return this;
+        }
+
+        public Builder policies(RetryPolicies policies) {
+            this.policies = policies;
+            return this;
+        }
+
+        public Builder breaker(CircuitBreaker breaker) {
+            this.breaker = breaker;
+            return this;
+        }
+
+        public Builder executors(RetryExecutors executors) {
+            this.executors = executors;
+            return this;
+        }
+
+        public Builder snapshot(ShardSnapshot snapshot) {
+            this.snapshot = snapshot;
+            return this;
+        }
+
+        public Builder settings(EngineSettings settings) {
+            this.settings = settings;
+            return this;
+        }
+
+        public SmsRetryEngine build() {
+            return new SmsRetryEngine(sendGateway, store,
+                    (admission != null) ? admission : AdmissionControl.unlimited(store), carriers, policies, breaker,
+                    (executors != null) ? executors : RetryExecutors.perShard(2), snapshot,
+                    (settings != null) ? settings : EngineSettings.builder().build());
         }
     }
 
+    // A graceful shutdown's snapshot, if the store vouches for it, is loaded before the
+    // app serves (it takes seconds and new writes would invalidate it). Otherwise, with
+    // recovery.async the app starts serving while pending states stream in from the
+    // store; each one is scheduled as soon as it is decoded, so the earliest-due retries
+    // go out first.
     @PostConstruct
     public void recoverFromS3() {
-        List<MessageState> pending = store.loadPendingAll();
+        if (clustered) {
+            // nothing to load at startup: each shard loads as its lease is acquired (activateShard)
+            recovery.start(0);
+            recovery.finish();
+            return;
+        }
         long now = System.currentTimeMillis();
-        for (MessageState s : pending) {
-            if (s.status != MessageStatus.PENDING)
-                continue;
-            shardOf(s.messageId).upsertState(s);
-            long due = s.nextDueAtMs;
-            if (due <= 0)
-                due = now; // safety
-            shardOf(s.messageId).schedule(s.messageId, due);
+        if (snapshot.restore(store, s -> shardOf(s.messageId).recover(s, now), recovery))
+            return;
+        if (!recoverAsync) {
+            recover();
+            return;
         }
+        Thread t = new Thread(this::recover, "state-recovery");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void recover() {
+        long now = System.currentTimeMillis();
+        store.loadPending(s -> {
+            if (s.status == MessageStatus.PENDING)
+                shardOf(s.messageId).recover(s, now);
+        }, recovery);
+    }
+
+    public RecoveryProgress recoveryProgress() {
+        return recovery;
+    }
+
+    // cluster mode: the load of the shard's latest activation, null if never activated
+    public RecoveryProgress activationProgress(int index) {
+        return activations.get(index);
+    }
+
+    // Graceful: new messages get 429 (shutting-down) while due retries stay on the
+    // wheels and in-flight sends record their outcomes; once the store has persisted
+    // those, the shards' messages go to the local snapshot for the next start. Cluster
+    // mode hands its shards off through the store instead (ClusterCoordinator).
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        long deadline = System.currentTimeMillis() + snapshot.drainTimeoutMs();
+        boolean quiet = true;
+        for (SchedulerShard shard : shards)
+            quiet &= shard.quiesce(Math.max(0, deadline - System.currentTimeMillis()));
+        if (quiet && snapshot.enabled() && !clustered
+                && store.awaitPersisted(Math.max(0, deadline - System.currentTimeMillis()))) {
+            String seal = store.seal();
+            if (seal != null) {
+                try {
+                    snapshot.write(shards, seal);
+                } catch (IOException e) {
+                    // the next start recovers from the store (in real life: log)
+                }
+            }
+        }
+        for (SchedulerShard shard : shards)
+            shard.shutdown();
+        executors.shutdown();
+    }
+
+    public AdmissionControl admission() {
+        return admission;
+    }
+
+    public CarrierRouter carriers() {
+        return carriers;
+    }
+
+    public RetryPolicies policies() {
+        return policies;
+    }
+
+    public CircuitBreaker breaker() {
+        return breaker;
+    }
+
+    public RetryExecutors executors() {
+        return executors;
+    }
+
+    public ShardSnapshot snapshot() {
+        return snapshot;
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    public SchedulerShard shard(int index) {
+        return shards[index];
     }
 
     private SchedulerShard shardOf(String messageId) {
-        int h = messageId.hashCode();
-        int idx = (h & 0x7fffffff) % shardCount;
-        return shards[idx];
+        return shards[MessageIds.shardOf(messageId, shardCount)];
     }
 
     // spec: called on every message arrival
     public String newMessage(Message incomingWithoutId) {
-        String messageId = incomingWithoutId.messageId();
+        return newMessage(incomingWithoutId, shardIndexFor(incomingWithoutId.messageId()));
+    }
+
+    // Owning shard of a message: fixed by a client-supplied id, otherwise any shard this
+    // node owns (the generated id will encode it).
+    public int shardIndexFor(String messageId) {
         if (messageId == null || messageId.isBlank()) {
-            messageId = "msg-" + System.currentTimeMillis() + "-" + ThreadLocalRandom.current().nextInt(1_000_000);
+            int[] local = localShards;
+            if (local.length == 0)
+                return ThreadLocalRandom.current().nextInt(shardCount); // forwarded
+            return (local.length == shardCount)
+                    ? ThreadLocalRandom.current().nextInt(shardCount)
+                    : local[ThreadLocalRandom.current().nextInt(local.length)];
         }
+        return MessageIds.shardOf(messageId, shardCount);
+    }
 
-        Message msg = new Message(messageId, incomingWithoutId.phone(), incomingWithoutId.body());
-        SchedulerShard shard = shardOf(messageId);
+    // The n-th shard this node owns (mod their count), for spreading generated ids;
+    // `n` itself when it owns none.
+    public int localShard(int n) {
+        int[] local = localShards;
+        return (local.length == 0) ? n % shardCount : local[n % local.length];
+    }
 
-        // idempotency-ish: if already exists and not terminal, just return same id
-        MessageState existing = shard.getState(messageId);
-        if (existing != null && existing.status == MessageStatus.PENDING) {
-            return messageId;
-        }
+    // `shardIndex` must come from shardIndexFor(messageId); bulk ingestion groups by it.
+    public String newMessage(Message incomingWithoutId, int shardIndex) {
+        return accept(incomingWithoutId, shardIndex).messageId();
+    }
 
-        long now = System.currentTimeMillis();
-        MessageState state = MessageState.fromMessage(msg, now);
-        shard.upsertState(state);
+    // duplicate: a message with this client id is live or turned terminal within the
+    // de-duplication window (tombstone.ttlMs); nothing was sent
+    public record Accepted(String messageId, boolean duplicate) {
+    }
+
+    public Accepted accept(Message incoming) {
+        return accept(incoming, (String) null);
+    }
+
+    // policy: a configured retry policy name, null = retry.defaultPolicy
+    public Accepted accept(Message incoming, String policy) {
+        return accept(incoming, shardIndexFor(incoming.messageId()), policy);
+    }
 
-        // Attempt #1 immediately inside newMessage()
-        boolean ok;
+    public Accepted accept(Message incoming, int shardIndex) {
+        return accept(incoming, shardIndex, null);
+    }
+
+    public Accepted accept(Message incoming, int shardIndex, String policy) {
+        return accept(incoming, shardIndex, checkPolicy(policy), true);
+    }
+
+    // A message another node forwarded here: never forwarded again, so a stale view of
+    // the leases cannot bounce it around (429 instead; the client retries).
+    public Accepted acceptForwarded(Message incoming, String policy) {
+        return accept(incoming, shardIndexFor(incoming.messageId()), checkPolicy(policy), false);
+    }
+
+    // the configured instance of the name, so pending states share one String
+    private String checkPolicy(String policy) {
+        if (policy == null)
+            return null;
+        if (!policies.has(policy))
+            throw new IllegalArgumentException("unknown retry policy: " + policy);
+        return policies.of(policy).name();
+    }
+
+    private Accepted accept(Message incoming, int shardIndex, String policy, boolean mayForward) {
+        String messageId = incoming.messageId();
+        boolean generated = messageId == null || messageId.isBlank();
+        if (stopping)
+            throw new OverloadedException(SHUTTING_DOWN, 1);
+        SchedulerShard shard = shards[shardIndex];
+        if (!shard.enter()) {
+            // cluster mode: the shard is leased by another node (or moving to one)
+            if (generated) {
+                shardIndex = shardIndexFor(null);
+                shard = shards[shardIndex];
+            }
+            if (!generated || !shard.enter()) {
+                if (!mayForward)
+                    throw new OverloadedException(RemoteShards.UNOWNED, 1);
+                return remote.forward(shardIndex, incoming, policy);
+            }
+        }
         try {
-            ok = sendGateway.send(msg);
-        } catch (Exception e) {
-            ok = false;
-            state.lastError = e.getMessage();
+            return admit(incoming, shardIndex, shard, policy);
+        } finally {
+            shard.exit();
         }
+    }
 
-        state.attemptCount = 1;
+    private Accepted admit(Message incoming, int shardIndex, SchedulerShard shard, String policy) {
+        String messageId = incoming.messageId();
+        boolean claimed = false;
+        if (messageId == null || messageId.isBlank()) {
+            // the generated id encodes the shard and is unique, so there is nothing to
+            // de-duplicate; it is held as its String from here on (see MessageIds)
+            messageId = MessageIds.format(ids.next(shardIndex));
+        } else {
+            // one atomic claim per client id: concurrent duplicates and resubmissions of
+            // a recently completed message get the id back without a second attempt #1
+            if (!shard.claim(messageId))
+                return new Accepted(messageId, true);
+            claimed = true;
+        }
 
-        if (ok) {
-            state.status = MessageStatus.SUCCESS;
-            state.nextDueAtMs = 0L;
-            store.enqueue(com.example.smsretry.store.StateUpdate.success(state));
-            shard.recordTerminal(state);
-            return messageId;
+        MessageState state;
+        try {
+            // 429 while the store queue, the shard's memory or its due backlog is saturated
+            admission.check(shard);
+
+            Message msg = new Message(messageId, incoming.phone(), incoming.body());
+            state = MessageState.fromMessage(msg, System.currentTimeMillis());
+            state.policy = policy;
+            shard.admit(state); // CapacityExceededException (503) when the shard is over budget
+        } catch (RuntimeException e) {
+            if (claimed)
+                shard.releaseClaim(messageId); // the client may retry the same id
+            throw e;
         }
 
-        // Failed attempt #1 -> schedule attempt #2 at +500ms from arrival
-        state.status = MessageStatus.PENDING;
-        long due = state.arrivalAtMs + RetryDelays.delayFromArrivalMs(2);
-        state.nextDueAtMs = due;
+        // Attempt #1 immediately inside newMessage(); the outcome is recorded
+        // asynchronously by the shard (retry #2 per its policy, +500ms for "spec")
+        shard.submitFirstAttempt(state);
+        return new Accepted(messageId, false);
+    }
+
+    // ---- cluster mode (cluster.enabled): shards are leased per node ----
+
+    public boolean clustered() {
+        return clustered;
+    }
+
+    public void attachRemote(RemoteShards remote) {
+        this.remote = remote;
+    }
+
+    public boolean ownsShard(int index) {
+        return shards[index].isActive();
+    }
+
+    // This node just leased the shard: take new messages for it and load its pending
+    // states (its storage partitions only) from the store. Each load gets its own
+    // progress; the store restarts and finishes whatever progress it is handed.
+    public void activateShard(int index) {
+        SchedulerShard shard = shards[index];
+        shard.activate();
+        updateLocalShards();
+        RecoveryProgress progress = new RecoveryProgress();
+        activations.set(index, progress);
+        long now = System.currentTimeMillis();
+        store.loadPending(p -> p % shardCount == index, s -> {
+            if (s.status == MessageStatus.PENDING && shardOf(s.messageId) == shard)
+                shard.recover(s, now);
+        }, progress);
+    }
+
+    // Graceful hand-off before the lease is released: new messages for the shard are
+    // forwarded from now on, in-flight sends finish, memory is dropped and the store
+    // catches up. False if any of it timed out (the next owner may repeat an attempt).
+    public boolean releaseShard(int index, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        boolean quiet = shards[index].deactivate(timeoutMs);
+        updateLocalShards();
+        long left = Math.max(0, deadline - System.currentTimeMillis());
+        return store.awaitPersisted(left) && quiet;
+    }
 
-        store.enqueue(com.example.smsretry.store.StateUpdate.pending(state));
-        shard.schedule(messageId, due);
-        return messageId;
+    private synchronized void updateLocalShards() {
+        int[] local = new int[shardCount];
+        int n = 0;
+        for (int i = 0; i < shardCount; i++) {
+            if (shards[i].isActive())
+                local[n++] = i;
+        }
+        localShards = Arrays.copyOf(local, n);
     }
 
     // spec: called every 500ms (exact)
+    // (a no-op in event mode, where shards dispatch on their own)
     public void wakeup() {
+        if (eventDriven)
+            return;
         for (SchedulerShard shard : shards) {
             shard.drainDueAndDispatch();
         }
         // flush is handled by async writers; wakeup stays light
     }
 
-    public List<Map<String, Object>> getRecentSuccess(int limit) {
-        int lim = Math.max(1, Math.min(100, limit));
-        List<Map<String, Object>> out = new ArrayList<>();
-        for (SchedulerShard shard : shards) {
-            for (MessageState s : shard.snapshotSuccess(lim))
-                out.add(toSummary(s));
-        }
-        out.sort((a, b) -> Long.compare((long) b.get("finalTimestampMs"), (long) a.get("finalTimestampMs")));
-        return out.subList(0, Math.min(lim, out.size()));
+    // Status from memory: the live state while pending, else the shard's attempt index.
+    // Null if neither knows the id (the caller can fall back to the store).
+    public MessageStatusView status(String messageId) {
+        SchedulerShard shard = shardOf(messageId);
+        MessageState s = shard.getState(messageId);
+        if (s != null)
+            return MessageStatusView.of(s, "memory");
+        MessageTimeline t = shard.timeline(messageId);
+        return (t != null) ? MessageStatusView.of(t) : null;
+    }
+
+    public MessageTimeline timeline(String messageId) {
+        return shardOf(messageId).timeline(messageId);
     }
 
-    public List<Map<String, Object>> getRecentFailed(int limit) {
-        int lim = Math.max(1, Math.min(100, limit));
-        List<Map<String, Object>> out = new ArrayList<>();
+    // newest written first, best effort (see mergeRecent); limit is capped at recent.capacity
+    public List<RecentOutcome> getRecentSuccess(int limit) {
+        return mergeRecent(limit, true);
+    }
+
+    public List<RecentOutcome> getRecentFailed(int limit) {
+        return mergeRecent(limit, false);
+    }
+
+    // k-way merge straight off the shards' rings, each read in write order (newest
+    // first), by the timestamp of their next entry; nothing is copied or sorted. Best
+    // effort: a reader skips slots still being published or already lapped, and an entry
+    // written a little out of timestamp order is merged where its ring has it, so the
+    // result is the latest outcomes by completion write, not an exact top `limit`.
+    private List<RecentOutcome> mergeRecent(int limit, boolean success) {
+        int lim = Math.max(1, Math.min(recentCapacity, limit));
+        PriorityQueue<RecentRing.Reader> heap = new PriorityQueue<>(shardCount, RecentRing.NEWEST_HEAD_FIRST);
         for (SchedulerShard shard : shards) {
-            for (MessageState s : shard.snapshotFailed(lim))
-                out.add(toSummary(s));
-        }
-        out.sort((a, b) -> Long.compare((long) b.get("finalTimestampMs"), (long) a.get("finalTimestampMs")));
-        return out.subList(0, Math.min(lim, out.size()));
-    }
-
-    private Map<String, Object> toSummary(MessageState s) {
-        long ts = (s.status == MessageStatus.PENDING) ? s.nextDueAtMs : System.currentTimeMillis();
-        Map<String, Object> m = new LinkedHashMap<>();
-        m.put("messageId", s.messageId);
-        m.put("attemptCount", s.attemptCount);
-        m.put("status", s.status.name());
-        m.put("finalTimestampMs", ts);
-        m.put("reason", s.lastError);
-        return m;
+            RecentRing.Reader r = shard.recentReader(success);
+            if (r.head() != null)
+                heap.add(r);
+        }
+        List<RecentOutcome> out = new ArrayList<>(lim);
+        while (out.size() < lim && !heap.isEmpty()) {
+            RecentRing.Reader r = heap.poll();
+            out.add(r.head());
+            r.advance();
+            if (r.head() != null)
+                heap.add(r);
+        }
+        return out;
     }
 }
\ No newline at end of file
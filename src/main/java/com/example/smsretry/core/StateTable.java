@@ -0,0 +1,51 @@
+// core/StateTable.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+// Where a shard keeps its non-terminal messages (scheduler.stateLayout).
+// map:   MessageState objects in a ConcurrentHashMap; get() returns the live object
+// slots: primitive columns indexed by an int slot; get() returns a detached copy,
+//        so callers write mutations back with update()
+interface StateTable {
+
+    MessageState get(String messageId);
+
+    // state an item from the wheel refers to, or null if it is gone
+    MessageState get(ScheduledItem item);
+
+    boolean isPending(String messageId);
+
+    void put(MessageState s);
+
+    boolean putIfAbsent(MessageState s);
+
+    void update(MessageState s);
+
+    // removes the message if `s` is still its current state
+    boolean remove(MessageState s);
+
+    ScheduledItem itemFor(MessageState s, long dueAtMs);
+
+    int size();
+
+    // every held message (slots: detached copies); callers quiesce the shard first
+    void forEach(Consumer<MessageState> action);
+
+    // estimated retained heap of the held messages
+    long bytes();
+
+    // estimated retained heap of one more message like `s`
+    long bytesFor(MessageState s);
+
+    static StateTable create(String layout) {
+        return switch (layout.trim().toLowerCase(Locale.ROOT)) {
+            case "map" -> new MapStateTable();
+            case "slots" -> new SlotStateTable();
+            default -> throw new IllegalArgumentException("unknown scheduler.stateLayout: " + layout);
+        };
+    }
+}
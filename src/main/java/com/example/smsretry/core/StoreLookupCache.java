@@ -0,0 +1,57 @@
+// core/StoreLookupCache.java
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU in front of StateStore.lookup for status queries on messages that have
+// left memory. Support tooling polls the same ids over and over, so misses are cached
+// too; entries expire after ttlMs so a late write is eventually seen. A store that
+// cannot look up by id (S3 segments layout, WAL) is not asked and nothing is cached:
+// status of a message that left memory is then simply not found.
+@Component
+public class StoreLookupCache {
+    private record Entry(MessageState state, long loadedAtMs) {
+    }
+
+    private final StateStore store;
+    private final long ttlMs;
+    private final LinkedHashMap<String, Entry> lru;
+
+    public StoreLookupCache(
+            StateStore store,
+            @Value("${lookup.cacheSize:10000}") int capacity,
+            @Value("${lookup.cacheTtlMs:60000}") long ttlMs) {
+        this.store = store;
+        this.ttlMs = ttlMs;
+        int max = Math.max(1, capacity);
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > max;
+            }
+        };
+    }
+
+    public MessageState get(String messageId) {
+        if (!store.supportsLookup())
+            return null;
+        long now = System.currentTimeMillis();
+        synchronized (lru) {
+            Entry e = lru.get(messageId);
+            if (e != null && now - e.loadedAtMs < ttlMs)
+                return e.state;
+        }
+        // loaded outside the lock; two concurrent misses may both read the store
+        MessageState s = store.lookup(messageId);
+        synchronized (lru) {
+            lru.put(messageId, new Entry(s, now));
+        }
+        return s;
+    }
+}
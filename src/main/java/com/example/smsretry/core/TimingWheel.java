@@ -0,0 +1,184 @@
+// core/TimingWheel.java
+package com.example.smsretry.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Hashed timing wheel over dueAtMs buckets.
+// schedule() is an O(1) lock-free push onto an inbox stack; only the draining
+// thread moves items into buckets, so the wheel itself needs no locking.
+// Items further out than one revolution simply stay in their bucket until a
+// later pass finds them due (retry delays are <= 16s, so that is rare).
+public class TimingWheel {
+    private final long tickMs;
+    private final int mask;
+    private final ScheduledItem[] buckets;
+    private final long[] occupied; // bit per non-empty bucket
+    private final AtomicReference<ScheduledItem> inbox = new AtomicReference<>();
+    private final LongAdder size = new LongAdder();
+    private final Object drainLock = new Object();
+
+    // next tick to expire; only touched under drainLock
+    private long cursorTick = -1;
+    // earliest dueAtMs in the buckets, Long.MAX_VALUE when empty; recomputed lazily once
+    // a drain fired it (under drainLock)
+    private long minDueMs = Long.MAX_VALUE;
+    private boolean minStale;
+
+    public TimingWheel(long tickMs, int bucketCount) {
+        this.tickMs = Math.max(1, tickMs);
+        int n = Integer.highestOneBit(Math.max(2, bucketCount - 1)) << 1;
+        this.buckets = new ScheduledItem[n];
+        this.mask = n - 1;
+        this.occupied = new long[Math.max(1, n >> 6)];
+    }
+
+    public long tickMs() {
+        return tickMs;
+    }
+
+    public long spanMs() {
+        return tickMs * buckets.length;
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public void schedule(ScheduledItem item) {
+        size.increment();
+        ScheduledItem head;
+        do {
+            head = inbox.get();
+            item.next = head;
+        } while (!inbox.compareAndSet(head, item));
+    }
+
+    // Fires every item with dueAtMs <= nowMs; returns how many were fired.
+    public int drainDue(long nowMs, Consumer<ScheduledItem> sink) {
+        synchronized (drainLock) {
+            long nowTick = nowMs / tickMs;
+            if (cursorTick < 0)
+                cursorTick = nowTick;
+            transferInbox();
+            if (nowTick < cursorTick)
+                return 0;
+
+            // A gap longer than one revolution only needs each bucket visited once.
+            long from = Math.max(cursorTick, nowTick - mask);
+            int fired = 0;
+            for (long t = from; t <= nowTick; t++) {
+                fired += expireBucket((int) (t & mask), nowMs, sink);
+            }
+            // Keep the cursor on nowTick: items due later within this tick stay put.
+            cursorTick = nowTick;
+            size.add(-fired);
+            if (minDueMs <= nowMs)
+                minStale = true;
+            return fired;
+        }
+    }
+
+    // Hands every item, due or not, to `sink` and empties the wheel; returns the count.
+    public int clear(Consumer<ScheduledItem> sink) {
+        synchronized (drainLock) {
+            transferInbox();
+            int removed = 0;
+            for (int idx = 0; idx < buckets.length; idx++) {
+                ScheduledItem item = buckets[idx];
+                buckets[idx] = null;
+                while (item != null) {
+                    ScheduledItem next = item.next;
+                    item.next = null;
+                    sink.accept(item);
+                    removed++;
+                    item = next;
+                }
+            }
+            Arrays.fill(occupied, 0);
+            minDueMs = Long.MAX_VALUE;
+            minStale = false;
+            size.add(-removed);
+            return removed;
+        }
+    }
+
+    // Earliest dueAtMs in the wheel; Long.MAX_VALUE when empty. Used by the event-driven
+    // dispatcher on every park, so it is tracked as items arrive and only looked up again
+    // (over the occupied buckets) after a drain fired the earliest one.
+    public long nextDueMs() {
+        synchronized (drainLock) {
+            if (cursorTick < 0)
+                return 0; // never drained: drain now to set the cursor
+            transferInbox();
+            if (minStale) {
+                minDueMs = scanMinDue();
+                minStale = false;
+            }
+            return minDueMs;
+        }
+    }
+
+    // Buckets in tick order from the cursor: the first one holding an item of the current
+    // revolution holds the earliest (items of later revolutions are all later still).
+    private long scanMinDue() {
+        long later = Long.MAX_VALUE;
+        for (long tick = cursorTick; tick <= cursorTick + mask; tick++) {
+            int idx = (int) (tick & mask);
+            if ((occupied[idx >> 6] & (1L << idx)) == 0)
+                continue;
+            long min = Long.MAX_VALUE;
+            for (ScheduledItem item = buckets[idx]; item != null; item = item.next) {
+                if (item.dueAtMs / tickMs <= tick)
+                    min = Math.min(min, item.dueAtMs);
+                else
+                    later = Math.min(later, item.dueAtMs);
+            }
+            if (min != Long.MAX_VALUE)
+                return min;
+        }
+        return later;
+    }
+
+    private void transferInbox() {
+        ScheduledItem item = inbox.getAndSet(null);
+        while (item != null) {
+            ScheduledItem next = item.next;
+            long dueTick = Math.max(item.dueAtMs / tickMs, cursorTick);
+            int idx = (int) (dueTick & mask);
+            item.next = buckets[idx];
+            buckets[idx] = item;
+            occupied[idx >> 6] |= 1L << idx;
+            minDueMs = Math.min(minDueMs, item.dueAtMs);
+            item = next;
+        }
+    }
+
+    private int expireBucket(int idx, long nowMs, Consumer<ScheduledItem> sink) {
+        ScheduledItem item = buckets[idx];
+        if (item == null)
+            return 0;
+
+        buckets[idx] = null;
+        ScheduledItem kept = null;
+        int fired = 0;
+        while (item != null) {
+            ScheduledItem next = item.next;
+            if (item.dueAtMs <= nowMs) {
+                item.next = null;
+                sink.accept(item);
+                fired++;
+            } else {
+                item.next = kept;
+                kept = item;
+            }
+            item = next;
+        }
+        buckets[idx] = kept;
+        if (kept == null)
+            occupied[idx >> 6] &= ~(1L << idx);
+        return fired;
+    }
+}
@@ -0,0 +1,223 @@
+// metrics/EngineMetrics.java
+package com.example.smsretry.metrics;
+
+import com.example.smsretry.core.AdmissionControl;
+import com.example.smsretry.core.CarrierRouter;
+import com.example.smsretry.core.CircuitBreaker;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SchedulerMetrics;
+import com.example.smsretry.core.SchedulerShard;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.store.RecoveryProgress;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import com.example.smsretry.store.StateStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Engine, shard, store and recovery meters, exported through actuator (/actuator/metrics,
+// /actuator/prometheus). Shards record lateness and send latency through ShardMeters,
+// which only touches meters registered here up front.
+@Component
+public class EngineMetrics implements MeterBinder {
+    private final SmsRetryEngine engine;
+    private final StateStore store;
+
+    public EngineMetrics(SmsRetryEngine engine, StateStore store) {
+        this.engine = engine;
+        this.store = store;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("sms.store.queue.depth", store, StateStore::queueDepth)
+                .description("State updates waiting to be persisted")
+                .register(registry);
+        Gauge.builder("sms.store.saturation", store, StateStore::saturation)
+                .description("Persistence queue fill, 0..1 (admission control refuses new messages near 1)")
+                .register(registry);
+        FunctionCounter.builder("sms.store.dropped", store, StateStore::droppedUpdates)
+                .description("State updates dropped because the persistence queue was full")
+                .register(registry);
+        if (store instanceof S3StateStore s3)
+            bindWriter(registry, s3.writer());
+        bindRecovery(registry, engine.recoveryProgress());
+
+        AdmissionControl admission = engine.admission();
+        for (String reason : List.of(AdmissionControl.STORE, AdmissionControl.MEMORY, AdmissionControl.BACKLOG)) {
+            FunctionCounter.builder("sms.admission.rejected", admission, a -> a.rejectedCount(reason))
+                    .description("New messages refused with 429")
+                    .tags("reason", reason).register(registry);
+        }
+        for (CarrierRouter.Carrier carrier : engine.carriers().carriers())
+            bindCarrier(registry, carrier);
+        bindBreaker(registry, engine.breaker());
+        RetryExecutors executors = engine.executors();
+        if (executors.isShared()) {
+            Gauge.builder("sms.executor.threads", executors, RetryExecutors::poolSize)
+                    .description("Worker threads of the shared retry pool")
+                    .register(registry);
+            FunctionCounter.builder("sms.executor.steals", executors, RetryExecutors::stealCount)
+                    .description("Retry tasks a shared pool thread took from another thread's queue")
+                    .register(registry);
+        }
+
+        // attempt x outcome, shared by all shards; up to the longest retry policy
+        int maxAttempts = engine.policies().maxAttempts();
+        Timer[][] send = new Timer[maxAttempts + 1][2];
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            for (int ok = 0; ok < 2; ok++) {
+                send[attempt][ok] = Timer.builder("sms.send")
+                        .description("SendGateway round trip by attempt number and outcome")
+                        .tags("attempt", String.valueOf(attempt), "outcome", (ok == 1) ? "success" : "failure")
+                        .publishPercentileHistogram()
+                        .register(registry);
+            }
+        }
+
+        for (int i = 0; i < engine.shardCount(); i++) {
+            SchedulerShard shard = engine.shard(i);
+            Tags tags = Tags.of("shard", String.valueOf(i));
+
+            Timer lateness = Timer.builder("sms.dispatch.lateness")
+                    .description("Time a retry went out after its due time")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofMillis(1))
+                    .maximumExpectedValue(Duration.ofMinutes(1))
+                    .register(registry);
+            shard.instrument(new ShardMeters(lateness, send));
+
+            Gauge.builder("sms.shard.scheduled", shard, SchedulerShard::pendingScheduled)
+                    .description("Entries in the shard's timing wheel")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.retry.queue", shard, SchedulerShard::retryQueueDepth)
+                    .description("Sends waiting for a retry pool thread (the shard's lane when shared)")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.retry.active", shard, SchedulerShard::retryActiveThreads)
+                    .description("Retry pool threads currently busy with this shard's sends")
+                    .tags(tags).register(registry);
+
+            Gauge.builder("sms.shard.states", shard, SchedulerShard::stateCount)
+                    .description("Non-terminal messages held in memory")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.state.bytes", shard, SchedulerShard::stateBytes)
+                    .description("Estimated heap used by held messages")
+                    .baseUnit("bytes").tags(tags).register(registry);
+            Gauge.builder("sms.shard.state.budget.bytes", shard, SchedulerShard::memoryBudgetBytes)
+                    .description("Memory budget per shard (0 = unlimited)")
+                    .baseUnit("bytes").tags(tags).register(registry);
+            Gauge.builder("sms.shard.tombstones", shard, SchedulerShard::tombstoneCount)
+                    .description("Recently terminal message ids kept for de-duplication")
+                    .tags(tags).register(registry);
+            FunctionCounter.builder("sms.shard.duplicates", shard, SchedulerShard::duplicateCount)
+                    .description("Client message ids that were already live or recently terminal (not re-sent)")
+                    .tags(tags).register(registry);
+            FunctionCounter.builder("sms.shard.evicted", shard, SchedulerShard::evictedCount)
+                    .description("Terminal messages evicted from memory")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.inflight", shard, SchedulerShard::inFlightSends)
+                    .description("Sends holding an in-flight permit")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.inflight.max", shard, SchedulerShard::maxInFlight)
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.due.backlog", shard, SchedulerShard::dueBacklog)
+                    .description("Due retries pushed back on the last tick for lack of an in-flight permit")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.parked", shard, SchedulerShard::parkedCount)
+                    .description("Due retries parked by the gateway circuit breaker (no attempt spent)")
+                    .tags(tags).register(registry);
+            Gauge.builder("sms.shard.owned", shard, s -> s.isActive() ? 1 : 0)
+                    .description("1 if this node holds the shard (always 1 outside cluster mode)")
+                    .tags(tags).register(registry);
+            FunctionCounter.builder("sms.shard.rejected", shard, SchedulerShard::rejectedCount)
+                    .description("New messages refused because the shard was over budget")
+                    .tags(tags).register(registry);
+        }
+    }
+
+    private static void bindWriter(MeterRegistry registry, S3Writer writer) {
+        FunctionCounter.builder("sms.store.updates.dequeued", writer, S3Writer::dequeuedCount)
+                .description("State updates taken off the writer queue")
+                .register(registry);
+        FunctionCounter.builder("sms.store.updates.written", writer, S3Writer::writtenCount)
+                .description("State updates written after coalescing by message id")
+                .register(registry);
+        Gauge.builder("sms.store.coalescing.ratio", writer,
+                w -> (w.dequeuedCount() == 0) ? 0 : 1 - (double) w.writtenCount() / w.dequeuedCount())
+                .description("Share of dequeued updates superseded before they were written")
+                .register(registry);
+        FunctionTimer.builder("sms.store.put", writer, S3Writer::putCount, S3Writer::putNanos, TimeUnit.NANOSECONDS)
+                .description("S3 PUTs issued by the writer (deltas, checkpoints or objects)")
+                .register(registry);
+    }
+
+    private static void bindCarrier(MeterRegistry registry, CarrierRouter.Carrier carrier) {
+        Tags tags = Tags.of("carrier", carrier.name());
+        Gauge.builder("sms.carrier.limit", carrier, CarrierRouter.Carrier::limit)
+                .description("Adaptive concurrent-send limit").tags(tags).register(registry);
+        Gauge.builder("sms.carrier.inflight", carrier, CarrierRouter.Carrier::inFlight)
+                .description("Sends in flight to the carrier").tags(tags).register(registry);
+        FunctionCounter.builder("sms.carrier.deferred", carrier, CarrierRouter.Carrier::deferredCount)
+                .description("Sends deferred because the carrier was at its limit").tags(tags).register(registry);
+        FunctionCounter.builder("sms.carrier.decreases", carrier, CarrierRouter.Carrier::decreaseCount)
+                .description("Limit cuts after gateway errors or slow sends").tags(tags).register(registry);
+    }
+
+    private static void bindBreaker(MeterRegistry registry, CircuitBreaker breaker) {
+        Gauge.builder("sms.breaker.state", breaker, b -> b.state().ordinal())
+                .description("Gateway circuit breaker: 0 closed, 1 open, 2 half-open, 3 recovering")
+                .register(registry);
+        FunctionCounter.builder("sms.breaker.trips", breaker, CircuitBreaker::tripCount)
+                .description("Times the breaker opened on gateway failures").register(registry);
+        FunctionCounter.builder("sms.breaker.short.circuited", breaker, CircuitBreaker::shortCircuitedCount)
+                .description("Sends held back while the breaker was not closed").register(registry);
+    }
+
+    private static void bindRecovery(MeterRegistry registry, RecoveryProgress recovery) {
+        TimeGauge.builder("sms.recovery.duration", recovery, TimeUnit.MILLISECONDS, RecoveryProgress::durationMs)
+                .description("Startup recovery wall time (so far, while it runs)")
+                .register(registry);
+        Gauge.builder("sms.recovery.done", recovery, r -> r.isDone() ? 1 : 0)
+                .register(registry);
+        FunctionCounter.builder("sms.recovery.loaded", recovery, RecoveryProgress::loadedCount)
+                .description("Pending messages restored")
+                .register(registry);
+        FunctionCounter.builder("sms.recovery.failed", recovery, RecoveryProgress::failedCount)
+                .description("Objects or records recovery could not read")
+                .register(registry);
+    }
+
+    private static final class ShardMeters implements SchedulerMetrics {
+        private final Timer lateness;
+        private final Timer[][] send;
+
+        ShardMeters(Timer lateness, Timer[][] send) {
+            this.lateness = lateness;
+            this.send = send;
+        }
+
+        @Override
+        public void dispatchLateness(long lateMs) {
+            lateness.record(Math.max(0, lateMs), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void sendCompleted(int attemptNumber, boolean ok, long latencyNanos) {
+            if (attemptNumber < 1 || attemptNumber >= send.length)
+                return;
+            send[attemptNumber][ok ? 1 : 0].record(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+// model/AttemptRecord.java
+package com.example.smsretry.model;
+
+// One send attempt as kept by the per-shard timeline index.
+public record AttemptRecord(int attempt, long startedAtMs, double latencyMs, boolean success) {
+}
@@ -0,0 +1,109 @@
+// model/MessageIds.java
+package com.example.smsretry.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Snowflake-style 63-bit message ids:
+// [40 bits ms since 2024-01-01][8 bits node][8 bits bucket][7 bits sequence]
+// The bucket doubles as the routing key: shard = bucket % shardCount and the S3
+// storage partition = bucket, so neither needs to hash the id. Rendered as
+// "msg-" + 16 hex digits at the API edge (fixed width, so ids sort by time).
+// Each shard draws from its own sequence; when a shard needs more than 128 ids in
+// a millisecond its clock runs ahead instead of blocking, and catches up once the
+// burst ends. Ids not in this form (client-supplied) fall back to String.hashCode.
+// Only generation and encoding are long-based: an id is formatted as soon as it is
+// drawn, and the slot index, idempotency claims, rings and store keys all stay keyed
+// by that String, as they must for client ids. Routing reads the bucket back out of
+// the hex digits (parse) rather than hashing the whole string.
+public final class MessageIds {
+    public static final long EPOCH_MS = 1_704_067_200_000L; // 2024-01-01T00:00:00Z
+    public static final int BUCKETS = 256;
+
+    private static final int SEQ_BITS = 7;
+    private static final int BUCKET_BITS = 8;
+    private static final int NODE_BITS = 8;
+    private static final int BUCKET_SHIFT = SEQ_BITS;
+    private static final int NODE_SHIFT = SEQ_BITS + BUCKET_BITS;
+    private static final int TIME_SHIFT = SEQ_BITS + BUCKET_BITS + NODE_BITS;
+    private static final String PREFIX = "msg-";
+    private static final int HEX_DIGITS = 16;
+
+    private final long nodeBits;
+    private final int shardCount;
+    // per shard: (ms since epoch << SEQ_BITS | seq) of the last id handed out
+    private final AtomicLong[] clocks;
+
+    public MessageIds(int nodeId, int shardCount) {
+        if (nodeId < 0 || nodeId >= (1 << NODE_BITS))
+            throw new IllegalArgumentException("ids.nodeId must be in [0, 255]: " + nodeId);
+        if (shardCount < 1 || shardCount > BUCKETS)
+            throw new IllegalArgumentException("shard count must be in [1, 256]: " + shardCount);
+        this.nodeBits = (long) nodeId << NODE_SHIFT;
+        this.shardCount = shardCount;
+        this.clocks = new AtomicLong[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            clocks[i] = new AtomicLong();
+    }
+
+    // Next id routed to `shard`. Buckets of a shard rotate with the sequence, so the
+    // shard's messages spread over all of its storage partitions.
+    public long next(int shard) {
+        AtomicLong clock = clocks[shard];
+        long floor = (System.currentTimeMillis() - EPOCH_MS) << SEQ_BITS;
+        long prev;
+        long cur;
+        do {
+            prev = clock.get();
+            cur = Math.max(prev + 1, floor);
+        } while (!clock.compareAndSet(prev, cur));
+
+        int bucketsPerShard = (BUCKETS - 1 - shard) / shardCount + 1;
+        int bucket = shard + shardCount * (int) (cur % bucketsPerShard);
+        long time = cur >>> SEQ_BITS;
+        long seq = cur & ((1 << SEQ_BITS) - 1);
+        return (time << TIME_SHIFT) | nodeBits | ((long) bucket << BUCKET_SHIFT) | seq;
+    }
+
+    public static String format(long id) {
+        char[] out = new char[PREFIX.length() + HEX_DIGITS];
+        PREFIX.getChars(0, PREFIX.length(), out, 0);
+        for (int i = out.length - 1; i >= PREFIX.length(); i--) {
+            out[i] = Character.forDigit((int) (id & 0xF), 16);
+            id >>>= 4;
+        }
+        return new String(out);
+    }
+
+    // The id as a long, or -1 if it isn't one of ours.
+    public static long parse(String messageId) {
+        if (messageId.length() != PREFIX.length() + HEX_DIGITS || !messageId.startsWith(PREFIX))
+            return -1;
+        long id = 0;
+        for (int i = PREFIX.length(); i < messageId.length(); i++) {
+            int d = Character.digit(messageId.charAt(i), 16);
+            if (d < 0)
+                return -1;
+            id = (id << 4) | d;
+        }
+        return (id < 0) ? -1 : id;
+    }
+
+    // 0..255: embedded bucket, or a hash bucket for foreign ids
+    public static int bucketOf(String messageId) {
+        long id = parse(messageId);
+        if (id >= 0)
+            return (int) (id >>> BUCKET_SHIFT) & (BUCKETS - 1);
+        return (messageId.hashCode() & 0x7fffffff) % BUCKETS;
+    }
+
+    public static int shardOf(String messageId, int shardCount) {
+        long id = parse(messageId);
+        if (id >= 0)
+            return ((int) (id >>> BUCKET_SHIFT) & (BUCKETS - 1)) % shardCount;
+        return (messageId.hashCode() & 0x7fffffff) % shardCount;
+    }
+
+    public static long timestampMs(long id) {
+        return (id >>> TIME_SHIFT) + EPOCH_MS;
+    }
+}
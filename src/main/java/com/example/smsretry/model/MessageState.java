@@ -1,15 +1,22 @@
 // model/MessageState.java
 package com.example.smsretry.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class MessageState {
     public String messageId;
-    public int attemptCount; // 1..6 (attempt #1 happens in newMessage)
+    public int attemptCount; // 1..policy max (attempt #1 happens in newMessage)
     public long arrivalAtMs; // epoch ms
     public long nextDueAtMs; // epoch ms
     public MessageStatus status; // PENDING/SUCCESS/FAILED
     public String lastError; // optional
     public String phone;
     public String body;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String policy; // retry policy name; null = the default
+    @JsonIgnore
+    public long tableRef; // core/SlotStateTable: slot incarnation it was read from or written to
 
     public static MessageState fromMessage(Message m, long nowMs) {
         MessageState s = new MessageState();
@@ -0,0 +1,20 @@
+// model/MessageStatusView.java
+package com.example.smsretry.model;
+
+// GET /messages/{id}. source: memory (live state), timeline (recently sent, kept by
+// the shard's attempt index) or store (read back from the StateStore).
+// nextDueAtMs is 0 once the message is terminal; lastError is only known for live
+// and stored states.
+public record MessageStatusView(String messageId, MessageStatus status, int attemptCount, long arrivalAtMs,
+        long nextDueAtMs, String lastError, String source) {
+
+    public static MessageStatusView of(MessageState s, String source) {
+        return new MessageStatusView(s.messageId, s.status, s.attemptCount, s.arrivalAtMs,
+                (s.status == MessageStatus.PENDING) ? s.nextDueAtMs : 0, s.lastError, source);
+    }
+
+    public static MessageStatusView of(MessageTimeline t) {
+        return new MessageStatusView(t.messageId(), t.status(), t.attemptCount(), t.arrivalAtMs(), 0, null,
+                "timeline");
+    }
+}
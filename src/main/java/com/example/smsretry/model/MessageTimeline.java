@@ -0,0 +1,9 @@
+// model/MessageTimeline.java
+package com.example.smsretry.model;
+
+import java.util.List;
+
+// GET /messages/{id}/timeline
+public record MessageTimeline(String messageId, long arrivalAtMs, MessageStatus status, int attemptCount,
+        List<AttemptRecord> attempts) {
+}
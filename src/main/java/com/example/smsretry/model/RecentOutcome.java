@@ -0,0 +1,8 @@
+// model/RecentOutcome.java
+package com.example.smsretry.model;
+
+// Immutable record of a message reaching SUCCESS/FAILED, as served by
+// GET /messages/success|failed. finalTimestampMs is when the outcome was recorded.
+public record RecentOutcome(String messageId, int attemptCount, MessageStatus status, long finalTimestampMs,
+        String reason) {
+}
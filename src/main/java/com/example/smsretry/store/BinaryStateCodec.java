@@ -0,0 +1,120 @@
+// store/BinaryStateCodec.java
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// Hand-written record form:
+// [byte 0xB0|version][byte kind][byte status][varint attemptCount]
+// [varint arrivalAtMs][zigzag nextDueAtMs - arrivalAtMs]
+// [str messageId][str phone][str body][str lastError]
+// where str = [varint utf8Length + 1][bytes], 0 = null.
+// Version 2 appends [str policy]; it is only written for messages with a non-default
+// retry policy, so every other record stays readable by version 1 readers.
+// The first byte never collides with a JSON record (those start with a kind ordinal).
+public final class BinaryStateCodec implements StateCodec {
+    public static final BinaryStateCodec INSTANCE = new BinaryStateCodec();
+
+    static final int MARKER = 0xB0;
+    static final int VERSION = 2;
+    private static final int NO_STATUS = 0xFF;
+
+    private static final StateUpdate.Kind[] KINDS = StateUpdate.Kind.values();
+    private static final MessageStatus[] STATUSES = MessageStatus.values();
+
+    private BinaryStateCodec() {
+    }
+
+    static boolean isBinary(byte first) {
+        return (first & 0xF0) == MARKER;
+    }
+
+    @Override
+    public void encode(StateUpdate u, RecordBuffer out) {
+        MessageState s = u.state;
+        out.writeByte(MARKER | (s.policy == null ? 1 : VERSION));
+        out.writeByte(u.kind.ordinal());
+        out.writeByte(s.status == null ? NO_STATUS : s.status.ordinal());
+        out.writeVarLong(s.attemptCount);
+        out.writeVarLong(s.arrivalAtMs);
+        out.writeZigZag(s.nextDueAtMs - s.arrivalAtMs);
+        out.writeString(s.messageId);
+        out.writeString(s.phone);
+        out.writeString(s.body);
+        out.writeString(s.lastError);
+        if (s.policy != null)
+            out.writeString(s.policy);
+    }
+
+    @Override
+    public StateUpdate decode(byte[] buf, int off, int len) throws IOException {
+        Reader in = new Reader(buf, off, off + len);
+        int version = in.readByte() & 0x0F;
+        if (version > VERSION)
+            throw new IOException("unsupported state record version " + version);
+
+        StateUpdate.Kind kind = KINDS[in.readByte()];
+        int status = in.readByte() & 0xFF;
+        MessageState s = new MessageState();
+        s.status = (status == NO_STATUS) ? null : STATUSES[status];
+        s.attemptCount = (int) in.readVarLong();
+        s.arrivalAtMs = in.readVarLong();
+        s.nextDueAtMs = s.arrivalAtMs + in.readZigZag();
+        s.messageId = in.readString();
+        s.phone = in.readString();
+        s.body = in.readString();
+        s.lastError = in.readString();
+        if (version >= 2)
+            s.policy = in.readString();
+        return StateUpdate.of(kind, s);
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        byte readByte() throws IOException {
+            if (pos >= end)
+                throw new IOException("truncated state record");
+            return buf[pos++];
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return v;
+            }
+            throw new IOException("malformed varint");
+        }
+
+        long readZigZag() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        String readString() throws IOException {
+            long n = readVarLong();
+            if (n == 0)
+                return null;
+            int len = (int) (n - 1);
+            if (len < 0 || len > end - pos)
+                throw new IOException("truncated state record");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// store/InMemoryS3Client.java
+package com.example.smsretry.store;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Process-local S3 stand-in covering the calls the stores make (put/get/head/list/delete).
+// Used for tests, benchmarks and running without AWS (aws.s3.inMemory=true).
+public class InMemoryS3Client implements S3Client {
+
+    private final Map<String, ConcurrentSkipListMap<String, byte[]>> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong puts = new AtomicLong();
+    private final AtomicLong gets = new AtomicLong();
+
+    public long putCount() {
+        return puts.get();
+    }
+
+    public long getCount() {
+        return gets.get();
+    }
+
+    public int objectCount(String bucket) {
+        return bucket(bucket).size();
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest req, RequestBody body) {
+        byte[] bytes;
+        try (InputStream in = body.contentStreamProvider().newStream()) {
+            bytes = in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bucket(req.bucket()).put(req.key(), bytes);
+        puts.incrementAndGet();
+        return PutObjectResponse.builder().build();
+    }
+
+    @Override
+    public ResponseBytes<GetObjectResponse> getObjectAsBytes(GetObjectRequest req) {
+        gets.incrementAndGet();
+        byte[] bytes = bucket(req.bucket()).get(req.key());
+        if (bytes == null)
+            throw NoSuchKeyException.builder().message("no such key: " + req.key()).build();
+        GetObjectResponse resp = GetObjectResponse.builder().contentLength((long) bytes.length).build();
+        return ResponseBytes.fromByteArray(resp, bytes);
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest req) {
+        byte[] bytes = bucket(req.bucket()).get(req.key());
+        if (bytes == null)
+            throw NoSuchKeyException.builder().message("no such key: " + req.key()).build();
+        return HeadObjectResponse.builder().contentLength((long) bytes.length).build();
+    }
+
+    @Override
+    public ListObjectsV2Response listObjectsV2(ListObjectsV2Request req) {
+        ConcurrentSkipListMap<String, byte[]> objects = bucket(req.bucket());
+        String prefix = (req.prefix() == null) ? "" : req.prefix();
+        String after = (req.continuationToken() != null) ? req.continuationToken() : req.startAfter();
+        int max = (req.maxKeys() == null) ? 1000 : req.maxKeys();
+
+        // a token ending in the delimiter resumes after that whole common prefix
+        String delimiter = req.delimiter();
+        if (after != null && delimiter != null && after.endsWith(delimiter))
+            after = after + Character.MAX_VALUE;
+        Map<String, byte[]> range = (after == null || after.compareTo(prefix) < 0)
+                ? objects.tailMap(prefix, true)
+                : objects.tailMap(after, false);
+
+        List<S3Object> contents = new ArrayList<>();
+        List<CommonPrefix> prefixes = new ArrayList<>();
+        String last = null;
+        for (Map.Entry<String, byte[]> e : range.entrySet()) {
+            String key = e.getKey();
+            if (!key.startsWith(prefix))
+                break;
+            String common = null;
+            if (delimiter != null) {
+                int d = key.indexOf(delimiter, prefix.length());
+                if (d >= 0)
+                    common = key.substring(0, d + delimiter.length());
+            }
+            if (common != null && common.equals(last))
+                continue;
+            if (contents.size() + prefixes.size() >= max) {
+                return ListObjectsV2Response.builder().contents(contents).commonPrefixes(prefixes)
+                        .isTruncated(true).nextContinuationToken(last).build();
+            }
+            if (common != null) {
+                prefixes.add(CommonPrefix.builder().prefix(common).build());
+                last = common;
+            } else {
+                contents.add(S3Object.builder().key(key).size((long) e.getValue().length).build());
+                last = key;
+            }
+        }
+        return ListObjectsV2Response.builder().contents(contents).commonPrefixes(prefixes)
+                .isTruncated(false).build();
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest req) {
+        bucket(req.bucket()).remove(req.key());
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest req) {
+        ConcurrentSkipListMap<String, byte[]> objects = bucket(req.bucket());
+        for (ObjectIdentifier id : req.delete().objects())
+            objects.remove(id.key());
+        return DeleteObjectsResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return "s3";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private ConcurrentSkipListMap<String, byte[]> bucket(String name) {
+        return buckets.computeIfAbsent(name, k -> new ConcurrentSkipListMap<>());
+    }
+}
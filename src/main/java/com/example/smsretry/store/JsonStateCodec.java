@@ -0,0 +1,30 @@
+// store/JsonStateCodec.java
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.util.Json;
+
+import java.io.IOException;
+
+// Original record form: [kind byte 0..2][MessageState as JSON]. Human-readable; kept
+// for debugging and so records written before the binary codec still decode.
+public final class JsonStateCodec implements StateCodec {
+    public static final JsonStateCodec INSTANCE = new JsonStateCodec();
+
+    private JsonStateCodec() {
+    }
+
+    @Override
+    public void encode(StateUpdate u, RecordBuffer out) throws IOException {
+        byte[] json = Json.MAPPER.writeValueAsBytes(u.state);
+        out.writeByte(u.kind.ordinal());
+        out.write(json, 0, json.length);
+    }
+
+    @Override
+    public StateUpdate decode(byte[] buf, int off, int len) throws IOException {
+        StateUpdate.Kind kind = StateUpdate.Kind.values()[buf[off]];
+        MessageState s = Json.MAPPER.readValue(buf, off + 1, len - 1, MessageState.class);
+        return StateUpdate.of(kind, s);
+    }
+}
@@ -0,0 +1,130 @@
+// store/RecordBuffer.java
+package com.example.smsretry.store;
+
+import java.util.Arrays;
+
+// Growable byte buffer the codecs encode into; reused per thread via StateRecords so
+// the steady-state write path only allocates the final record copy (or nothing, for
+// callers that consume array()/length() directly).
+public final class RecordBuffer {
+    private byte[] buf;
+    private int len;
+
+    public RecordBuffer(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int length() {
+        return len;
+    }
+
+    public void reset() {
+        len = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[len++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, buf, len, n);
+        len += n;
+    }
+
+    // unsigned LEB128
+    public void writeVarLong(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[len++] = (byte) v;
+    }
+
+    public void writeZigZag(long v) {
+        writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    // [varint byteLength + 1][UTF-8 bytes]; 0 encodes null
+    public void writeString(String s) {
+        if (s == null) {
+            writeByte(0);
+            return;
+        }
+        int n = s.length();
+        int utf8 = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                utf8 = utf8Length(s, i);
+                break;
+            }
+        }
+        writeVarLong(utf8 + 1L);
+        ensure(utf8);
+        if (utf8 == n) { // ASCII fast path
+            for (int i = 0; i < n; i++)
+                buf[len++] = (byte) s.charAt(i);
+        } else {
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[len++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[len++] = (byte) (0xC0 | (c >> 6));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    buf[len++] = (byte) (0xF0 | (cp >> 18));
+                    buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    if (Character.isSurrogate(c))
+                        c = '?'; // unpaired surrogate, same as String.getBytes(UTF_8)
+                    if (c < 0x80) {
+                        buf[len++] = (byte) c;
+                        continue;
+                    }
+                    buf[len++] = (byte) (0xE0 | (c >> 12));
+                    buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[len++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+    }
+
+    private static int utf8Length(String s, int from) {
+        int n = s.length();
+        int bytes = from;
+        for (int i = from; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(len + n, buf.length * 2));
+    }
+}
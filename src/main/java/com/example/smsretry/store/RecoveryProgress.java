@@ -0,0 +1,81 @@
+// store/RecoveryProgress.java
+package com.example.smsretry.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Live counters for a (possibly background) recovery run; safe to read at any time.
+public class RecoveryProgress {
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger unitsDone = new AtomicInteger();
+    private volatile int unitsTotal;
+    private volatile long startedAtMs;
+    private volatile long finishedAtMs;
+    private volatile String source = "store"; // or "snapshot" (warm restart)
+
+    public void start(int units) {
+        unitsTotal = units;
+        startedAtMs = System.currentTimeMillis();
+    }
+
+    public void source(String source) {
+        this.source = source;
+    }
+
+    public String source() {
+        return source;
+    }
+
+    public void addUnits(int units) {
+        unitsTotal += units;
+    }
+
+    public void loaded() {
+        loaded.incrementAndGet();
+    }
+
+    public void failed() {
+        failed.incrementAndGet();
+    }
+
+    public void unitDone() {
+        unitsDone.incrementAndGet();
+    }
+
+    public void finish() {
+        finishedAtMs = System.currentTimeMillis();
+    }
+
+    public boolean isDone() {
+        return finishedAtMs > 0;
+    }
+
+    public long loadedCount() {
+        return loaded.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+
+    public long durationMs() {
+        if (startedAtMs == 0)
+            return 0;
+        return (isDone() ? finishedAtMs : System.currentTimeMillis()) - startedAtMs;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("done", isDone());
+        m.put("source", source);
+        m.put("loaded", loaded.get());
+        m.put("failed", failed.get());
+        m.put("unitsDone", unitsDone.get());
+        m.put("unitsTotal", unitsTotal);
+        m.put("durationMs", durationMs());
+        return m;
+    }
+}
@@ -1,33 +1,78 @@
 // store/S3StateStore.java
 package com.example.smsretry.store;
 
+import com.example.smsretry.model.MessageIds;
 import com.example.smsretry.model.MessageState;
 import com.example.smsretry.util.Json;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Profile;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
-import java.util.ArrayList;
-import java.util.List;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 @Component
-
+@ConditionalOnProperty(name = "store.type", havingValue = "s3", matchIfMissing = true)
 public class S3StateStore implements StateStore {
 
     private final S3Client s3;
     private final String bucket;
+    private final S3Writer.Layout layout;
     private final S3Writer writer;
+    private final int recoveryParallelism;
+
+    // last retry is 16s after arrival; leaves room for writer lag
+    private static final long TERMINAL_WINDOW_MS = 5 * 60_000;
 
+    // objects layout: token of the last graceful shutdown's snapshot (seal/claimSeal)
+    static final String SEAL_KEY = "state/snapshot.seal";
+    private static final long CLOSE_TIMEOUT_MS = 5_000;
+    private volatile long restoredCheckpoint = -1; // segments: round a snapshot was claimed at
+
+    @Autowired
     public S3StateStore(
             @Value("${aws.region}") String region,
-            @Value("${aws.s3.bucket}") String bucket) {
-        this.s3 = S3Client.builder().region(Region.of(region)).build();
+            @Value("${aws.s3.bucket}") String bucket,
+            @Value("${aws.s3.inMemory:false}") boolean inMemory,
+            @Value("${store.s3.layout:objects}") String layout,
+            @Value("${store.s3.compress:true}") boolean compress,
+            @Value("${store.s3.checkpointIntervalMs:60000}") long checkpointIntervalMs,
+            @Value("${recovery.parallelism:32}") int recoveryParallelism,
+            @Value("${store.codec:binary}") String codec) {
+        this(inMemory ? new InMemoryS3Client() : S3Client.builder().region(Region.of(region)).build(),
+                bucket, S3Writer.Layout.valueOf(layout.trim().toUpperCase(Locale.ROOT)), compress,
+                checkpointIntervalMs, recoveryParallelism, StateCodec.named(codec));
+    }
+
+    public S3StateStore(S3Client s3, String bucket, S3Writer.Layout layout, boolean compress,
+            long checkpointIntervalMs) {
+        this(s3, bucket, layout, compress, checkpointIntervalMs, 32, BinaryStateCodec.INSTANCE);
+    }
+
+    public S3StateStore(S3Client s3, String bucket, S3Writer.Layout layout, boolean compress,
+            long checkpointIntervalMs, int recoveryParallelism, StateCodec codec) {
+        this.s3 = s3;
+        this.recoveryParallelism = Math.max(1, recoveryParallelism);
         this.bucket = bucket;
-        this.writer = new S3Writer(s3, bucket);
+        this.layout = layout;
+        long nextSeq = (layout == S3Writer.Layout.SEGMENTS) ? lastDeltaSeq() + 1 : 0;
+        this.writer = new S3Writer(s3, bucket, layout, compress, nextSeq, checkpointIntervalMs, codec);
+    }
+
+    public S3Writer writer() {
+        return writer;
     }
 
     @Override
@@ -35,11 +80,356 @@ public class S3StateStore implements StateStore {
         writer.enqueue(update);
     }
 
+    @Override
+    public double saturation() {
+        return (double) writer.queueDepth() / writer.queueCapacity();
+    }
+
+    @Override
+    public long queueDepth() {
+        return writer.queueDepth();
+    }
+
+    @Override
+    public long droppedUpdates() {
+        return writer.droppedCount();
+    }
+
+    // Only the objects layout is addressable by id: the terminal object (for generated ids,
+    // whose completion falls within minutes of the timestamp they carry, so at most two
+    // hour folders per outcome), then the pending object, which the writer deletes once the
+    // terminal one is written, so a hit there is still pending. Segments keep terminal
+    // records only until the next checkpoint; nothing to read by id there.
+    @Override
+    public MessageState lookup(String messageId) {
+        if (layout != S3Writer.Layout.OBJECTS)
+            return null;
+        List<String> keys = new ArrayList<>(5);
+        long id = MessageIds.parse(messageId);
+        if (id >= 0) {
+            long createdAtMs = MessageIds.timestampMs(id);
+            for (StateUpdate.Kind kind : List.of(StateUpdate.Kind.SUCCESS, StateUpdate.Kind.FAILED)) {
+                String first = S3Writer.terminalKey(kind, messageId, createdAtMs);
+                String last = S3Writer.terminalKey(kind, messageId, createdAtMs + TERMINAL_WINDOW_MS);
+                keys.add(first);
+                if (!last.equals(first))
+                    keys.add(last);
+            }
+        }
+        keys.add(S3Writer.pendingKey(messageId));
+
+        for (String key : keys) {
+            try {
+                byte[] bytes = s3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(key).build())
+                        .asByteArray();
+                return Json.MAPPER.readValue(bytes, MessageState.class);
+            } catch (NoSuchKeyException missing) {
+                // try the next candidate
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean supportsLookup() {
+        return layout == S3Writer.Layout.OBJECTS;
+    }
+
+    // objects layout only: every node writes its own messages' keys, where segment deltas
+    // and checkpoints are numbered by a single writer
+    @Override
+    public boolean supportsClusterMode() {
+        return layout == S3Writer.Layout.OBJECTS;
+    }
+
+    @Override
+    public boolean awaitPersisted(long timeoutMs) {
+        try {
+            return writer.awaitIdle(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        writer.shutdown(CLOSE_TIMEOUT_MS);
+    }
+
+    // segments: the last delta seq, so any later delta (from this or another writer)
+    // invalidates the snapshot. objects: a one-time token stored next to the states,
+    // deleted by the claim, since per-key writes leave no sequence to compare.
+    @Override
+    public String seal() {
+        if (layout == S3Writer.Layout.SEGMENTS)
+            return "segments:" + writer.lastSeq();
+        String token = "objects:" + UUID.randomUUID();
+        s3.putObject(PutObjectRequest.builder().bucket(bucket).key(SEAL_KEY).build(),
+                RequestBody.fromBytes(token.getBytes(StandardCharsets.UTF_8)));
+        return token;
+    }
+
+    @Override
+    public boolean claimSeal(String seal) {
+        if (layout == S3Writer.Layout.SEGMENTS) {
+            // writer.lastSeq() was listed from the bucket at startup; list again in case
+            // another process wrote since
+            long last = lastDeltaSeq();
+            if (!seal.equals("segments:" + last) || writer.lastSeq() != last)
+                return false;
+            restoredCheckpoint = latestCheckpointRound();
+            return true;
+        }
+        String token;
+        try {
+            token = s3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(SEAL_KEY).build())
+                    .asUtf8String();
+        } catch (NoSuchKeyException missing) {
+            return false;
+        }
+        s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(SEAL_KEY).build());
+        return seal.equals(token);
+    }
+
+    // segments: the checkpoint image is rebuilt from the snapshot, as recovery would from
+    // the bucket, before checkpoints resume
+    @Override
+    public void adoptPending(MessageState s) {
+        if (layout != S3Writer.Layout.SEGMENTS)
+            return;
+        try {
+            writer.seed(S3Writer.partitionOf(s.messageId), List.of(StateUpdate.pending(s)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void snapshotRestored() {
+        if (layout == S3Writer.Layout.SEGMENTS)
+            writer.enableCheckpoints(restoredCheckpoint);
+    }
+
+    @Override
+    public void loadPending(IntPredicate partitions, Consumer<MessageState> sink, RecoveryProgress progress) {
+        if (layout != S3Writer.Layout.OBJECTS) {
+            StateStore.super.loadPending(partitions, sink, progress);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(recoveryParallelism);
+        try {
+            loadPendingObjects(pool, partitions, sink, progress);
+        } finally {
+            pool.shutdown();
+            progress.finish();
+        }
+    }
+
     @Override
     public List<MessageState> loadPendingAll() {
-        List<MessageState> out = new ArrayList<>();
+        List<MessageState> out = Collections.synchronizedList(new ArrayList<>());
+        loadPending(out::add, new RecoveryProgress());
+        return new ArrayList<>(out);
+    }
+
+    // Fans out over storage partitions on `recoveryParallelism` threads, which also
+    // bounds the number of concurrent GETs. Nothing is materialized beyond one
+    // partition's merge map (plus the post-checkpoint deltas in segments layout).
+    @Override
+    public void loadPending(Consumer<MessageState> sink, RecoveryProgress progress) {
+        ExecutorService pool = Executors.newFixedThreadPool(recoveryParallelism);
+        try {
+            if (layout == S3Writer.Layout.OBJECTS)
+                loadPendingObjects(pool, p -> true, sink, progress);
+            else
+                loadPendingSegments(pool, sink, progress);
+        } finally {
+            pool.shutdown();
+            progress.finish();
+        }
+    }
+
+    // A bucket written by the objects layout has no checkpoint yet: its state/pending/
+    // objects are merged in under the deltas, and carried by the image into the first
+    // checkpoint, after which they are no longer read.
+    private void loadPendingSegments(ExecutorService pool, Consumer<MessageState> sink, RecoveryProgress progress) {
+        // latest complete checkpoint round, then every delta after its watermark
+        long watermark = latestCheckpointRound();
+        String startAfter = (watermark >= 0) ? S3Writer.deltaKey(watermark) : null;
+        List<String> deltas = listKeys(S3Writer.DELTA_PREFIX, startAfter);
+        progress.start(deltas.size() + S3Writer.PARTITIONS);
+
+        // 1) deltas, bucketed by partition
+        List<Map<String, StateUpdate>> byPartition = new ArrayList<>(S3Writer.PARTITIONS);
+        for (int p = 0; p < S3Writer.PARTITIONS; p++)
+            byPartition.add(new ConcurrentHashMap<>());
+        List<Callable<Void>> deltaTasks = new ArrayList<>(deltas.size());
+        for (String key : deltas) {
+            deltaTasks.add(() -> {
+                readSegment(key, u -> merge(byPartition.get(S3Writer.partitionOf(u.state.messageId)), u), progress);
+                return null;
+            });
+        }
+        invokeAll(pool, deltaTasks);
+
+        // 2) per partition: checkpoint + its deltas, streamed to the sink
+        List<Callable<Void>> partitionTasks = new ArrayList<>(S3Writer.PARTITIONS);
+        for (int p = 0; p < S3Writer.PARTITIONS; p++) {
+            int partition = p;
+            partitionTasks.add(() -> {
+                Map<String, StateUpdate> merged = byPartition.get(partition);
+                if (watermark >= 0) {
+                    String key = S3Writer.CHECKPOINT_PREFIX + S3Writer.seqKey(watermark) + "/" + partition + ".ckpt";
+                    readSegment(key, u -> merge(merged, u), progress);
+                } else {
+                    try {
+                        loadPendingPrefix(S3Writer.PENDING_PREFIX + partition + "/",
+                                s -> merge(merged, StateUpdate.pending(s)), progress);
+                    } catch (Exception e) {
+                        progress.failed();
+                    } finally {
+                        progress.unitDone();
+                    }
+                }
+
+                List<StateUpdate> pending = new ArrayList<>();
+                for (StateUpdate u : merged.values()) {
+                    if (u.kind != StateUpdate.Kind.PENDING)
+                        continue;
+                    pending.add(u);
+                    sink.accept(u.state);
+                    progress.loaded();
+                }
+                writer.seed(partition, pending);
+                byPartition.set(partition, null);
+                return null;
+            });
+        }
+        invokeAll(pool, partitionTasks);
+
+        // a partial recovery must not be checkpointed: GC would drop the deltas it missed
+        if (progress.failedCount() == 0)
+            writer.enableCheckpoints(watermark);
+    }
+
+    private static void merge(Map<String, StateUpdate> merged, StateUpdate u) {
+        merged.merge(u.state.messageId, u, (cur, next) -> next.supersedes(cur) ? next : cur);
+    }
+
+    private void readSegment(String key, Consumer<StateUpdate> sink, RecoveryProgress progress) {
+        try {
+            byte[] bytes = s3.getObjectAsBytes(GetObjectRequest.builder().bucket(bucket).key(key).build())
+                    .asByteArray();
+            SegmentFormat.decode(bytes, sink);
+        } catch (Exception e) {
+            progress.failed();
+        } finally {
+            progress.unitDone();
+        }
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                try {
+                    f.get();
+                } catch (ExecutionException ignored) {
+                    // failures are counted by the task itself
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Watermark of the newest checkpoint round that has its completion marker, or -1.
+    private long latestCheckpointRound() {
+        List<String> rounds = new ArrayList<>();
+        String token = null;
+        do {
+            ListObjectsV2Response resp = s3.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(S3Writer.CHECKPOINT_PREFIX)
+                    .delimiter("/")
+                    .continuationToken(token)
+                    .build());
+            for (CommonPrefix p : resp.commonPrefixes())
+                rounds.add(p.prefix());
+            token = resp.nextContinuationToken();
+        } while (token != null);
+
+        for (int i = rounds.size() - 1; i >= 0; i--) {
+            String round = rounds.get(i);
+            try {
+                s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(round + S3Writer.COMPLETE_MARKER).build());
+                String seq = round.substring(S3Writer.CHECKPOINT_PREFIX.length(), round.length() - 1);
+                return Long.parseLong(seq);
+            } catch (NoSuchKeyException incomplete) {
+                // writer died mid-round; fall back to the previous one
+            } catch (Exception ignored) {
+            }
+        }
+        return -1;
+    }
+
+    private long lastDeltaSeq() {
+        List<String> keys = listKeys(S3Writer.DELTA_PREFIX, null);
+        long last = latestCheckpointRound();
+        if (!keys.isEmpty()) {
+            String k = keys.get(keys.size() - 1);
+            String seq = k.substring(S3Writer.DELTA_PREFIX.length(), k.length() - ".seg".length());
+            last = Math.max(last, Long.parseLong(seq));
+        }
+        return last;
+    }
+
+    private List<String> listKeys(String prefix, String startAfter) {
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            ListObjectsV2Response resp = s3.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .startAfter(startAfter)
+                    .continuationToken(token)
+                    .build());
+            for (S3Object obj : resp.contents())
+                keys.add(obj.key());
+            token = resp.nextContinuationToken();
+        } while (token != null);
+        return keys;
+    }
+
+    // legacy layout: one JSON object per pending message under state/pending/<partition>/
+    private void loadPendingObjects(ExecutorService pool, IntPredicate partitions, Consumer<MessageState> sink,
+            RecoveryProgress progress) {
+        List<Callable<Void>> tasks = new ArrayList<>(S3Writer.PARTITIONS);
+        for (int p = 0; p < S3Writer.PARTITIONS; p++) {
+            if (!partitions.test(p))
+                continue;
+            String prefix = S3Writer.PENDING_PREFIX + p + "/";
+            tasks.add(() -> {
+                try {
+                    loadPendingPrefix(prefix, s -> {
+                        sink.accept(s);
+                        progress.loaded();
+                    }, progress);
+                } catch (Exception e) {
+                    progress.failed();
+                } finally {
+                    progress.unitDone();
+                }
+                return null;
+            });
+        }
+        progress.start(tasks.size());
+        invokeAll(pool, tasks);
+    }
 
-        String prefix = "state/pending/";
+    private void loadPendingPrefix(String prefix, Consumer<MessageState> sink, RecoveryProgress progress) {
         String token = null;
 
         do {
@@ -59,13 +449,12 @@ public class S3StateStore implements StateStore {
 
                     ResponseBytes<GetObjectResponse> bytes = s3.getObjectAsBytes(getReq);
                     MessageState s = Json.MAPPER.readValue(bytes.asByteArray(), MessageState.class);
-                    out.add(s);
-                } catch (Exception ignored) {
+                    sink.accept(s);
+                } catch (Exception e) {
+                    progress.failed();
                 }
             }
             token = resp.nextContinuationToken();
         } while (token != null);
-
-        return out;
     }
 }
\ No newline at end of file
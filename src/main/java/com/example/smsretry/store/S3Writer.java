@@ -1,56 +1,214 @@
 // store/S3Writer.java
 package com.example.smsretry.store;
 
+import com.example.smsretry.model.MessageIds;
 import com.example.smsretry.model.MessageState;
 import com.example.smsretry.util.Json;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.*;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class S3Writer {
 
+    // SEGMENTS: one delta object per drained batch + periodic per-partition checkpoints
+    // OBJECTS: legacy one-object-per-message layout
+    public enum Layout {
+        SEGMENTS, OBJECTS
+    }
+
+    public static final int PARTITIONS = MessageIds.BUCKETS;
+    static final String PENDING_PREFIX = "state/pending/";
+    static final String DELTA_PREFIX = "state/deltas/";
+    static final String CHECKPOINT_PREFIX = "state/checkpoints/";
+    static final String COMPLETE_MARKER = "_COMPLETE";
+
     private final S3Client s3;
     private final String bucket;
+    private final Layout layout;
+    private final boolean compress;
+    private final StateCodec codec;
 
-    private final BlockingQueue<StateUpdate> queue = new LinkedBlockingQueue<>(200_000);
+    private static final int QUEUE_CAPACITY = 200_000;
+    // a failed PUT is retried with doubling backoff (100..800ms) before its updates
+    // count as dropped
+    private static final int PUT_ATTEMPTS = 5;
+    private static final long PUT_BACKOFF_MS = 100;
+    private final BlockingQueue<StateUpdate> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    // writer health: updates dequeued vs. written after coalescing, PUT count/time
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder putNanos = new LongAdder();
 
     // coalesce latest update per messageId to reduce write load
     private final ConcurrentHashMap<String, StateUpdate> latest = new ConcurrentHashMap<>();
 
-    private final ExecutorService writers = Executors.newFixedThreadPool(2);
+    // SEGMENTS uses a single writer so deltas (and the checkpoint image) apply in
+    // enqueue order; one PUT per drained batch keeps that well ahead of the engine
+    private final int writerThreads;
+    private final int maxBatch;
+    private final ExecutorService writers;
+    // queued vs handled update counts, for awaitIdle()
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+
+    // ---- segments layout ----
+    // delta sequence numbers; a delta is "in flight" from seq assignment until its
+    // records are reflected in `image`, so the checkpoint watermark never passes it
+    private final Object seqLock = new Object();
+    private long nextSeq;
+    private final TreeSet<Long> inFlightSeqs = new TreeSet<>();
+
+    // latest encoded PENDING record per messageId, by partition: the checkpoint source
+    private final List<ConcurrentHashMap<String, byte[]>> image = new ArrayList<>(PARTITIONS);
+    private volatile boolean seeded;
+    private long lastCheckpointSeq = -1;
+    private final ScheduledExecutorService checkpointer;
 
     public S3Writer(S3Client s3, String bucket) {
+        this(s3, bucket, Layout.OBJECTS, false, 0, 0, BinaryStateCodec.INSTANCE);
+    }
+
+    // nextSeq: first unused delta sequence number in the bucket
+    // codec: record format for deltas/checkpoints (the objects layout stays JSON)
+    public S3Writer(S3Client s3, String bucket, Layout layout, boolean compress, long nextSeq,
+            long checkpointIntervalMs, StateCodec codec) {
         this.s3 = s3;
         this.bucket = bucket;
+        this.layout = layout;
+        this.compress = compress;
+        this.codec = codec;
+        this.nextSeq = nextSeq;
+        for (int i = 0; i < PARTITIONS; i++)
+            image.add(new ConcurrentHashMap<>());
 
-        for (int i = 0; i < 2; i++) {
+        this.writerThreads = (layout == Layout.SEGMENTS) ? 1 : 2;
+        this.maxBatch = (layout == Layout.SEGMENTS) ? 10_000 : 2000;
+        this.writers = Executors.newFixedThreadPool(writerThreads);
+        for (int i = 0; i < writerThreads; i++) {
             writers.submit(this::runWriter);
         }
+
+        if (layout == Layout.SEGMENTS && checkpointIntervalMs > 0) {
+            checkpointer = Executors.newSingleThreadScheduledExecutor();
+            checkpointer.scheduleWithFixedDelay(() -> {
+                try {
+                    checkpoint();
+                } catch (Exception e) {
+                    // next round retries (in real life: log)
+                }
+            }, checkpointIntervalMs, checkpointIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            checkpointer = null;
+        }
+    }
+
+    // generated ids carry their partition (MessageIds bucket); others are hashed
+    public static int partitionOf(String messageId) {
+        return MessageIds.bucketOf(messageId);
     }
 
     public void enqueue(StateUpdate u) {
         // keep only latest for each messageId
         latest.put(u.state.messageId, u);
-        queue.offer(u); // best-effort
+        if (queue.offer(u)) // best-effort; admission control keeps the queue from filling
+            accepted.incrementAndGet();
+        else
+            dropped.increment();
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public int queueCapacity() {
+        return QUEUE_CAPACITY;
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long dequeuedCount() {
+        return dequeued.sum();
+    }
+
+    public long writtenCount() {
+        return written.sum();
+    }
+
+    public long putCount() {
+        return puts.sum();
+    }
+
+    public long putNanos() {
+        return putNanos.sum();
+    }
+
+    // Waits until every enqueued update has been written (or dropped after retries).
+    public boolean awaitIdle(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (handled.get() < accepted.get()) {
+            if (System.currentTimeMillis() >= deadline)
+                return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    // Stops the writer threads and the checkpointer once what is queued is written (or
+    // timeoutMs passed); updates enqueued afterwards are not persisted.
+    public void shutdown(long timeoutMs) {
+        try {
+            awaitIdle(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (checkpointer != null)
+            checkpointer.shutdown();
+        writers.shutdownNow(); // idle writers wait in queue.take()
+    }
+
+    // Recovery hands over the pending state it rebuilt (checkpoint + deltas) partition by
+    // partition, then enables checkpoints from the watermark it started at. Checkpoints
+    // stay off until then, otherwise they would omit messages not touched since the restart.
+    public void seed(int partition, Collection<StateUpdate> pending) throws IOException {
+        Map<String, byte[]> part = image.get(partition);
+        for (StateUpdate u : pending)
+            part.putIfAbsent(u.state.messageId, StateRecords.encode(u, codec));
+    }
+
+    public synchronized void enableCheckpoints(long recoveredCheckpointSeq) {
+        lastCheckpointSeq = recoveredCheckpointSeq;
+        seeded = true;
     }
 
     private void runWriter() {
-        List<StateUpdate> batch = new ArrayList<>(2000);
+        List<StateUpdate> batch = new ArrayList<>(maxBatch);
         while (true) {
+            StateUpdate first;
+            try {
+                first = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
             try {
-                StateUpdate first = queue.take();
                 batch.clear();
                 batch.add(first);
 
                 // drain quickly for batching
-                queue.drainTo(batch, 2000);
+                queue.drainTo(batch, maxBatch);
 
                 // For each messageId, write only the latest update
                 Map<String, StateUpdate> toWrite = new HashMap<>();
@@ -63,17 +221,192 @@ public class S3Writer {
                 for (StateUpdate u : toWrite.values()) {
                     // remove only if still same instance to avoid races
                     latest.remove(u.state.messageId, u);
-                    putState(u);
                 }
+
+                dequeued.add(batch.size());
+                if (layout == Layout.SEGMENTS) {
+                    if (!toWrite.isEmpty())
+                        count(toWrite.size(), putDelta(toWrite.values()));
+                } else {
+                    for (StateUpdate u : toWrite.values())
+                        count(1, withRetries(() -> putState(u)));
+                }
+            } catch (Exception e) {
+                // not a PUT failure (encoding): nothing of this batch was written
+                dropped.add(batch.size());
+            } finally {
+                handled.addAndGet(batch.size());
+            }
+        }
+    }
+
+    private void count(int updates, boolean ok) {
+        if (ok)
+            written.add(updates);
+        else
+            dropped.add(updates); // (in real life: log)
+    }
+
+    private interface Put {
+        void run() throws Exception;
+    }
+
+    // False once PUT_ATTEMPTS failed, or when shutdown interrupts the backoff.
+    private boolean withRetries(Put put) {
+        long backoffMs = PUT_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                put.run();
+                return true;
+            } catch (Exception e) {
+                if (attempt == PUT_ATTEMPTS)
+                    return false;
+            }
+            try {
+                Thread.sleep(backoffMs);
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
-                return;
-            } catch (Exception e) {
-                // swallow & continue (in real life: log)
+                return false;
+            }
+            backoffMs *= 2;
+        }
+    }
+
+    // ---- segments layout ----
+
+    // The delta keeps its seq across retries, so the checkpoint watermark waits for it;
+    // if it is given up, the seq is simply never written.
+    private boolean putDelta(Collection<StateUpdate> updates) throws IOException {
+        List<String> ids = new ArrayList<>(updates.size());
+        List<StateUpdate.Kind> kinds = new ArrayList<>(updates.size());
+        List<byte[]> records = new ArrayList<>(updates.size());
+        for (StateUpdate u : updates) {
+            ids.add(u.state.messageId);
+            kinds.add(u.kind);
+            records.add(StateRecords.encode(u, codec));
+        }
+
+        long seq;
+        synchronized (seqLock) {
+            seq = nextSeq++;
+            inFlightSeqs.add(seq);
+        }
+        try {
+            byte[] segment = SegmentFormat.encode(records, compress);
+            if (!withRetries(() -> put(deltaKey(seq), segment)))
+                return false;
+            for (int i = 0; i < records.size(); i++) {
+                Map<String, byte[]> part = image.get(partitionOf(ids.get(i)));
+                if (kinds.get(i) == StateUpdate.Kind.PENDING)
+                    part.put(ids.get(i), records.get(i));
+                else
+                    part.remove(ids.get(i));
+            }
+            return true;
+        } finally {
+            synchronized (seqLock) {
+                inFlightSeqs.remove(seq);
             }
         }
     }
 
+    // last delta sequence number handed out (segments layout), -1 if none yet
+    public long lastSeq() {
+        synchronized (seqLock) {
+            return nextSeq - 1;
+        }
+    }
+
+    // Highest delta seq such that it and every earlier delta are reflected in `image`.
+    private long watermark() {
+        synchronized (seqLock) {
+            return inFlightSeqs.isEmpty() ? nextSeq - 1 : inFlightSeqs.first() - 1;
+        }
+    }
+
+    // Writes one checkpoint object per partition for the current watermark, then a
+    // completion marker, then garbage-collects older checkpoints and covered deltas.
+    public synchronized void checkpoint() throws IOException {
+        if (layout != Layout.SEGMENTS || !seeded)
+            return;
+        long w = watermark();
+        if (w <= lastCheckpointSeq)
+            return;
+
+        String round = CHECKPOINT_PREFIX + seqKey(w) + "/";
+        for (int p = 0; p < PARTITIONS; p++) {
+            Collection<byte[]> records = new ArrayList<>(image.get(p).values());
+            put(round + p + ".ckpt", SegmentFormat.encode(records, compress));
+        }
+        put(round + COMPLETE_MARKER, new byte[0]);
+        lastCheckpointSeq = w;
+
+        deleteBelow(DELTA_PREFIX, deltaKey(w), true);
+        deleteBelow(CHECKPOINT_PREFIX, round, false);
+    }
+
+    // Deletes keys under `prefix` that sort before `bound` (or equal to it when inclusive).
+    private void deleteBelow(String prefix, String bound, boolean inclusive) {
+        String token = null;
+        List<ObjectIdentifier> doomed = new ArrayList<>();
+        outer: do {
+            ListObjectsV2Response resp = s3.listObjectsV2(ListObjectsV2Request.builder()
+                    .bucket(bucket)
+                    .prefix(prefix)
+                    .continuationToken(token)
+                    .build());
+            for (S3Object obj : resp.contents()) {
+                int c = obj.key().compareTo(bound);
+                if (inclusive ? c > 0 : c >= 0)
+                    break outer;
+                doomed.add(ObjectIdentifier.builder().key(obj.key()).build());
+                if (doomed.size() == 1000) {
+                    deleteAll(doomed);
+                    doomed.clear();
+                }
+            }
+            token = resp.nextContinuationToken();
+        } while (token != null);
+        if (!doomed.isEmpty())
+            deleteAll(doomed);
+    }
+
+    private void deleteAll(List<ObjectIdentifier> keys) {
+        s3.deleteObjects(DeleteObjectsRequest.builder()
+                .bucket(bucket)
+                .delete(Delete.builder().objects(keys).build())
+                .build());
+    }
+
+    private void put(String key, byte[] bytes) {
+        PutObjectRequest req = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentType("application/octet-stream")
+                .build();
+        timedPut(req, bytes);
+    }
+
+    private void timedPut(PutObjectRequest req, byte[] bytes) {
+        long start = System.nanoTime();
+        try {
+            s3.putObject(req, RequestBody.fromBytes(bytes));
+        } finally {
+            puts.increment();
+            putNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    static String seqKey(long seq) {
+        return String.format("%020d", seq);
+    }
+
+    static String deltaKey(long seq) {
+        return DELTA_PREFIX + seqKey(seq) + ".seg";
+    }
+
+    // ---- objects layout ----
+
     private void putState(StateUpdate u) throws Exception {
         MessageState s = u.state;
         String key = keyFor(u.kind, s);
@@ -85,18 +418,30 @@ public class S3Writer {
                 .contentType("application/json")
                 .build();
 
-        s3.putObject(req, RequestBody.fromBytes(bytes));
+        timedPut(req, bytes);
+        // the pending copy would otherwise outlive the outcome: a lookup by a client-supplied
+        // id (no terminal folder to try) or a recovery listing would read it as still PENDING
+        if (u.kind != StateUpdate.Kind.PENDING)
+            s3.deleteObject(DeleteObjectRequest.builder().bucket(bucket).key(pendingKey(s.messageId)).build());
     }
 
     private static final DateTimeFormatter DT = DateTimeFormatter.ofPattern("yyyy/MM/dd/HH").withZone(ZoneOffset.UTC);
 
     private String keyFor(StateUpdate.Kind kind, MessageState s) {
         if (kind == StateUpdate.Kind.PENDING) {
-            int shard = (s.messageId.hashCode() & 0x7fffffff) % 256;
-            return "state/pending/" + shard + "/" + s.messageId + ".json";
+            return pendingKey(s.messageId);
         }
-        String ts = DT.format(Instant.now());
+        return terminalKey(kind, s.messageId, System.currentTimeMillis());
+    }
+
+    static String pendingKey(String messageId) {
+        return PENDING_PREFIX + partitionOf(messageId) + "/" + messageId + ".json";
+    }
+
+    // terminal objects go under the UTC hour they were written in
+    static String terminalKey(StateUpdate.Kind kind, String messageId, long writtenAtMs) {
+        String ts = DT.format(Instant.ofEpochMilli(writtenAtMs));
         String folder = (kind == StateUpdate.Kind.SUCCESS) ? "success" : "failed";
-        return "state/" + folder + "/" + ts + "/" + s.messageId + ".json";
+        return "state/" + folder + "/" + ts + "/" + messageId + ".json";
     }
 }
\ No newline at end of file
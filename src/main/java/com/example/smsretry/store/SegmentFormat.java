@@ -0,0 +1,68 @@
+// store/SegmentFormat.java
+package com.example.smsretry.store;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// S3 segment object (delta or checkpoint):
+// [int magic][byte version][byte flags][int count] then `count` x [int len][StateRecords payload],
+// gzip'ed after the header when FLAG_GZIP is set.
+final class SegmentFormat {
+    static final int MAGIC = 0x534D5347; // "SMSG"
+    private static final byte VERSION = 1;
+    private static final byte FLAG_GZIP = 1;
+
+    private SegmentFormat() {
+    }
+
+    static byte[] encode(Collection<byte[]> records, boolean gzip) throws IOException {
+        int size = 10;
+        for (byte[] r : records)
+            size += 4 + r.length;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(gzip ? size / 4 + 64 : size);
+
+        DataOutputStream header = new DataOutputStream(bos);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(gzip ? FLAG_GZIP : 0);
+        header.writeInt(records.size());
+
+        OutputStream body = gzip ? new GZIPOutputStream(bos, 64 * 1024) : bos;
+        DataOutputStream out = new DataOutputStream(body);
+        for (byte[] r : records) {
+            out.writeInt(r.length);
+            out.write(r);
+        }
+        out.flush();
+        if (body instanceof GZIPOutputStream gz)
+            gz.finish();
+        return bos.toByteArray();
+    }
+
+    static int decode(byte[] object, Consumer<StateUpdate> sink) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(object));
+        if (in.readInt() != MAGIC)
+            throw new IOException("not a state segment");
+        byte version = in.readByte();
+        if (version > VERSION)
+            throw new IOException("unsupported segment version " + version);
+        byte flags = in.readByte();
+        int count = in.readInt();
+
+        DataInputStream body = ((flags & FLAG_GZIP) != 0)
+                ? new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 64 * 1024)))
+                : in;
+        byte[] buf = new byte[512];
+        for (int i = 0; i < count; i++) {
+            int len = body.readInt();
+            if (len > buf.length)
+                buf = new byte[Math.max(len, buf.length * 2)];
+            body.readFully(buf, 0, len);
+            sink.accept(StateRecords.decode(buf, 0, len));
+        }
+        return count;
+    }
+}
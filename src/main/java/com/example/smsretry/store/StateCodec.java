@@ -0,0 +1,23 @@
+// store/StateCodec.java
+package com.example.smsretry.store;
+
+import java.io.IOException;
+import java.util.Locale;
+
+// Payload format of one StateUpdate record (WAL records, S3 delta/checkpoint segments).
+// Readers don't need to know which codec wrote a record: StateRecords.decode tells
+// them apart by the first byte, so switching codecs needs no migration.
+public interface StateCodec {
+
+    void encode(StateUpdate u, RecordBuffer out) throws IOException;
+
+    StateUpdate decode(byte[] buf, int off, int len) throws IOException;
+
+    static StateCodec named(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "binary" -> BinaryStateCodec.INSTANCE;
+            case "json" -> JsonStateCodec.INSTANCE;
+            default -> throw new IllegalArgumentException("unknown state codec: " + name);
+        };
+    }
+}
@@ -0,0 +1,36 @@
+// store/StateRecords.java
+package com.example.smsretry.store;
+
+import java.io.IOException;
+
+// Wire form of one StateUpdate inside a log/segment record. Encoding uses the
+// store's configured StateCodec; decoding detects binary vs JSON from the first byte.
+public final class StateRecords {
+    private static final ThreadLocal<RecordBuffer> BUFFER = ThreadLocal.withInitial(() -> new RecordBuffer(256));
+
+    private StateRecords() {
+    }
+
+    public static byte[] encode(StateUpdate u) throws IOException {
+        return encode(u, BinaryStateCodec.INSTANCE);
+    }
+
+    public static byte[] encode(StateUpdate u, StateCodec codec) throws IOException {
+        return encodeToBuffer(u, codec).toByteArray();
+    }
+
+    // Encodes into this thread's reusable buffer; valid until the thread's next encode.
+    public static RecordBuffer encodeToBuffer(StateUpdate u, StateCodec codec) throws IOException {
+        RecordBuffer buf = BUFFER.get();
+        buf.reset();
+        codec.encode(u, buf);
+        return buf;
+    }
+
+    public static StateUpdate decode(byte[] buf, int off, int len) throws IOException {
+        if (len <= 0)
+            throw new IOException("empty state record");
+        StateCodec codec = BinaryStateCodec.isBinary(buf[off]) ? BinaryStateCodec.INSTANCE : JsonStateCodec.INSTANCE;
+        return codec.decode(buf, off, len);
+    }
+}
@@ -1,12 +1,95 @@
 // store/StateStore.java
 package com.example.smsretry.store;
 
+import com.example.smsretry.model.MessageIds;
 import com.example.smsretry.model.MessageState;
 
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 
 public interface StateStore {
     void enqueue(StateUpdate update);
 
     List<MessageState> loadPendingAll(); // recovery
+
+    // Write-path load for admission control: 0 = idle, 1 = full (updates would be dropped).
+    // Stores that persist synchronously never saturate.
+    default double saturation() {
+        return 0;
+    }
+
+    default long queueDepth() {
+        return 0;
+    }
+
+    default long droppedUpdates() {
+        return 0;
+    }
+
+    // Point read of one message's last persisted state, or null if the store has none
+    // or cannot look up by id. Used behind core/StoreLookupCache for status queries.
+    default MessageState lookup(String messageId) {
+        return null;
+    }
+
+    // false = lookup() always returns null (S3 segments layout, WAL): callers skip it
+    default boolean supportsLookup() {
+        return false;
+    }
+
+    // Streaming recovery: hands each pending state to `sink` as soon as it is decoded,
+    // possibly from several threads at once. Counters go to `progress`.
+    default void loadPending(Consumer<MessageState> sink, RecoveryProgress progress) {
+        progress.start(1);
+        try {
+            for (MessageState s : loadPendingAll()) {
+                sink.accept(s);
+                progress.loaded();
+            }
+            progress.unitDone();
+        } finally {
+            progress.finish();
+        }
+    }
+
+    // Cluster mode: nodes share the store, each writing the messages of the shards it
+    // leases. Stores with node-global files or sequence numbers cannot be shared.
+    default boolean supportsClusterMode() {
+        return false;
+    }
+
+    // Pending states of some storage partitions (MessageIds.bucketOf) only, e.g. those of
+    // a shard this node just leased. The default loads everything and filters.
+    default void loadPending(IntPredicate partitions, Consumer<MessageState> sink, RecoveryProgress progress) {
+        loadPending(s -> {
+            if (partitions.test(MessageIds.bucketOf(s.messageId)))
+                sink.accept(s);
+        }, progress);
+    }
+
+    // Waits up to timeoutMs until the updates enqueued so far are persisted (before a
+    // shard is handed to another node). Stores that persist synchronously return at once.
+    default boolean awaitPersisted(long timeoutMs) {
+        return true;
+    }
+
+    // Warm restart (core/ShardSnapshot). After a graceful shutdown's awaitPersisted(),
+    // seal() names what the store holds; null = it cannot vouch for a local snapshot, so
+    // none is written. On the next start claimSeal() accepts that snapshot only if nothing
+    // was written since; each restored state then goes to adoptPending() (from several
+    // threads at once) and snapshotRestored() follows the last one.
+    default String seal() {
+        return null;
+    }
+
+    default boolean claimSeal(String seal) {
+        return false;
+    }
+
+    default void adoptPending(MessageState s) {
+    }
+
+    default void snapshotRestored() {
+    }
 }
\ No newline at end of file
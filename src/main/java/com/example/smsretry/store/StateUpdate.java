@@ -16,6 +16,10 @@ public class StateUpdate {
         this.state = state;
     }
 
+    public static StateUpdate of(Kind kind, MessageState s) {
+        return new StateUpdate(kind, s);
+    }
+
     public static StateUpdate pending(MessageState s) {
         return new StateUpdate(Kind.PENDING, s);
     }
@@ -27,4 +31,14 @@ public class StateUpdate {
     public static StateUpdate failed(MessageState s) {
         return new StateUpdate(Kind.FAILED, s);
     }
+
+    // True if this update reflects at least as much progress as `other` for the
+    // same message: terminal beats pending, then the higher attempt count wins.
+    public boolean supersedes(StateUpdate other) {
+        boolean terminal = kind != Kind.PENDING;
+        boolean otherTerminal = other.kind != Kind.PENDING;
+        if (terminal != otherTerminal)
+            return terminal;
+        return state.attemptCount >= other.state.attemptCount;
+    }
 }
\ No newline at end of file
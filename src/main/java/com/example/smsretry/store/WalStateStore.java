@@ -0,0 +1,366 @@
+// store/WalStateStore.java
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.MessageState;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Local write-ahead log of StateUpdates in fixed-size memory-mapped segments.
+// Record layout: [int payloadLength][int crc32(payload)][payload = StateRecords form, store.codec].
+// enqueue() returns once the record is in the mapping (survives a process crash);
+// a background flusher forces the head segment every fsyncIntervalMs (group commit).
+// Sealed segments are compacted oldest-first: still-pending records are re-appended
+// to the head and the segment file is deleted, so terminal messages drop out.
+@Component
+@ConditionalOnProperty(name = "store.type", havingValue = "wal")
+public class WalStateStore implements StateStore {
+
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final double compactLiveRatio;
+    private final StateCodec codec;
+
+    // segments, head and index are guarded by appendLock. One lock and one head segment
+    // for all shards on purpose: encoding and CRC happen before it, so the critical
+    // section is a copy of one record into the mapping plus a HashMap update (a roll
+    // leaves the fsync of the full segment to the background), and a single log keeps
+    // replay order and compaction trivially consistent. Per-shard logs would need a
+    // merge on replay and per-log compaction to save that copy.
+    private final Object appendLock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment head;
+    // messageId -> (segmentId << 32 | offset) of its latest PENDING record
+    private final HashMap<String, Long> index = new HashMap<>();
+
+    private List<MessageState> recovered;
+
+    private final ScheduledExecutorService background;
+    private final ExecutorService shipPool;
+    private final S3Client shipper; // null = shipping disabled
+    private final String shipBucket;
+    private final String shipPrefix;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buf;
+        int position; // end of valid data
+        volatile int forcedTo;
+        int records;
+        int live; // records that are still the latest PENDING state of their message
+        boolean sealed;
+        volatile boolean shipped;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buf) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buf = buf;
+        }
+    }
+
+    @Autowired
+    public WalStateStore(
+            @Value("${store.wal.dir:./data/wal}") String dir,
+            @Value("${store.wal.segmentBytes:67108864}") int segmentBytes,
+            @Value("${store.wal.fsyncIntervalMs:5}") long fsyncIntervalMs,
+            @Value("${store.wal.compactIntervalMs:1000}") long compactIntervalMs,
+            @Value("${store.wal.compactLiveRatio:0.5}") double compactLiveRatio,
+            @Value("${store.wal.ship:false}") boolean ship,
+            @Value("${store.wal.shipPrefix:wal/}") String shipPrefix,
+            @Value("${aws.region}") String region,
+            @Value("${aws.s3.bucket}") String bucket,
+            @Value("${store.codec:binary}") String codec) throws IOException {
+        this(Paths.get(dir), segmentBytes, fsyncIntervalMs, compactIntervalMs, compactLiveRatio,
+                ship ? S3Client.builder().region(Region.of(region)).build() : null, bucket, shipPrefix,
+                StateCodec.named(codec));
+    }
+
+    public WalStateStore(Path dir, int segmentBytes, long fsyncIntervalMs, long compactIntervalMs,
+            double compactLiveRatio, S3Client shipper, String shipBucket, String shipPrefix, StateCodec codec)
+            throws IOException {
+        this.dir = dir;
+        this.codec = codec;
+        this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+        this.compactLiveRatio = compactLiveRatio;
+        this.shipper = shipper;
+        this.shipBucket = shipBucket;
+        this.shipPrefix = shipPrefix;
+
+        Files.createDirectories(dir);
+        this.recovered = replay();
+
+        this.background = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "wal-background");
+            t.setDaemon(true);
+            return t;
+        });
+        this.shipPool = (shipper != null) ? Executors.newSingleThreadExecutor() : null;
+        background.scheduleWithFixedDelay(this::flush, fsyncIntervalMs, Math.max(1, fsyncIntervalMs),
+                TimeUnit.MILLISECONDS);
+        background.scheduleWithFixedDelay(this::compact, compactIntervalMs, Math.max(1, compactIntervalMs),
+                TimeUnit.MILLISECONDS);
+        if (shipper != null) {
+            synchronized (appendLock) {
+                for (Segment seg : segments.values())
+                    if (seg.sealed)
+                        shipAsync(seg);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        background.shutdown();
+        if (shipPool != null)
+            shipPool.shutdown();
+        synchronized (appendLock) {
+            head.buf.force();
+        }
+    }
+
+    @Override
+    public void enqueue(StateUpdate update) {
+        // encoded into this thread's reusable buffer and copied straight into the mapping
+        RecordBuffer payload;
+        try {
+            payload = StateRecords.encodeToBuffer(update, codec);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int crc = crc(payload.array(), 0, payload.length());
+        synchronized (appendLock) {
+            append(update.state.messageId, update.kind, payload.array(), payload.length(), crc);
+        }
+    }
+
+    @Override
+    public List<MessageState> loadPendingAll() {
+        List<MessageState> out = recovered;
+        recovered = List.of();
+        return out;
+    }
+
+    // ---- append path (caller holds appendLock) ----
+
+    private void append(String messageId, StateUpdate.Kind kind, byte[] payload, int len, int crc) {
+        if (HEADER + len > segmentBytes)
+            throw new IllegalArgumentException("record larger than a WAL segment: " + len);
+        if (head.buf.capacity() - head.position < HEADER + len)
+            roll();
+
+        int pos = head.position;
+        head.buf.putInt(pos + 4, crc);
+        head.buf.put(pos + HEADER, payload, 0, len);
+        head.buf.putInt(pos, len); // length last: a torn record reads as end of log
+        head.position = pos + HEADER + len;
+        head.records++;
+        track(messageId, kind, (head.id << 32) | pos, head);
+    }
+
+    private void track(String messageId, StateUpdate.Kind kind, long loc, Segment seg) {
+        Long prev = (kind == StateUpdate.Kind.PENDING) ? index.put(messageId, loc) : index.remove(messageId);
+        if (prev != null)
+            segments.get(prev >>> 32).live--;
+        if (kind == StateUpdate.Kind.PENDING)
+            seg.live++;
+    }
+
+    private void roll() {
+        Segment old = head;
+        old.sealed = true;
+        Runnable force = () -> {
+            old.buf.force();
+            old.forcedTo = old.position;
+        };
+        try {
+            background.execute(force);
+        } catch (RejectedExecutionException closed) {
+            force.run();
+        }
+        try {
+            head = openSegment(old.id + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.put(head.id, head);
+        if (shipper != null)
+            shipAsync(old);
+    }
+
+    // ---- background: group commit, compaction, shipping ----
+
+    private void flush() {
+        Segment seg;
+        int to;
+        synchronized (appendLock) {
+            seg = head;
+            to = seg.position;
+        }
+        int from = seg.forcedTo;
+        if (to > from) {
+            seg.buf.force(from, to - from);
+            seg.forcedTo = to;
+        }
+    }
+
+    private void compact() {
+        try {
+            while (true) {
+                Segment oldest;
+                synchronized (appendLock) {
+                    oldest = segments.firstEntry().getValue();
+                    if (!oldest.sealed || (shipper != null && !oldest.shipped))
+                        return;
+                    if (oldest.records > 0 && (double) oldest.live / oldest.records >= compactLiveRatio)
+                        return;
+                }
+                if (oldest.live > 0)
+                    rewriteLive(oldest);
+                synchronized (appendLock) {
+                    segments.remove(oldest.id);
+                }
+                oldest.channel.close();
+                Files.deleteIfExists(oldest.path);
+            }
+        } catch (Exception e) {
+            // retry on the next round (in real life: log)
+        }
+    }
+
+    // Re-append every record of `seg` that is still the latest pending state of its message.
+    private void rewriteLive(Segment seg) throws IOException {
+        int pos = 0;
+        while (pos < seg.position) {
+            int len = seg.buf.getInt(pos);
+            int crc = seg.buf.getInt(pos + 4);
+            byte[] payload = new byte[len];
+            seg.buf.get(pos + HEADER, payload);
+            long loc = (seg.id << 32) | pos;
+            pos += HEADER + len;
+
+            StateUpdate u = StateRecords.decode(payload, 0, len);
+            if (u.kind != StateUpdate.Kind.PENDING)
+                continue;
+            String messageId = u.state.messageId;
+            synchronized (appendLock) {
+                Long cur = index.get(messageId);
+                if (cur != null && cur == loc)
+                    append(messageId, StateUpdate.Kind.PENDING, payload, len, crc);
+            }
+        }
+    }
+
+    private void shipAsync(Segment seg) {
+        shipPool.execute(() -> {
+            try {
+                PutObjectRequest req = PutObjectRequest.builder()
+                        .bucket(shipBucket)
+                        .key(shipPrefix + seg.path.getFileName())
+                        .contentType("application/octet-stream")
+                        .build();
+                shipper.putObject(req, RequestBody.fromFile(seg.path));
+                seg.shipped = true;
+            } catch (Exception e) {
+                // leave unshipped; compaction keeps the segment (in real life: log + retry)
+            }
+        });
+    }
+
+    // ---- startup ----
+
+    private List<MessageState> replay() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().matches("segment-\\d{16}\\.wal"))
+                    .sorted()
+                    .toList();
+        }
+
+        Map<String, MessageState> pending = new HashMap<>();
+        for (Path p : files) {
+            long id = Long.parseLong(p.getFileName().toString().substring(8, 24));
+            Segment seg = openSegment(id);
+            segments.put(id, seg);
+            scan(seg, pending);
+            seg.sealed = true;
+        }
+
+        if (segments.isEmpty()) {
+            head = openSegment(0);
+            segments.put(0L, head);
+        } else {
+            head = segments.lastEntry().getValue();
+            head.sealed = false;
+            head.forcedTo = head.position;
+            // anything past the last valid record is garbage from a torn write
+            for (int i = head.position; i < head.buf.capacity(); i++)
+                head.buf.put(i, (byte) 0);
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    private void scan(Segment seg, Map<String, MessageState> pending) {
+        int pos = 0;
+        int cap = seg.buf.capacity();
+        while (pos + HEADER <= cap) {
+            int len = seg.buf.getInt(pos);
+            if (len <= 0 || pos + HEADER + len > cap)
+                break;
+            byte[] payload = new byte[len];
+            seg.buf.get(pos + HEADER, payload);
+            if (crc(payload, 0, len) != seg.buf.getInt(pos + 4))
+                break;
+
+            try {
+                StateUpdate u = StateRecords.decode(payload, 0, len);
+                track(u.state.messageId, u.kind, (seg.id << 32) | pos, seg);
+                if (u.kind == StateUpdate.Kind.PENDING)
+                    pending.put(u.state.messageId, u.state);
+                else
+                    pending.remove(u.state.messageId);
+            } catch (IOException ignored) {
+            }
+            seg.records++;
+            pos += HEADER + len;
+        }
+        seg.position = pos;
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path p = dir.resolve(String.format("segment-%016d.wal", id));
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = Math.max(ch.size(), segmentBytes);
+        return new Segment(id, p, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private static int crc(byte[] b, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.smsretry.api;
+
+import com.example.smsretry.core.AdmissionControl;
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.OverloadedException;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SmsControllerTest {
+
+    // persistence queue reports full once `capacity` updates were enqueued
+    private static final class FillingStore implements StateStore {
+        final AtomicInteger enqueued = new AtomicInteger();
+        final int capacity;
+
+        FillingStore(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void enqueue(StateUpdate update) {
+            enqueued.incrementAndGet();
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            return List.of();
+        }
+
+        @Override
+        public double saturation() {
+            return (enqueued.get() >= capacity) ? 1.0 : 0.0;
+        }
+    }
+
+    private static SmsRetryEngine engine(StateStore store) {
+        return SmsRetryEngine.builder(m -> true, store)
+                .admission(new AdmissionControl(store, 0.8, 1.0, 0, 3, 0))
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(2)
+                        .recoverAsync(false)
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+    }
+
+    @Test
+    void partlyThrottledRepeatIsTooManyRequestsWithTheAcceptedIds() {
+        SmsRetryEngine engine = engine(new FillingStore(5));
+        SmsController controller = new SmsController(engine, null, null);
+        try {
+            ResponseEntity<Map<String, Object>> r = controller.sendRepeat(8,
+                    new SmsController.SendRequest("+15550100", "hi", null));
+
+            assertThat(r.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+            assertThat(r.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("3");
+            Map<String, Object> body = r.getBody();
+            assertThat(body.get("reason")).isEqualTo(AdmissionControl.STORE);
+            assertThat(body.get("count")).isEqualTo(5);
+            assertThat(body.get("requested")).isEqualTo(8);
+            List<?> ids = (List<?>) body.get("messageIds");
+            assertThat(ids).hasSize(5);
+            for (Object id : ids)
+                assertThat(engine.status((String) id)).isNotNull();
+
+            // nothing accepted: the plain 429 of ApiExceptionHandler
+            assertThatThrownBy(() -> controller.sendRepeat(3, new SmsController.SendRequest("+15550100", "hi", null)))
+                    .isInstanceOf(OverloadedException.class);
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    void fullyAcceptedRepeatIsOk() {
+        SmsRetryEngine engine = engine(new FillingStore(Integer.MAX_VALUE));
+        SmsController controller = new SmsController(engine, null, null);
+        try {
+            ResponseEntity<Map<String, Object>> r = controller.sendRepeat(4,
+                    new SmsController.SendRequest("+15550100", "hi", null));
+
+            assertThat(r.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(r.getBody().get("count")).isEqualTo(4);
+            assertThat(r.getHeaders().containsKey(HttpHeaders.RETRY_AFTER)).isFalse();
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.smsretry.cluster;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.MockSendGateway;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.store.InMemoryS3Client;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterCoordinatorTest {
+    private static final String BUCKET = "test-bucket";
+
+    // every send fails, so accepted messages stay pending (and no wakeup() retries them)
+    private static SmsRetryEngine engine(S3StateStore store, int nodeId) {
+        return SmsRetryEngine.builder(new MockSendGateway(0.0, "none", 0, 0), store)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(4)
+                        .wheel(10, 256)
+                        .batch(1, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 1_000)
+                        .nodeId(nodeId)
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(1024)
+                        .clustered(true)
+                        .build())
+                .build();
+    }
+
+    private static int held(SmsRetryEngine engine) {
+        int n = 0;
+        for (int i = 0; i < engine.shardCount(); i++)
+            n += engine.shard(i).stateCount();
+        return n;
+    }
+
+    @Test
+    void shardsMoveToAJoiningNodeWithTheirPendingMessages() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore storeA = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        S3StateStore storeB = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        FileLeaseBackend leases = new FileLeaseBackend(Files.createTempDirectory("leases"));
+        SmsRetryEngine a = engine(storeA, 1);
+        SmsRetryEngine b = engine(storeB, 2);
+        ClusterCoordinator nodeA = new ClusterCoordinator(a, storeA, leases, "http://a", "a", 60_000, 1_000, 5_000, 1,
+                1_000);
+        ClusterCoordinator nodeB = new ClusterCoordinator(b, storeB, leases, "http://b", "b", 60_000, 1_000, 5_000, 1,
+                1_000);
+        try {
+            nodeA.round();
+            assertThat(nodeA.ownedShards()).hasSize(4);
+            for (int i = 0; i < 400; i++)
+                a.newMessage(new Message(null, "+1555000" + i, "hi"));
+            int onShard3 = a.shard(3).stateCount();
+
+            // B joins: everything is leased, so it has to wait for A to give shards up
+            nodeB.round();
+            assertThat(nodeB.ownedShards()).isEmpty();
+
+            nodeA.round(); // over its share of 2: hands off one shard
+            assertThat(nodeA.ownedShards()).containsExactly(0, 1, 2);
+            assertThat(a.ownsShard(3)).isFalse();
+            assertThat(a.shard(3).stateCount()).isEqualTo(0);
+
+            nodeB.round();
+            assertThat(nodeB.ownedShards()).containsExactly(3);
+            assertThat(b.shard(3).stateCount()).isEqualTo(onShard3);
+            // each activation reports its own load; the engine-wide recovery is left alone
+            assertThat(b.activationProgress(3).isDone()).isTrue();
+            assertThat(b.activationProgress(3).loadedCount()).isEqualTo((long) onShard3);
+            assertThat(b.activationProgress(2)).isNull();
+            assertThat(b.recoveryProgress().loadedCount()).isEqualTo(0L);
+
+            nodeA.round();
+            nodeB.round();
+            assertThat(nodeA.ownedShards()).containsExactly(0, 1);
+            assertThat(nodeB.ownedShards()).containsExactly(2, 3);
+            assertThat(held(a) + held(b)).isEqualTo(400);
+            assertThat(b.activationProgress(2).loadedCount()).isEqualTo((long) b.shard(2).stateCount());
+            assertThat(b.activationProgress(3).loadedCount()).isEqualTo((long) onShard3);
+
+            // A leaves gracefully: B takes over on its next round, without the lease TTL
+            nodeA.stop();
+            nodeB.round();
+            assertThat(nodeB.ownedShards()).hasSize(4);
+            assertThat(held(a)).isEqualTo(0);
+            assertThat(held(b)).isEqualTo(400);
+        } finally {
+            a.shutdown();
+            b.shutdown();
+        }
+    }
+
+    @Test
+    void newMessagesOnlyUseOwnedShards() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        FileLeaseBackend leases = new FileLeaseBackend(Files.createTempDirectory("leases"));
+        leases.heartbeat("other", "http://other", 60_000);
+        leases.tryAcquire(0, "other", 60_000);
+        leases.tryAcquire(1, "other", 60_000);
+        SmsRetryEngine engine = engine(store, 1);
+        ClusterCoordinator node = new ClusterCoordinator(engine, store, leases, "http://a", "a", 60_000, 1_000,
+                5_000, 1, 1_000);
+        try {
+            node.round();
+            assertThat(node.ownedShards()).containsExactly(2, 3);
+
+            for (int i = 0; i < 100; i++)
+                engine.newMessage(new Message(null, "+1555000" + i, "hi"));
+            assertThat(engine.shard(0).stateCount() + engine.shard(1).stateCount()).isEqualTo(0);
+            assertThat(engine.shard(2).stateCount() + engine.shard(3).stateCount()).isEqualTo(100);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
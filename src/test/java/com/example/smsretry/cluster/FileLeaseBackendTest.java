@@ -0,0 +1,47 @@
+package com.example.smsretry.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileLeaseBackendTest {
+
+    @Test
+    void leasesAreExclusiveUntilReleasedOrExpired() throws Exception {
+        Path dir = Files.createTempDirectory("leases");
+        FileLeaseBackend a = new FileLeaseBackend(dir);
+        FileLeaseBackend b = new FileLeaseBackend(dir);
+
+        assertThat(a.tryAcquire(0, "a", 60_000)).isTrue();
+        assertThat(a.tryAcquire(0, "a", 60_000)).isTrue(); // renew
+        assertThat(b.tryAcquire(0, "b", 60_000)).isFalse();
+        assertThat(b.leases().get(0).owner()).isEqualTo("a");
+
+        b.release(0, "b"); // not b's: ignored
+        assertThat(b.tryAcquire(0, "b", 60_000)).isFalse();
+        a.release(0, "a");
+        assertThat(b.tryAcquire(0, "b", 60_000)).isTrue();
+
+        assertThat(a.tryAcquire(1, "a", 1)).isTrue();
+        Thread.sleep(5);
+        assertThat(b.leases()).doesNotContainKeys(1);
+        assertThat(b.tryAcquire(1, "b", 60_000)).isTrue();
+    }
+
+    @Test
+    void membersExpireOrLeave() throws Exception {
+        Path dir = Files.createTempDirectory("leases");
+        FileLeaseBackend backend = new FileLeaseBackend(dir);
+
+        backend.heartbeat("a", "http://a", 60_000);
+        backend.heartbeat("gone", "http://gone", 1);
+        Thread.sleep(5);
+        assertThat(backend.heartbeat("b", "http://b", 60_000)).containsOnlyKeys("a", "b");
+
+        backend.leave("a");
+        assertThat(backend.heartbeat("b", "http://b", 60_000)).containsOnlyKeys("b");
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionControlTest {
+
+    // store whose write queue fill is set by the test
+    private static final class FillStore implements StateStore {
+        volatile double fill;
+
+        @Override
+        public void enqueue(StateUpdate update) {
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            return List.of();
+        }
+
+        @Override
+        public double saturation() {
+            return fill;
+        }
+    }
+
+    private static SchedulerShard shard(StateStore store, long budgetBytes) {
+        return new SchedulerShard(RetryExecutor.dedicated(1), new MockSendGateway(1.0, "none", 0, 0), store,
+                EngineSettings.builder()
+                        .maxInFlightPerShard(16)
+                        .wheel(10, 64)
+                        .batch(1, 5)
+                        .memoryBudgetBytesPerShard(budgetBytes)
+                        .tombstones(60_000, 100)
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(4096)
+                        .build());
+    }
+
+    @Test
+    void refusesWhileStoreQueueIsAboveHighWater() {
+        FillStore store = new FillStore();
+        SchedulerShard shard = shard(store, 0);
+        AdmissionControl admission = new AdmissionControl(store, 0.8, 1.0, 0, 3, 0);
+        try {
+            admission.check(shard);
+
+            store.fill = 0.85;
+            assertThatThrownBy(() -> admission.check(shard))
+                    .isInstanceOf(OverloadedException.class)
+                    .hasMessageContaining(AdmissionControl.STORE);
+            assertThat(admission.rejectedCount(AdmissionControl.STORE)).isEqualTo(1L);
+            assertThat(admission.rejectedCount(AdmissionControl.MEMORY)).isEqualTo(0L);
+
+            store.fill = 0.5;
+            admission.check(shard);
+        } finally {
+            shard.shutdown();
+        }
+    }
+
+    @Test
+    void refusesBeforeTheShardBudgetIsExhausted() {
+        FillStore store = new FillStore();
+        SchedulerShard shard = shard(store, 4096);
+        AdmissionControl admission = new AdmissionControl(store, 1.0, 0.5, 0, 1, 0);
+        try {
+            int admitted = 0;
+            while (true) {
+                try {
+                    admission.check(shard);
+                } catch (OverloadedException e) {
+                    assertThat(e.reason()).isEqualTo(AdmissionControl.MEMORY);
+                    assertThat(e.retryAfterSeconds()).isEqualTo(1);
+                    break;
+                }
+                shard.admit(MessageState.fromMessage(new Message("m" + admitted, "+15551234567", "hi"), 1_000L));
+                admitted++;
+            }
+            assertThat(admitted).isGreaterThan(0);
+            assertThat(shard.memorySaturation() < 1.0).isTrue();
+            assertThat(shard.rejectedCount()).isEqualTo(0L);
+        } finally {
+            shard.shutdown();
+        }
+    }
+}
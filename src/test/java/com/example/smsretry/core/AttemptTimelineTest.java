@@ -0,0 +1,41 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.AttemptRecord;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.MessageTimeline;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AttemptTimelineTest {
+
+    @Test
+    void recordsPackedAttemptsPerMessage() {
+        AttemptTimeline timeline = new AttemptTimeline(16);
+        timeline.record("m1", 10_000L, 1, 10_000L, 1_500_000L, false, MessageStatus.PENDING);
+        timeline.record("m1", 10_000L, 2, 10_503L, 250_000L, true, MessageStatus.SUCCESS);
+
+        MessageTimeline t = timeline.get("m1");
+        assertThat(t.status()).isEqualTo(MessageStatus.SUCCESS);
+        assertThat(t.attemptCount()).isEqualTo(2);
+        assertThat(t.attempts()).hasSize(2);
+        AttemptRecord second = t.attempts().get(1);
+        assertThat(second.startedAtMs()).isEqualTo(10_503L);
+        assertThat(second.latencyMs()).isEqualTo(0.25);
+        assertThat(second.success()).isTrue();
+        assertThat(t.attempts().get(0).latencyMs()).isEqualTo(1.5);
+        assertThat(timeline.get("m2")).isEqualTo(null);
+    }
+
+    @Test
+    void oldestMessagesAreOverwrittenOnceFull() {
+        AttemptTimeline timeline = new AttemptTimeline(16);
+        for (int i = 0; i < 40; i++)
+            timeline.record("m" + i, 0L, 1, 0L, 0L, false, MessageStatus.PENDING);
+
+        for (int i = 0; i < 24; i++)
+            assertThat(timeline.get("m" + i)).isEqualTo(null);
+        for (int i = 24; i < 40; i++)
+            assertThat(timeline.get("m" + i).attempts()).hasSize(1);
+    }
+}
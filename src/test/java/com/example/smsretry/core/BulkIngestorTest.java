@@ -0,0 +1,72 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageIds;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BulkIngestorTest {
+
+    private static final StateStore NOOP = new StateStore() {
+        @Override
+        public void enqueue(StateUpdate update) {
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            return List.of();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void fansOutOverShardsAndReportsBadLines() throws Exception {
+        MockSendGateway gateway = new MockSendGateway(1.0, "none", 0, 0);
+        SmsRetryEngine engine = SmsRetryEngine.builder(gateway, NOOP)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(4)
+                        .wheel(10, 256)
+                        .batch(100, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 100_000)
+                        .timelineCapacityPerShard(4096)
+                        .build())
+                .build();
+        BulkIngestor bulk = new BulkIngestor(engine, 2, 64, 4, 1_000);
+        try {
+            StringBuilder ndjson = new StringBuilder();
+            for (int i = 0; i < 10_000; i++)
+                ndjson.append("{\"phone\":\"+1555000").append(i).append("\",\"body\":\"hi\"}\n");
+            ndjson.append("not json\n\n{\"phone\":\"+15550001\"}\n");
+
+            Map<String, Object> out = bulk.ingest(
+                    new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+
+            assertThat(out.get("accepted")).isEqualTo(10_000L);
+            assertThat(out.get("invalid")).isEqualTo(2);
+            assertThat(out.get("invalidLines")).isEqualTo(List.of(10_001, 10_003));
+            List<Map<String, Object>> shards = (List<Map<String, Object>>) out.get("shards");
+            assertThat(shards).hasSize(4);
+            for (Map<String, Object> s : shards) {
+                assertThat(s.get("count")).isEqualTo(2_500L);
+                int shard = (int) s.get("shard");
+                assertThat(MessageIds.shardOf((String) s.get("firstId"), 4)).isEqualTo(shard);
+                assertThat(MessageIds.shardOf((String) s.get("lastId"), 4)).isEqualTo(shard);
+            }
+        } finally {
+            bulk.shutdown();
+            engine.shutdown();
+            gateway.shutdown();
+        }
+    }
+}
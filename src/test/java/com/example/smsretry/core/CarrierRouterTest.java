@@ -0,0 +1,87 @@
+package com.example.smsretry.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CarrierRouterTest {
+
+    private static CarrierRouter router(int initialLimit, long latencyTargetMs, long decreaseIntervalMs) {
+        return new CarrierRouter("uk=+4474|+4475,uk-mvno=+44745,us=+1", true, initialLimit, 2, 64,
+                latencyTargetMs, 0.5, decreaseIntervalMs, 50);
+    }
+
+    @Test
+    void classifiesByLongestPrefix() {
+        CarrierRouter r = router(8, 1000, 0);
+
+        assertThat(r.carrierOf("+447400000000").name()).isEqualTo("uk");
+        assertThat(r.carrierOf("+447450000000").name()).isEqualTo("uk-mvno");
+        assertThat(r.carrierOf("+12025550100").name()).isEqualTo("us");
+        assertThat(r.carrierOf("+33612345678").name()).isEqualTo(CarrierRouter.DEFAULT_CARRIER);
+        assertThat(r.carriers()).hasSize(4);
+    }
+
+    @Test
+    void defersAtTheLimitWithoutAffectingOtherCarriers() {
+        CarrierRouter r = router(4, 1000, 0);
+        List<CarrierRouter.Carrier> held = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            held.add(r.acquire("+447400000000"));
+
+        assertThat(r.acquire("+447400000000")).isNull();
+        assertThat(r.carrierOf("+447400000000").deferredCount()).isEqualTo(1L);
+        assertThat(r.acquire("+12025550100")).isNotNull();
+
+        held.get(0).release(0, false);
+        assertThat(r.acquire("+447400000000")).isNotNull();
+    }
+
+    @Test
+    void errorsAndSlowSendsCutTheLimitOncePerInterval() {
+        CarrierRouter r = router(16, 100, 60_000);
+        CarrierRouter.Carrier uk = r.carrierOf("+447400000000");
+
+        r.acquire("+447400000000").release(0, true);
+        assertThat(uk.limit()).isEqualTo(8.0);
+
+        // a second bad completion in the same interval does not cut again
+        r.acquire("+447400000000").release(500_000_000L, false);
+        assertThat(uk.limit()).isEqualTo(8.0);
+        assertThat(uk.decreaseCount()).isEqualTo(1L);
+        assertThat(uk.inFlight()).isEqualTo(0);
+    }
+
+    @Test
+    void fastSendsGrowTheLimitOnlyWhileItBinds() {
+        CarrierRouter r = router(4, 1000, 0);
+        CarrierRouter.Carrier us = r.carrierOf("+12025550100");
+
+        // one at a time never reaches limit/2: no growth
+        for (int i = 0; i < 10; i++)
+            r.acquire("+12025550100").release(1_000_000, false);
+        assertThat(us.limit()).isEqualTo(4.0);
+
+        // with the limit saturated each completion adds 1/limit
+        for (int round = 0; round < 8; round++) {
+            List<CarrierRouter.Carrier> held = new ArrayList<>();
+            CarrierRouter.Carrier c;
+            while ((c = r.acquire("+12025550100")) != null)
+                held.add(c);
+            for (CarrierRouter.Carrier h : held)
+                h.release(1_000_000, false);
+        }
+        assertThat(us.limit()).isGreaterThan(5.0);
+    }
+
+    @Test
+    void rejectsMalformedRoutes() {
+        assertThatThrownBy(() -> new CarrierRouter("+4474", true, 8, 1, 64, 1000, 0.5, 0, 50))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("carriers.routes");
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static CircuitBreaker breaker(String errorTypes, double failureRate, long openMs) {
+        return new CircuitBreaker(true, 10_000, 20, 0.5, failureRate, errorTypes, openMs, 1_000, 3, 100, 300);
+    }
+
+    @Test
+    void tripsOnAnOutageButNotOnOrdinaryFailures() {
+        CircuitBreaker b = breaker("", 0.9, 60_000);
+        for (int i = 0; i < 100; i++)
+            b.record(i % 10 < 7, null); // 30% not delivered: the usual
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        for (int i = 0; i < 1_000; i++)
+            b.record(false, null);
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(b.tryAcquire()).isFalse();
+        assertThat(b.tripCount()).isEqualTo(1L);
+        assertThat(b.shortCircuitedCount()).isEqualTo(1L);
+    }
+
+    @Test
+    void onlyConfiguredExceptionTypesCountAsErrors() {
+        CircuitBreaker b = breaker("IOException", 2.0, 60_000);
+        for (int i = 0; i < 50; i++)
+            b.record(false, new IllegalStateException("bad number"));
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        for (int i = 0; i < 60; i++)
+            b.record(false, new CompletionException(new ConnectException("refused")));
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void probesThenRampsBackToClosed() throws Exception {
+        CircuitBreaker b = breaker("", 0.9, 50);
+        for (int i = 0; i < 20; i++)
+            b.record(false, new ConnectException("refused"));
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(b.resumeAtMs()).isGreaterThan(System.currentTimeMillis());
+
+        Thread.sleep(60);
+        int probes = 0;
+        while (b.tryAcquire())
+            probes++;
+        assertThat(probes).isEqualTo(3);
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        for (int i = 0; i < 3; i++)
+            b.record(true, null);
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.RECOVERING);
+
+        // rate limited from 100/s: a tight loop gets a handful of sends, not thousands
+        int granted = 0;
+        long until = System.currentTimeMillis() + 50;
+        while (System.currentTimeMillis() < until) {
+            if (b.tryAcquire())
+                granted++;
+        }
+        assertThat(granted).isLessThan(50);
+
+        Thread.sleep(300);
+        assertThat(b.tryAcquire()).isTrue();
+        assertThat(b.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void outageParksRetriesWithoutSpendingAttempts() throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        AtomicInteger sends = new AtomicInteger();
+        SendGateway gateway = m -> {
+            sends.incrementAndGet();
+            if (down.get())
+                throw new IllegalStateException("provider unavailable");
+            return true;
+        };
+        StateStore noop = new StateStore() {
+            @Override
+            public void enqueue(StateUpdate update) {
+            }
+
+            @Override
+            public List<MessageState> loadPendingAll() {
+                return List.of();
+            }
+        };
+        // without the breaker every message would fail within 60ms
+        RetryPolicies policies = new RetryPolicies("quick=0|20|40|60", "quick");
+        CircuitBreaker breaker = new CircuitBreaker(true, 10_000, 20, 0.5, 2.0, "", 100, 200, 3, 1_000, 200);
+        SmsRetryEngine engine = SmsRetryEngine.builder(gateway, noop)
+                .policies(policies)
+                .breaker(breaker)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(2)
+                        .maxInFlightPerShard(64)
+                        .wheel(5, 256)
+                        .batch(1, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 1_000)
+                        .dispatchMode("event")
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+        try {
+            for (int i = 0; i < 100; i++)
+                engine.accept(new Message(null, "+15550100", "hi"));
+            Thread.sleep(500);
+            int parked = engine.shard(0).parkedCount() + engine.shard(1).parkedCount();
+            assertThat(parked).isGreaterThan(50);
+            assertThat(engine.getRecentFailed(1000)).isEmpty();
+
+            down.set(false);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (engine.getRecentSuccess(1000).size() < 100 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            assertThat(engine.getRecentSuccess(1000)).hasSize(100);
+            assertThat(engine.getRecentFailed(1000)).isEmpty();
+            // 20 sends tripped it, a few probes failed; nothing else went to the dead gateway
+            assertThat(sends.get()).isLessThan(150);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
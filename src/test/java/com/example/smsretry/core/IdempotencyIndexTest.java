@@ -0,0 +1,137 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdempotencyIndexTest {
+
+    @Test
+    void claimIsExclusiveUntilReleased() {
+        IdempotencyIndex ids = new IdempotencyIndex(60_000, 100);
+
+        assertThat(ids.claim("a", 0)).isTrue();
+        assertThat(ids.claim("a", 0)).isFalse();
+
+        ids.release("a");
+        assertThat(ids.claim("a", 0)).isTrue();
+    }
+
+    @Test
+    void retiredIdsAreKeptForTheTtl() {
+        IdempotencyIndex ids = new IdempotencyIndex(1_000, 100);
+        ids.claim("a", 0);
+        ids.retire("a", 10);
+        ids.retire("generated", 10);
+
+        assertThat(ids.claim("a", 500)).isFalse();
+        assertThat(ids.claim("generated", 500)).isFalse();
+        assertThat(ids.isRetained("a", 500)).isTrue();
+
+        // expired, even before a sweep drops it
+        assertThat(ids.claim("a", 1_010)).isTrue();
+        assertThat(ids.isRetained("a", 1_010)).isFalse();
+    }
+
+    @Test
+    void oldestRetiredIdsAreDroppedOverTheCap() {
+        IdempotencyIndex ids = new IdempotencyIndex(60_000, 3);
+        for (int i = 0; i < 5; i++) {
+            ids.claim("m" + i, i);
+            ids.retire("m" + i, i);
+        }
+
+        assertThat(ids.retainedCount()).isEqualTo(3);
+        assertThat(ids.claim("m0", 10)).isTrue();
+        assertThat(ids.claim("m1", 10)).isTrue();
+        assertThat(ids.claim("m2", 10)).isFalse();
+    }
+
+    @Test
+    void concurrentClaimsHaveOneWinnerPerId() throws Exception {
+        IdempotencyIndex ids = new IdempotencyIndex(60_000, 100);
+        AtomicInteger winners = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 10_000; i++) {
+                    if (ids.claim("id-" + i, 0))
+                        winners.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+            t.join();
+
+        assertThat(winners.get()).isEqualTo(10_000);
+    }
+
+    @Test
+    void engineSendsAttemptOneOncePerClientId() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        SendGateway gateway = m -> {
+            sends.incrementAndGet();
+            return true;
+        };
+        StateStore noop = new StateStore() {
+            @Override
+            public void enqueue(StateUpdate update) {
+            }
+
+            @Override
+            public List<MessageState> loadPendingAll() {
+                return List.of();
+            }
+        };
+        SmsRetryEngine engine = SmsRetryEngine.builder(gateway, noop)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(4)
+                        .wheel(10, 256)
+                        .batch(1, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 100_000)
+                        .timelineCapacityPerShard(4096)
+                        .build())
+                .build();
+        try {
+            AtomicInteger fresh = new AtomicInteger();
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        if (!engine.accept(new Message("client-" + i, "+15550100", "hi")).duplicate())
+                            fresh.incrementAndGet();
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads)
+                t.join();
+
+            // every message succeeded on attempt #1 and left memory; resubmitting is still a no-op
+            assertThat(engine.accept(new Message("client-7", "+15550100", "hi")).duplicate()).isTrue();
+            assertThat(fresh.get()).isEqualTo(2_000);
+            assertThat(sends.get()).isEqualTo(2_000);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
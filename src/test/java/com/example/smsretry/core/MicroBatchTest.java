@@ -0,0 +1,127 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicroBatchTest {
+
+    // bulk API that fails every message whose id ends in "-f"; single sends are not expected
+    private static final class BulkGateway implements SendGateway {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        volatile int singleSends;
+
+        @Override
+        public boolean send(Message message) {
+            singleSends++;
+            return true;
+        }
+
+        @Override
+        public List<Boolean> sendBatch(List<Message> messages) {
+            batchSizes.add(messages.size());
+            List<Boolean> out = new ArrayList<>();
+            for (Message m : messages)
+                out.add(!m.messageId().endsWith("-f"));
+            return out;
+        }
+    }
+
+    private static final StateStore NOOP = new StateStore() {
+        @Override
+        public void enqueue(StateUpdate update) {
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            return List.of();
+        }
+    };
+
+    private static SchedulerShard shard(SendGateway gateway, int maxSize, long maxDelayMs, int maxInFlight) {
+        return new SchedulerShard(RetryExecutor.dedicated(1), gateway, NOOP,
+                EngineSettings.builder()
+                        .maxInFlightPerShard(maxInFlight)
+                        .wheel(5, 64)
+                        .batch(maxSize, maxDelayMs)
+                        .tombstones(60_000, 100)
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(256)
+                        .build());
+    }
+
+    // due retries, as recovery hands them over: attempt #1 spent, due now
+    private static void scheduleDue(SchedulerShard shard, String... ids) {
+        long now = System.currentTimeMillis();
+        for (String id : ids) {
+            MessageState s = MessageState.fromMessage(new Message(id, "+15551234567", "hi"), now);
+            s.attemptCount = 1;
+            s.nextDueAtMs = now - 10;
+            assertThat(shard.recover(s, now)).isTrue();
+        }
+    }
+
+    private static void drainUntilIdle(SchedulerShard shard, int expectedHeld) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        do {
+            Thread.sleep(10);
+            shard.drainDueAndDispatch();
+        } while ((shard.stateCount() != expectedHeld || shard.inFlightSends() > 0)
+                && System.currentTimeMillis() < deadline);
+    }
+
+    @Test
+    void dueRetriesGoOutInFullBatchesPlusOneRemainder() throws Exception {
+        BulkGateway gateway = new BulkGateway();
+        SchedulerShard shard = shard(gateway, 4, 10_000, 64);
+        try {
+            scheduleDue(shard, "a", "b", "c-f", "d", "e", "f", "g-f", "h", "i", "j");
+            drainUntilIdle(shard, 2);
+
+            assertThat(gateway.batchSizes).containsExactly(4, 4, 2);
+            assertThat(gateway.singleSends).isEqualTo(0);
+            // per-message outcomes: the failed ones stay with their next attempt scheduled
+            assertThat(shard.stateCount()).isEqualTo(2);
+            assertThat(shard.getState("c-f").attemptCount).isEqualTo(2);
+            assertThat(shard.getState("a")).isNull();
+            assertThat(shard.recentSuccess(100)).hasSize(8);
+        } finally {
+            shard.shutdown();
+        }
+    }
+
+    @Test
+    void aBatchIsCutAtTheDelayBudgetAndByTheInFlightLimit() throws Exception {
+        // a zero budget cuts every batch at its first entry
+        BulkGateway unbatched = new BulkGateway();
+        SchedulerShard eager = shard(unbatched, 4, 0, 64);
+        try {
+            scheduleDue(eager, "a", "b", "c");
+            drainUntilIdle(eager, 0);
+            assertThat(unbatched.batchSizes).containsExactly(1, 1, 1);
+        } finally {
+            eager.shutdown();
+        }
+
+        // 3 permits: the rest wait on the wheel for the next drain
+        BulkGateway limited = new BulkGateway();
+        SchedulerShard shard = shard(limited, 4, 10_000, 3);
+        try {
+            scheduleDue(shard, "a", "b", "c", "d", "e");
+            drainUntilIdle(shard, 0);
+            assertThat(limited.batchSizes.get(0)).isEqualTo(3);
+            assertThat(limited.batchSizes.stream().mapToInt(Integer::intValue).sum()).isEqualTo(5);
+            assertThat(shard.recentSuccess(100)).hasSize(5);
+        } finally {
+            shard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MockSendGatewayTest {
+
+    private static final Message MSG = new Message("m-1", "+15550100", "hi");
+
+    @Test
+    void latencyFollowsTheConfiguredDistribution() {
+        assertThat(stats(new MockSendGateway(1.0, "none", 20, 0))).containsExactly(0L, 0L, 0L);
+        assertThat(stats(new MockSendGateway(1.0, "fixed", 20, 0))).containsExactly(20L, 20L, 20L);
+
+        // uniform over [0, 2 * mean]
+        long[] uniform = stats(new MockSendGateway(1.0, "uniform", 20, 0));
+        assertThat(uniform[0]).isLessThan(2L);
+        assertThat(uniform[1]).isBetween(18L, 22L);
+        assertThat(uniform[2]).isBetween(38L, 40L);
+
+        // exponential: mean as configured, long tail cut at maxMs (10 x mean when unset)
+        long[] exponential = stats(new MockSendGateway(1.0, "exponential", 20, 0));
+        assertThat(exponential[0]).isEqualTo(0L);
+        assertThat(exponential[1]).isBetween(18L, 22L);
+        assertThat(exponential[2]).isBetween(100L, 200L);
+        assertThat(stats(new MockSendGateway(1.0, "exponential", 20, 30))[2]).isEqualTo(30L);
+
+        assertThatThrownBy(() -> new MockSendGateway(1.0, "normal", 20, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void asyncSendsCompleteAfterTheirLatencyWithoutBlockingTheCaller() throws Exception {
+        MockSendGateway gateway = new MockSendGateway(1.0, "fixed", 100, 0);
+        try {
+            long startNs = System.nanoTime();
+            CompletableFuture<Boolean> f = gateway.sendAsync(MSG);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)).isLessThan(50L);
+            assertThat(f.isDone()).isFalse();
+
+            assertThat(f.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)).isGreaterThanOrEqualTo(95L);
+        } finally {
+            gateway.shutdown();
+        }
+    }
+
+    @Test
+    void successRateFollowsTheSchedule() throws Exception {
+        MockSendGateway gateway = new MockSendGateway(1.0, "none", 0, 0, "0:0, 150ms:1", "");
+        try {
+            for (int i = 0; i < 100; i++)
+                assertThat(gateway.send(MSG)).isFalse();
+            Thread.sleep(200);
+            for (int i = 0; i < 100; i++)
+                assertThat(gateway.send(MSG)).isTrue();
+        } finally {
+            gateway.shutdown();
+        }
+    }
+
+    @Test
+    void sendsErrorDuringAnOutageWindow() throws Exception {
+        MockSendGateway gateway = new MockSendGateway(1.0, "fixed", 5, 0, "", "0+150ms");
+        try {
+            assertThat(gateway.inOutage(100)).isTrue();
+            assertThat(gateway.inOutage(150)).isFalse();
+            assertThatThrownBy(() -> gateway.send(MSG)).isInstanceOf(IllegalStateException.class);
+            assertThatThrownBy(() -> gateway.sendAsync(MSG).get()).isInstanceOf(ExecutionException.class);
+            assertThat(gateway.outageErrorCount()).isEqualTo(2L);
+
+            Thread.sleep(200);
+            assertThat(gateway.send(MSG)).isTrue();
+            assertThat(gateway.sendAsync(MSG).get()).isTrue();
+        } finally {
+            gateway.shutdown();
+        }
+        assertThatThrownBy(() -> new MockSendGateway(1.0, "none", 0, 0, "", "5m"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // {min, mean, max} of 20k sampled latencies
+    private static long[] stats(MockSendGateway gateway) {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long sum = 0;
+        int n = 20_000;
+        for (int i = 0; i < n; i++) {
+            long ms = gateway.sampleLatencyMs();
+            min = Math.min(min, ms);
+            max = Math.max(max, ms);
+            sum += ms;
+        }
+        gateway.shutdown();
+        return new long[] { min, Math.round((double) sum / n), max };
+    }
+}
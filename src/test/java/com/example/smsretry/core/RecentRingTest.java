@@ -0,0 +1,82 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.RecentOutcome;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecentRingTest {
+
+    private static RecentOutcome outcome(int i) {
+        return new RecentOutcome("m" + i, 1, MessageStatus.SUCCESS, 1_000L + i, null);
+    }
+
+    @Test
+    void keepsTheLatestEntriesNewestFirst() {
+        RecentRing ring = new RecentRing(8);
+        for (int i = 0; i < 20; i++)
+            ring.add(outcome(i));
+
+        List<String> ids = new ArrayList<>();
+        for (RecentOutcome o : ring.latest(100))
+            ids.add(o.messageId());
+        assertThat(ids).isEqualTo(List.of("m19", "m18", "m17", "m16", "m15", "m14", "m13", "m12"));
+        assertThat(ring.latest(3)).hasSize(3);
+    }
+
+    @Test
+    void concurrentWritersNeverTearReads() throws Exception {
+        RecentRing ring = new RecentRing(64);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int base = w * 100_000;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++)
+                    ring.add(outcome(base + i));
+            });
+            writers.add(t);
+            t.start();
+        }
+        // write order: each writer's own outcomes come out newest first
+        while (writers.get(0).isAlive()) {
+            List<RecentOutcome> latest = ring.latest(64);
+            assertThat(latest.size() <= 64).isTrue();
+            long[] last = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            for (RecentOutcome o : latest) {
+                int w = (int) ((o.finalTimestampMs() - 1_000L) / 100_000);
+                assertThat(o.finalTimestampMs() < last[w]).isTrue();
+                last[w] = o.finalTimestampMs();
+            }
+        }
+        for (Thread t : writers)
+            t.join();
+        assertThat(ring.latest(64)).hasSize(64);
+    }
+
+    @Test
+    void readersOfSeveralRingsMergeByTheirNextEntry() {
+        RecentRing even = new RecentRing(8);
+        RecentRing odd = new RecentRing(8);
+        for (int i = 0; i < 12; i++)
+            (i % 2 == 0 ? even : odd).add(outcome(i));
+
+        PriorityQueue<RecentRing.Reader> heap = new PriorityQueue<>(RecentRing.NEWEST_HEAD_FIRST);
+        heap.add(even.reader());
+        heap.add(odd.reader());
+        List<String> ids = new ArrayList<>();
+        while (!heap.isEmpty() && ids.size() < 10) {
+            RecentRing.Reader r = heap.poll();
+            ids.add(r.head().messageId());
+            r.advance();
+            if (r.head() != null)
+                heap.add(r);
+        }
+        assertThat(ids).isEqualTo(List.of("m11", "m10", "m9", "m8", "m7", "m6", "m5", "m4", "m3", "m2"));
+        assertThat(new RecentRing(8).reader().head()).isNull();
+    }
+}
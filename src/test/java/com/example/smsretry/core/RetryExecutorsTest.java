@@ -0,0 +1,100 @@
+package com.example.smsretry.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryExecutorsTest {
+
+    @Test
+    void hotLaneBorrowsIdleThreadsWithoutStarvingAQuietOne() throws Exception {
+        RetryExecutors executors = RetryExecutors.shared(2, 4);
+        RetryExecutor hot = executors.forShard(1_000);
+        RetryExecutor quiet = executors.forShard(1_000);
+        try {
+            CountDownLatch hotDone = new CountDownLatch(200);
+            long start = System.nanoTime();
+            for (int i = 0; i < 200; i++) {
+                hot.execute(() -> {
+                    sleep(5);
+                    hotDone.countDown();
+                });
+            }
+            Thread.sleep(20);
+            AtomicLong waitedMs = new AtomicLong(-1);
+            CountDownLatch quietDone = new CountDownLatch(1);
+            long queuedAt = System.nanoTime();
+            quiet.execute(() -> {
+                waitedMs.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedAt));
+                quietDone.countDown();
+            });
+
+            assertThat(quietDone.await(5, TimeUnit.SECONDS)).isTrue();
+            // behind at most a quantum per thread, not the ~1s of hot work still queued
+            assertThat(waitedMs.get()).isLessThan(150L);
+            assertThat(hotDone.await(5, TimeUnit.SECONDS)).isTrue();
+            // 200 x 5ms on both threads, not one
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(900L);
+        } finally {
+            executors.shutdown();
+        }
+    }
+
+    @Test
+    void laneQueueIsBoundedAndRefusesWorkOnceShutDown() throws Exception {
+        RetryExecutors executors = RetryExecutors.shared(1, 16);
+        RetryExecutor lane = executors.forShard(2);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger ran = new AtomicInteger();
+            lane.execute(() -> {
+                started.countDown();
+                await(release);
+            });
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            lane.execute(ran::incrementAndGet);
+            lane.execute(ran::incrementAndGet);
+            assertThat(lane.queueDepth()).isEqualTo(2);
+            assertThat(lane.activeThreads()).isEqualTo(1);
+            assertThatThrownBy(() -> lane.execute(ran::incrementAndGet))
+                    .isInstanceOf(RejectedExecutionException.class);
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (ran.get() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertThat(ran.get()).isEqualTo(2);
+
+            lane.shutdown();
+            assertThatThrownBy(() -> lane.execute(ran::incrementAndGet))
+                    .isInstanceOf(RejectedExecutionException.class);
+        } finally {
+            executors.shutdown();
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
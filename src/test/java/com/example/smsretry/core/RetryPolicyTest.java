@@ -0,0 +1,129 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.RecentOutcome;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryPolicyTest {
+
+    private static MessageState state(String id) {
+        return MessageState.fromMessage(new Message(id, "+15550100", "hi"), 1_000_000L);
+    }
+
+    @Test
+    void specPolicyIsTheFixedTable() {
+        RetryPolicies policies = RetryPolicies.spec();
+        RetryPolicy spec = policies.of(null);
+        MessageState s = state("m-1");
+
+        assertThat(spec.name()).isEqualTo(RetryPolicies.SPEC);
+        assertThat(spec.maxAttempts()).isEqualTo(6);
+        for (int a = 2; a <= 6; a++)
+            assertThat(spec.dueAtMs(s, a)).isEqualTo(s.arrivalAtMs + RetryDelays.delayFromArrivalMs(a));
+        // unknown names (e.g. a policy removed from the config) fall back to the default
+        assertThat(policies.of("gone")).isSameAs(spec);
+    }
+
+    @Test
+    void parsesNamedPoliciesAndRejectsBadOnes() {
+        RetryPolicies policies = new RetryPolicies("otp=0|250|1000/both:0.9, slow=0|60000", "slow");
+
+        assertThat(policies.has("otp")).isTrue();
+        assertThat(policies.has(RetryPolicies.SPEC)).isTrue();
+        assertThat(policies.defaultPolicy().name()).isEqualTo("slow");
+        assertThat(policies.of("otp").maxAttempts()).isEqualTo(3);
+        assertThat(policies.of("otp").ratio()).isEqualTo(0.5); // both: capped at half the gap
+        assertThat(policies.maxAttempts()).isEqualTo(6);
+
+        assertThatThrownBy(() -> new RetryPolicies("x=0|500/sideways", "spec"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RetryPolicies("x=0|500|200", "spec"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new RetryPolicies("", "missing"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void jitterStaysInBoundsAndSpreadsABurst() {
+        RetryPolicy up = RetryPolicy.parse("smooth", "0|500|2000/up:0.5");
+        RetryPolicy both = RetryPolicy.parse("spread", "0|500|2000/both:0.5");
+        int[] buckets = new int[10];
+        for (int i = 0; i < 10_000; i++) {
+            MessageState s = state("burst-" + i);
+            long upDelay = up.dueAtMs(s, 3) - s.arrivalAtMs;
+            long bothDelay = both.dueAtMs(s, 3) - s.arrivalAtMs;
+
+            assertThat(up.dueAtMs(s, 1)).isEqualTo(s.arrivalAtMs);
+            assertThat(upDelay).isBetween(2000L, 2750L); // gap 1500ms, up to +50%
+            assertThat(bothDelay).isBetween(1250L, 2750L);
+            assertThat(up.dueAtMs(s, 3)).isEqualTo(up.dueAtMs(state("burst-" + i), 3));
+            buckets[(int) Math.min(9, (upDelay - 2000) / 75)]++;
+        }
+        // the retries that all fell on +2000ms are spread over ten 75ms slices
+        for (int n : buckets)
+            assertThat(n).isBetween(800, 1200);
+    }
+
+    @Test
+    void shardFailsAMessageAfterItsPolicysAttempts() throws Exception {
+        AtomicInteger sends = new AtomicInteger();
+        SendGateway gateway = m -> {
+            sends.incrementAndGet();
+            return false;
+        };
+        StateStore noop = new StateStore() {
+            @Override
+            public void enqueue(StateUpdate update) {
+            }
+
+            @Override
+            public List<MessageState> loadPendingAll() {
+                return List.of();
+            }
+        };
+        RetryPolicies policies = new RetryPolicies("quick=0|20|40", "spec");
+        SmsRetryEngine engine = SmsRetryEngine.builder(gateway, noop)
+                .policies(policies)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(1)
+                        .maxInFlightPerShard(16)
+                        .wheel(5, 256)
+                        .batch(1, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 1_000)
+                        .dispatchMode("event")
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+        try {
+            String id = engine.accept(new Message(null, "+15550100", "hi"), "quick").messageId();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (engine.getRecentFailed(10).isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            List<RecentOutcome> failed = engine.getRecentFailed(10);
+            assertThat(failed).hasSize(1);
+            assertThat(failed.get(0).messageId()).isEqualTo(id);
+            assertThat(failed.get(0).attemptCount()).isEqualTo(3);
+            assertThat(failed.get(0).status()).isEqualTo(MessageStatus.FAILED);
+            assertThat(sends.get()).isEqualTo(3);
+            assertThatThrownBy(() -> engine.accept(new Message(null, "+15550100", "hi"), "nope"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.model.RecentOutcome;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardMemoryTest {
+
+    // records every update with the number of states the shard held when it arrived
+    private static final class RecordingStore implements StateStore {
+        final List<StateUpdate> updates = new ArrayList<>();
+        final List<Integer> heldAtEnqueue = new ArrayList<>();
+        SchedulerShard shard;
+
+        @Override
+        public synchronized void enqueue(StateUpdate update) {
+            updates.add(update);
+            heldAtEnqueue.add(shard.stateCount());
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            return List.of();
+        }
+    }
+
+    // attempt #1 of a message whose id starts with "retry" fails, everything else goes through
+    private static final class FirstTryGateway implements SendGateway {
+        final Map<String, Integer> sends = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean send(Message message) {
+            int n = sends.merge(message.messageId(), 1, Integer::sum);
+            return n > 1 || !message.messageId().startsWith("retry");
+        }
+    }
+
+    private static SchedulerShard shard(SendGateway gateway, RecordingStore store, long budgetBytes) {
+        SchedulerShard shard = new SchedulerShard(RetryExecutor.dedicated(1), gateway, store,
+                EngineSettings.builder()
+                        .maxInFlightPerShard(16)
+                        .wheel(5, 64)
+                        .memoryBudgetBytesPerShard(budgetBytes)
+                        .tombstones(60_000, 100)
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(256)
+                        .build(),
+                CarrierRouter.unlimited(), new RetryPolicies("quick=0|30|60", "quick"), CircuitBreaker.disabled());
+        store.shard = shard;
+        return shard;
+    }
+
+    private static MessageState message(String id) {
+        return MessageState.fromMessage(new Message(id, "+15551234567", "hello"), System.currentTimeMillis());
+    }
+
+    @Test
+    void budgetCountsHeldBytesAndIsFreedByTerminalEviction() {
+        RecordingStore store = new RecordingStore();
+        SchedulerShard shard = shard(new FirstTryGateway(), store, 4096);
+        try {
+            List<MessageState> admitted = new ArrayList<>();
+            while (true) {
+                MessageState s = message("m" + admitted.size());
+                long before = shard.stateBytes();
+                try {
+                    shard.admit(s);
+                } catch (CapacityExceededException e) {
+                    assertThat(shard.stateBytes()).isEqualTo(before);
+                    break;
+                }
+                admitted.add(s);
+                assertThat(shard.stateBytes()).isGreaterThan(before);
+            }
+            assertThat(admitted.size()).isGreaterThan(1);
+            assertThat(shard.stateCount()).isEqualTo(admitted.size());
+            assertThat(shard.stateBytes()).isLessThanOrEqualTo(4096L);
+            assertThat(shard.memorySaturation() > 0.5).isTrue();
+            assertThat(shard.rejectedCount()).isEqualTo(1L);
+
+            for (MessageState s : admitted)
+                shard.submitFirstAttempt(s);
+
+            assertThat(shard.stateCount()).isEqualTo(0);
+            assertThat(shard.stateBytes()).isEqualTo(0L);
+            assertThat(shard.evictedCount()).isEqualTo((long) admitted.size());
+            assertThat(shard.tombstoneCount()).isEqualTo(admitted.size());
+            assertThat(shard.isRecentlyTerminal("m0")).isTrue();
+            shard.admit(message("after"));
+            assertThat(shard.stateCount()).isEqualTo(1);
+        } finally {
+            shard.shutdown();
+        }
+    }
+
+    @Test
+    void onlyTerminalMessagesAreEvictedInTheOrderTheyFinish() {
+        RecordingStore store = new RecordingStore();
+        SchedulerShard shard = shard(new FirstTryGateway(), store, 0);
+        try {
+            String[] ids = {"a", "retry-b", "c", "retry-d", "e"};
+            for (String id : ids) {
+                MessageState s = message(id);
+                shard.admit(s);
+                shard.submitFirstAttempt(s);
+            }
+
+            // the failed ones are still held, with their first attempt spent
+            assertThat(shard.stateCount()).isEqualTo(2);
+            assertThat(shard.getState("retry-b").attemptCount).isEqualTo(1);
+            assertThat(shard.getState("a")).isNull();
+            assertThat(shard.evictedCount()).isEqualTo(3L);
+            assertThat(shard.recentSuccess(10).stream().map(RecentOutcome::messageId).toList())
+                    .containsExactly("e", "c", "a");
+
+            // a terminal state leaves only after its update was handed to the store
+            for (int i = 0; i < store.updates.size(); i++) {
+                if (store.updates.get(i).kind == StateUpdate.Kind.SUCCESS)
+                    assertThat(store.heldAtEnqueue.get(i)).isGreaterThan(0);
+            }
+        } finally {
+            shard.shutdown();
+        }
+    }
+
+    // Only terminal states are evicted, so a retry that comes due still finds its state;
+    // once it finishes, a stale pending copy (e.g. a late store read) cannot bring it back.
+    @Test
+    void dueRetryFindsItsStateAndAStaleCopyCannotRehydrateItAfterEviction() throws Exception {
+        RecordingStore store = new RecordingStore();
+        FirstTryGateway gateway = new FirstTryGateway();
+        SchedulerShard shard = shard(gateway, store, 0);
+        try {
+            MessageState s = message("retry-x");
+            shard.admit(s);
+            shard.submitFirstAttempt(s);
+            MessageState stale = shard.getState("retry-x");
+            assertThat(stale.status).isEqualTo(MessageStatus.PENDING);
+            assertThat(shard.pendingScheduled()).isEqualTo(1L);
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (shard.stateCount() > 0 && System.currentTimeMillis() < deadline) {
+                shard.drainDueAndDispatch();
+                Thread.sleep(5);
+            }
+            assertThat(shard.stateCount()).isEqualTo(0);
+            assertThat(gateway.sends.get("retry-x")).isEqualTo(2);
+            assertThat(store.updates.get(store.updates.size() - 1).kind).isEqualTo(StateUpdate.Kind.SUCCESS);
+
+            MessageState copy = MessageState.fromMessage(stale.toMessage(), stale.arrivalAtMs);
+            copy.attemptCount = 1;
+            assertThat(shard.recover(copy, System.currentTimeMillis())).isFalse();
+            assertThat(shard.stateCount()).isEqualTo(0);
+            assertThat(shard.pendingScheduled()).isEqualTo(0L);
+            assertThat(shard.getState("retry-x")).isNull();
+        } finally {
+            shard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.InMemoryS3Client;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardSnapshotTest {
+
+    private static final int MESSAGES = 200;
+
+    @Test
+    void gracefulShutdownRestartsFromTheSnapshotWithoutReadingTheStore() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        ShardSnapshot snapshot = new ShardSnapshot(true, Files.createTempDirectory("snapshot").resolve("shards"), 4,
+                5_000);
+
+        S3StateStore store = store(s3);
+        SmsRetryEngine engine = engine(store, snapshot);
+        for (int i = 0; i < MESSAGES; i++)
+            engine.accept(new Message(null, "+1555010" + i, "hi " + i));
+        String clientId = engine.accept(new Message("client-1", "+15550100", "hi")).messageId();
+        engine.shutdown();
+        store.close();
+        assertThat(Files.exists(snapshot.path())).isTrue();
+        assertThatThrownBy(() -> engine.accept(new Message(null, "+15550100", "late")))
+                .isInstanceOfSatisfying(OverloadedException.class,
+                        e -> assertThat(e.reason()).isEqualTo(SmsRetryEngine.SHUTTING_DOWN));
+
+        long gets = s3.getCount();
+        S3StateStore next = store(s3);
+        SmsRetryEngine restarted = engine(next, snapshot);
+        try {
+            restarted.recoverFromS3();
+            assertThat(restarted.recoveryProgress().source()).isEqualTo("snapshot");
+            assertThat(restarted.recoveryProgress().loadedCount()).isEqualTo(MESSAGES + 1L);
+            assertThat(pending(restarted)).isEqualTo(MESSAGES + 1L);
+            assertThat(s3.getCount()).isEqualTo(gets); // listings only
+            assertThat(Files.exists(snapshot.path())).isFalse();
+
+            MessageState s = restarted.shard(restarted.shardIndexFor(clientId)).getState(clientId);
+            assertThat(s.attemptCount).isEqualTo(1);
+            assertThat(s.nextDueAtMs).isGreaterThan(s.arrivalAtMs);
+        } finally {
+            restarted.shutdown();
+            next.close();
+        }
+    }
+
+    @Test
+    void staleOrCorruptSnapshotFallsBackToTheStore() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        ShardSnapshot snapshot = new ShardSnapshot(true, Files.createTempDirectory("snapshot").resolve("shards"), 4,
+                5_000);
+
+        S3StateStore store = store(s3);
+        SmsRetryEngine engine = engine(store, snapshot);
+        for (int i = 0; i < MESSAGES; i++)
+            engine.accept(new Message(null, "+1555010" + i, "hi " + i));
+        engine.shutdown();
+        store.close();
+
+        // another writer got to the bucket after the seal
+        S3StateStore other = store(s3);
+        MessageState late = MessageState.fromMessage(new Message("late-1", "+15550100", "hi"),
+                System.currentTimeMillis());
+        other.enqueue(StateUpdate.pending(late));
+        assertThat(other.awaitPersisted(5_000)).isTrue();
+        other.close();
+
+        S3StateStore next = store(s3);
+        SmsRetryEngine restarted = engine(next, snapshot);
+        restarted.recoverFromS3();
+        assertThat(restarted.recoveryProgress().source()).isEqualTo("store");
+        assertThat(pending(restarted)).isEqualTo(MESSAGES + 1L);
+        assertThat(Files.exists(snapshot.path())).isFalse();
+        restarted.shutdown();
+        next.close();
+
+        // a valid seal, but a flipped bit in a section
+        byte[] bytes = Files.readAllBytes(snapshot.path());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(snapshot.path(), bytes);
+        S3StateStore last = store(s3);
+        SmsRetryEngine again = engine(last, snapshot);
+        try {
+            again.recoverFromS3();
+            assertThat(again.recoveryProgress().source()).isEqualTo("store");
+            assertThat(pending(again)).isEqualTo(MESSAGES + 1L);
+        } finally {
+            again.shutdown();
+            last.close();
+        }
+    }
+
+    private static S3StateStore store(InMemoryS3Client s3) {
+        return new S3StateStore(s3, "snapshot-test", S3Writer.Layout.SEGMENTS, false, 0);
+    }
+
+    // never delivers, so every message stays pending after attempt #1
+    private static SmsRetryEngine engine(S3StateStore store, ShardSnapshot snapshot) {
+        return SmsRetryEngine.builder(new MockSendGateway(0.0, "none", 0, 0), store)
+                .executors(RetryExecutors.perShard(1))
+                .snapshot(snapshot)
+                .settings(EngineSettings.builder()
+                        .shards(4)
+                        .wheel(10, 256)
+                        .batch(1, 5)
+                        .recoverAsync(false)
+                        .memoryBudgetMbPerShard(0)
+                        .tombstones(60_000, 1_000)
+                        .recentCapacity(100)
+                        .timelineCapacityPerShard(1024)
+                        .build())
+                .build();
+    }
+
+    private static long pending(SmsRetryEngine engine) {
+        long n = 0;
+        for (int i = 0; i < engine.shardCount(); i++)
+            n += engine.shard(i).stateCount();
+        return n;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.smsretry.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlotIndexTest {
+
+    @Test
+    void findsCollidingIdsAfterRemovalsAndGrowth() {
+        // "Aa" and "BB" share a hashCode, so do all 2^n concatenations of them
+        String[] ids = new String[64];
+        for (int i = 0; i < ids.length; i++) {
+            StringBuilder b = new StringBuilder();
+            for (int bit = 0; bit < 6; bit++)
+                b.append((i >> bit & 1) == 0 ? "Aa" : "BB");
+            ids[i] = b.toString();
+        }
+        String[] slots = new String[4];
+        SlotIndex index = new SlotIndex(slots.length, (slot, id) -> id.equals(slots[slot]));
+        for (int i = 0; i < 4; i++) {
+            slots[i] = ids[i];
+            index.add(i, ids[i]);
+        }
+
+        // one probe chain: removing from its middle must keep the rest reachable
+        index.remove(1);
+        slots[1] = null;
+        assertThat(index.find(ids[0])).isEqualTo(0);
+        assertThat(index.find(ids[1])).isEqualTo(-1);
+        assertThat(index.find(ids[2])).isEqualTo(2);
+        assertThat(index.find(ids[3])).isEqualTo(3);
+
+        String[] grown = new String[ids.length];
+        SlotIndex big = new SlotIndex(4, (slot, id) -> id.equals(grown[slot]));
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 4 == 0)
+                big.growSlots(i + 4);
+            grown[i] = ids[i];
+            big.add(i, ids[i]);
+        }
+        for (int i = 0; i < ids.length; i += 3) {
+            big.remove(i);
+            grown[i] = null;
+        }
+        for (int i = 0; i < ids.length; i++)
+            assertThat(big.find(ids[i])).isEqualTo(i % 3 == 0 ? -1 : i);
+        assertThat(big.find("AaAa")).isEqualTo(-1);
+    }
+}
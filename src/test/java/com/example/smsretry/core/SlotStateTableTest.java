@@ -0,0 +1,96 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlotStateTableTest {
+
+    private static MessageState state(String id) {
+        return MessageState.fromMessage(new Message(id, "+15551234567", "body " + id), 1_000L);
+    }
+
+    @Test
+    void survivesChurnAcrossGrowthAndSlotReuse() {
+        SlotStateTable table = new SlotStateTable(16);
+        List<ScheduledItem> items = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            MessageState s = state("msg-" + i);
+            table.put(s);
+            items.add(table.itemFor(s, 2_000L));
+        }
+        // drop every other message, then refill: freed slots get reused
+        for (int i = 0; i < 5_000; i += 2)
+            assertThat(table.remove(table.get("msg-" + i))).isTrue();
+        for (int i = 0; i < 2_500; i++)
+            table.put(state("new-" + i));
+
+        assertThat(table.size()).isEqualTo(5_000);
+        for (int i = 0; i < 5_000; i++) {
+            boolean kept = (i % 2 == 1);
+            assertThat(table.get("msg-" + i) != null).isEqualTo(kept);
+            // an item scheduled before its slot was freed must not resolve to the new occupant
+            MessageState viaItem = table.get(items.get(i));
+            assertThat(viaItem == null ? null : viaItem.messageId).isEqualTo(kept ? "msg-" + i : null);
+        }
+        for (int i = 0; i < 2_500; i++)
+            assertThat(table.get("new-" + i).body).isEqualTo("body new-" + i);
+    }
+
+    @Test
+    void updateWritesBackAndBytesReturnToZero() {
+        SlotStateTable table = new SlotStateTable(16);
+        String id = "m\u00fcller-1"; // non-ASCII id takes the slow compare path
+        MessageState s = state(id);
+        table.put(s);
+
+        MessageState copy = table.get(id);
+        copy.attemptCount = 3;
+        copy.nextDueAtMs = 9_000L;
+        copy.lastError = "timeout";
+        table.update(copy);
+
+        MessageState again = table.get(id);
+        assertThat(again.attemptCount).isEqualTo(3);
+        assertThat(again.nextDueAtMs).isEqualTo(9_000L);
+        assertThat(again.lastError).isEqualTo("timeout");
+        assertThat(again.status).isEqualTo(MessageStatus.PENDING);
+        assertThat(table.isPending(id)).isTrue();
+
+        assertThat(table.remove(again)).isTrue();
+        assertThat(table.bytes()).isEqualTo(0L);
+        assertThat(table.get(id)).isEqualTo(null);
+    }
+
+    // like the map layout, which removes only if the object passed is still the one held
+    @Test
+    void staleCopiesNeitherUpdateNorRemoveANewerIncarnation() {
+        SlotStateTable table = new SlotStateTable(16);
+        MessageState admitted = state("m-1");
+        table.put(admitted);
+        MessageState stale = table.get("m-1");
+        assertThat(table.remove(admitted)).isTrue();
+
+        // same id again, into the freed slot
+        table.put(state("m-1"));
+        stale.attemptCount = 5;
+        table.update(stale);
+        assertThat(table.remove(stale)).isFalse();
+        assertThat(table.remove(state("m-1"))).isFalse(); // never came from the table
+        assertThat(table.get("m-1").attemptCount).isEqualTo(0);
+
+        MessageState current = table.get("m-1");
+        current.attemptCount = 2;
+        table.update(current);
+        assertThat(table.get("m-1").attemptCount).isEqualTo(2);
+        assertThat(table.remove(current)).isTrue();
+        assertThat(table.remove(current)).isFalse();
+        assertThat(table.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageIds;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.store.InMemoryS3Client;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StoreLookupCacheTest {
+
+    @Test
+    void readsTerminalStateFromTheDefaultLayoutAndCachesIt() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, "lookup-test", S3Writer.Layout.OBJECTS, false, 0);
+        String id = MessageIds.format(new MessageIds(0, 4).next(1));
+        MessageState s = MessageState.fromMessage(new Message(id, "+15550000", "hello"), System.currentTimeMillis());
+        s.status = MessageStatus.SUCCESS;
+        store.enqueue(StateUpdate.success(s));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+
+        StoreLookupCache cache = new StoreLookupCache(store, 100, 60_000);
+        assertThat(cache.get(id).status).isEqualTo(MessageStatus.SUCCESS);
+        assertThat(cache.get("client-1")).isNull();
+        long gets = s3.getCount();
+        assertThat(cache.get(id).status).isEqualTo(MessageStatus.SUCCESS);
+        assertThat(cache.get("client-1")).isNull();
+        assertThat(s3.getCount()).isEqualTo(gets);
+    }
+
+    @Test
+    void skipsAStoreThatCannotLookUpById() {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, "lookup-test", S3Writer.Layout.SEGMENTS, false, 0);
+        StoreLookupCache cache = new StoreLookupCache(store, 100, 60_000);
+
+        assertThat(store.supportsLookup()).isFalse();
+        assertThat(cache.get("client-1")).isNull();
+        assertThat(s3.getCount()).isEqualTo(0L);
+    }
+}
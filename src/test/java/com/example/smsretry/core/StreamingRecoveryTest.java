@@ -0,0 +1,104 @@
+package com.example.smsretry.core;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import com.example.smsretry.store.RecoveryProgress;
+import com.example.smsretry.store.StateStore;
+import com.example.smsretry.store.StateUpdate;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingRecoveryTest {
+
+    // hands out `count` pending states (plus one terminal) once the test opens the gate
+    private static final class GatedStore implements StateStore {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final int count;
+
+        GatedStore(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void enqueue(StateUpdate update) {
+        }
+
+        @Override
+        public List<MessageState> loadPendingAll() {
+            throw new UnsupportedOperationException("recovery must stream");
+        }
+
+        @Override
+        public void loadPending(Consumer<MessageState> sink, RecoveryProgress progress) {
+            progress.start(1);
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < count; i++) {
+                    MessageState s = MessageState.fromMessage(new Message("r" + i, "+15550100", "hi"), now);
+                    s.attemptCount = 1;
+                    s.nextDueAtMs = now + 60_000;
+                    sink.accept(s);
+                    progress.loaded();
+                }
+                MessageState done = MessageState.fromMessage(new Message("done", "+15550100", "hi"), now);
+                done.status = MessageStatus.SUCCESS;
+                sink.accept(done);
+                progress.unitDone();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                progress.finish();
+            }
+        }
+    }
+
+    @Test
+    void servesWhileRecoveryStreamsStatesIntoTheirShards() throws Exception {
+        GatedStore store = new GatedStore(200);
+        SmsRetryEngine engine = SmsRetryEngine.builder(m -> false, store)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(4)
+                        .recoverAsync(true)
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+        try {
+            engine.recoverFromS3();
+            assertThat(engine.recoveryProgress().isDone()).isFalse();
+
+            // accepted before its stored copy streams in: the live state wins
+            SmsRetryEngine.Accepted a = engine.accept(new Message("r7", "+15550100", "new"));
+            assertThat(a.duplicate()).isFalse();
+            assertThat(engine.status("r7")).isNotNull();
+
+            store.gate.countDown();
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!engine.recoveryProgress().isDone() && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+
+            assertThat(engine.recoveryProgress().loadedCount()).isEqualTo(200L);
+            int held = 0;
+            long scheduled = 0;
+            for (int i = 0; i < engine.shardCount(); i++) {
+                held += engine.shard(i).stateCount();
+                scheduled += engine.shard(i).pendingScheduled();
+                assertThat(engine.shard(i).stateCount()).isGreaterThan(0);
+            }
+            assertThat(held).isEqualTo(200);
+            assertThat(scheduled).isEqualTo(200L);
+            assertThat(engine.shard(engine.shardIndexFor("r7")).getState("r7").body).isEqualTo("new");
+            assertThat(engine.status("done")).isNull();
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
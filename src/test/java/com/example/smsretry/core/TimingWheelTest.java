@@ -0,0 +1,100 @@
+package com.example.smsretry.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimingWheelTest {
+
+    @Test
+    void nextDueIsTheEarliestItemWithinOneRevolution() {
+        TimingWheel wheel = new TimingWheel(10, 64); // 640ms per revolution
+        assertThat(wheel.nextDueMs()).isEqualTo(0L); // not drained yet
+        wheel.drainDue(1_000, item -> { });
+        assertThat(wheel.nextDueMs()).isEqualTo(Long.MAX_VALUE);
+
+        wheel.schedule(new ScheduledItem("far", 1_000 + 640 + 5)); // next revolution, same bucket as 1_005
+        wheel.schedule(new ScheduledItem("b", 1_250));
+        wheel.schedule(new ScheduledItem("a", 1_007));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_007L);
+
+        List<String> fired = new ArrayList<>();
+        wheel.drainDue(1_100, item -> fired.add(item.messageId));
+        assertThat(fired).isEqualTo(List.of("a"));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_250L);
+
+        wheel.drainDue(1_300, item -> fired.add(item.messageId));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_645L);
+        wheel.drainDue(1_645, item -> fired.add(item.messageId));
+        assertThat(fired).isEqualTo(List.of("a", "b", "far"));
+    }
+
+    @Test
+    void itemsSharingABucketFireOnlyWhenDue() {
+        TimingWheel wheel = new TimingWheel(10, 64);
+        wheel.drainDue(1_000, item -> { });
+        // 1_003 and 1_008 share a tick; 1_643 is the same bucket one revolution later
+        wheel.schedule(new ScheduledItem("later", 1_643));
+        wheel.schedule(new ScheduledItem("b", 1_008));
+        wheel.schedule(new ScheduledItem("a", 1_003));
+
+        List<String> fired = new ArrayList<>();
+        assertThat(wheel.drainDue(1_005, item -> fired.add(item.messageId))).isEqualTo(1);
+        assertThat(fired).isEqualTo(List.of("a"));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_008L);
+        assertThat(wheel.drainDue(1_009, item -> fired.add(item.messageId))).isEqualTo(1);
+        assertThat(wheel.nextDueMs()).isEqualTo(1_643L);
+        assertThat(wheel.drainDue(1_642, item -> fired.add(item.messageId))).isEqualTo(0);
+        assertThat(wheel.drainDue(1_643, item -> fired.add(item.messageId))).isEqualTo(1);
+        assertThat(fired).isEqualTo(List.of("a", "b", "later"));
+        assertThat(wheel.size()).isEqualTo(0L);
+        assertThat(wheel.nextDueMs()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void wrapsAroundTheBucketArrayAndCatchesUpAfterLongGaps() {
+        TimingWheel wheel = new TimingWheel(10, 64);
+        wheel.drainDue(6_300, item -> { }); // cursor on bucket 62 of 64
+        wheel.schedule(new ScheduledItem("wrap", 6_420)); // bucket 2 of the next pass
+        wheel.schedule(new ScheduledItem("overdue", 6_000)); // behind the cursor
+        wheel.schedule(new ScheduledItem("far", 6_300 + 3 * 640)); // three revolutions out
+        assertThat(wheel.nextDueMs()).isEqualTo(6_000L);
+
+        List<String> fired = new ArrayList<>();
+        wheel.drainDue(6_310, item -> fired.add(item.messageId));
+        assertThat(fired).isEqualTo(List.of("overdue"));
+        assertThat(wheel.nextDueMs()).isEqualTo(6_420L);
+        wheel.drainDue(6_420, item -> fired.add(item.messageId));
+        assertThat(fired).isEqualTo(List.of("overdue", "wrap"));
+        assertThat(wheel.nextDueMs()).isEqualTo(8_220L);
+
+        // each pass over its bucket before then leaves it in place
+        for (long now = 6_500; now < 8_220; now += 300)
+            wheel.drainDue(now, item -> fired.add(item.messageId));
+        assertThat(fired).hasSize(2);
+
+        // a stall longer than a revolution fires everything due, once
+        for (int i = 0; i < 10; i++)
+            wheel.schedule(new ScheduledItem("late-" + i, 8_300 + i * 100));
+        assertThat(wheel.drainDue(20_000, item -> fired.add(item.messageId))).isEqualTo(11);
+        assertThat(fired).hasSize(13);
+        assertThat(wheel.drainDue(20_000, item -> fired.add(item.messageId))).isEqualTo(0);
+        assertThat(wheel.nextDueMs()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    void clearEmptiesTheWheel() {
+        TimingWheel wheel = new TimingWheel(10, 64);
+        wheel.drainDue(1_000, item -> { });
+        wheel.schedule(new ScheduledItem("a", 1_050));
+        wheel.schedule(new ScheduledItem("b", 3_000));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_050L);
+        assertThat(wheel.clear(item -> { })).isEqualTo(2);
+        assertThat(wheel.nextDueMs()).isEqualTo(Long.MAX_VALUE);
+        wheel.schedule(new ScheduledItem("c", 1_200));
+        assertThat(wheel.nextDueMs()).isEqualTo(1_200L);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.smsretry.metrics;
+
+import com.example.smsretry.core.EngineSettings;
+import com.example.smsretry.core.RetryExecutors;
+import com.example.smsretry.core.SmsRetryEngine;
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.store.InMemoryS3Client;
+import com.example.smsretry.store.S3StateStore;
+import com.example.smsretry.store.S3Writer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EngineMetricsTest {
+
+    @Test
+    void exportsSendRecoveryShardAndWriterMeters() throws Exception {
+        S3StateStore store = new S3StateStore(new InMemoryS3Client(), "metrics-test", S3Writer.Layout.OBJECTS,
+                false, 0);
+        // attempt #1 of an id starting with "f" fails
+        SmsRetryEngine engine = SmsRetryEngine.builder(m -> !m.messageId().startsWith("f"), store)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(2)
+                        .recoverAsync(false)
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try {
+            engine.recoverFromS3();
+            new EngineMetrics(engine, store).bindTo(registry);
+            assertThat(registry.get("sms.recovery.done").gauge().value()).isEqualTo(1.0);
+            assertThat(registry.get("sms.recovery.loaded").functionCounter().count()).isEqualTo(0.0);
+
+            for (int i = 0; i < 8; i++)
+                engine.accept(new Message("s" + i, "+15550100", "hi"));
+            for (int i = 0; i < 3; i++)
+                engine.accept(new Message("f" + i, "+15550100", "hi"));
+
+            assertThat(registry.get("sms.send").tags("attempt", "1", "outcome", "success").timer().count())
+                    .isEqualTo(8L);
+            assertThat(registry.get("sms.send").tags("attempt", "1", "outcome", "failure").timer().count())
+                    .isEqualTo(3L);
+            assertThat(sum(registry, "sms.shard.states")).isEqualTo(3.0);
+            assertThat(sum(registry, "sms.shard.scheduled")).isEqualTo(3.0);
+            assertThat(registry.get("sms.shard.evicted").functionCounters().stream()
+                    .mapToDouble(c -> c.count()).sum()).isEqualTo(8.0);
+
+            assertThat(store.awaitPersisted(5_000)).isTrue();
+            assertThat(registry.get("sms.store.updates.written").functionCounter().count()).isEqualTo(11.0);
+            assertThat(registry.get("sms.store.put").functionTimer().count()).isEqualTo(11.0);
+            assertThat(registry.get("sms.store.queue.depth").gauge().value()).isEqualTo(0.0);
+        } finally {
+            engine.shutdown();
+            store.close();
+        }
+    }
+
+    @Test
+    void recordsHowLateADueRetryWentOut() throws Exception {
+        S3StateStore store = new S3StateStore(new InMemoryS3Client(), "metrics-test", S3Writer.Layout.OBJECTS,
+                false, 0);
+        SmsRetryEngine engine = SmsRetryEngine.builder(m -> true, store)
+                .executors(RetryExecutors.perShard(1))
+                .settings(EngineSettings.builder()
+                        .shards(1)
+                        .wheel(5, 64)
+                        .recoverAsync(false)
+                        .timelineCapacityPerShard(256)
+                        .build())
+                .build();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        try {
+            new EngineMetrics(engine, store).bindTo(registry);
+            long now = System.currentTimeMillis();
+            MessageState s = MessageState.fromMessage(new Message("late", "+15550100", "hi"), now - 10_000);
+            s.attemptCount = 1;
+            s.nextDueAtMs = now - 200;
+            engine.shard(0).recover(s, now);
+
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (engine.getRecentSuccess(10).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                engine.wakeup();
+            }
+
+            Timer lateness = registry.get("sms.dispatch.lateness").tags("shard", "0").timer();
+            assertThat(lateness.count()).isEqualTo(1L);
+            assertThat(lateness.max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(200.0);
+            assertThat(registry.get("sms.send").tags("attempt", "2", "outcome", "success").timer().count())
+                    .isEqualTo(1L);
+        } finally {
+            engine.shutdown();
+            store.close();
+        }
+    }
+
+    private static double sum(SimpleMeterRegistry registry, String gauge) {
+        return registry.get(gauge).gauges().stream().mapToDouble(g -> g.value()).sum();
+    }
+}
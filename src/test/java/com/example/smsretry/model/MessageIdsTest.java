@@ -0,0 +1,50 @@
+package com.example.smsretry.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageIdsTest {
+
+    @Test
+    void uniqueUnderConcurrentBurstsOnOneShard() throws Exception {
+        MessageIds ids = new MessageIds(3, 16);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200_000; i++)
+                    seen.add(ids.next(5));
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertThat(seen.size()).isEqualTo(800_000);
+    }
+
+    @Test
+    void routingReadsTheEmbeddedBucket() {
+        MessageIds ids = new MessageIds(0, 16);
+        Set<Integer> buckets = new HashSet<>();
+        for (int shard = 0; shard < 16; shard++) {
+            for (int i = 0; i < 1_000; i++) {
+                long id = ids.next(shard);
+                String s = MessageIds.format(id);
+                assertThat(MessageIds.parse(s)).isEqualTo(id);
+                assertThat(MessageIds.shardOf(s, 16)).isEqualTo(shard);
+                buckets.add(MessageIds.bucketOf(s));
+            }
+        }
+        // every storage partition is used
+        assertThat(buckets.size()).isEqualTo(MessageIds.BUCKETS);
+
+        String foreign = "order-42";
+        assertThat(MessageIds.parse(foreign)).isEqualTo(-1L);
+        assertThat(MessageIds.shardOf(foreign, 16)).isEqualTo((foreign.hashCode() & 0x7fffffff) % 16);
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageIds;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3StateStoreTest {
+
+    private static final String BUCKET = "test-bucket";
+
+    @Test
+    void recoversFromCheckpointPlusLaterDeltas() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore first = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, true, 0);
+        assertThat(first.loadPendingAll()).isEmpty();
+
+        for (int i = 0; i < 1000; i++)
+            first.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        for (int i = 0; i < 500; i++)
+            first.enqueue(StateUpdate.success(state("m" + i, 2, MessageStatus.SUCCESS)));
+        assertThat(first.writer().awaitIdle(5_000)).isTrue();
+        first.writer().checkpoint();
+
+        for (int i = 500; i < 600; i++)
+            first.enqueue(StateUpdate.pending(state("m" + i, 2, MessageStatus.PENDING)));
+        for (int i = 600; i < 650; i++)
+            first.enqueue(StateUpdate.failed(state("m" + i, 6, MessageStatus.FAILED)));
+        assertThat(first.writer().awaitIdle(5_000)).isTrue();
+
+        // 1650 updates cost a handful of delta objects plus one checkpoint round
+        assertThat(s3.putCount()).isLessThan(300);
+
+        S3StateStore second = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, true, 0);
+        Map<String, MessageState> pending = second.loadPendingAll().stream()
+                .collect(Collectors.toMap(s -> s.messageId, Function.identity()));
+
+        assertThat(pending).hasSize(450);
+        assertThat(pending).doesNotContainKeys("m0", "m499", "m600", "m649");
+        assertThat(pending.get("m500").attemptCount).isEqualTo(2);
+        assertThat(pending.get("m999").attemptCount).isEqualTo(1);
+    }
+
+    @Test
+    void checkpointDropsCoveredDeltas() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        store.loadPendingAll();
+
+        for (int i = 0; i < 100; i++)
+            store.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+        store.writer().checkpoint();
+
+        List<String> remaining = s3.listObjectsV2(ListObjectsV2Request.builder()
+                .bucket(BUCKET)
+                .prefix(S3Writer.DELTA_PREFIX)
+                .build())
+                .contents().stream().map(S3Object::key).toList();
+        assertThat(remaining).isEmpty();
+
+        S3StateStore restarted = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        assertThat(restarted.loadPendingAll()).hasSize(100);
+    }
+
+    @Test
+    void segmentsLayoutPicksUpPendingObjectsOfAnObjectsBucket() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore legacy = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        for (int i = 0; i < 100; i++)
+            legacy.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        assertThat(legacy.writer().awaitIdle(5_000)).isTrue();
+        legacy.close();
+
+        S3StateStore switched = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        assertThat(switched.loadPendingAll()).hasSize(100);
+        for (int i = 0; i < 10; i++)
+            switched.enqueue(StateUpdate.success(state("m" + i, 2, MessageStatus.SUCCESS)));
+        switched.enqueue(StateUpdate.pending(state("m10", 2, MessageStatus.PENDING)));
+        assertThat(switched.writer().awaitIdle(5_000)).isTrue();
+
+        // before the first checkpoint: legacy objects under the deltas
+        S3StateStore restarted = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        Map<String, MessageState> pending = restarted.loadPendingAll().stream()
+                .collect(Collectors.toMap(s -> s.messageId, Function.identity()));
+        assertThat(pending).hasSize(90);
+        assertThat(pending).doesNotContainKeys("m0", "m9");
+        assertThat(pending.get("m10").attemptCount).isEqualTo(2);
+
+        // after it: the checkpoint alone
+        restarted.writer().checkpoint();
+        S3StateStore last = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        assertThat(last.loadPendingAll()).hasSize(90);
+    }
+
+    @Test
+    void objectsLayoutLooksUpTerminalStateByGeneratedId() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        String id = MessageIds.format(new MessageIds(0, 4).next(1));
+
+        store.enqueue(StateUpdate.pending(state(id, 1, MessageStatus.PENDING)));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+        assertThat(store.lookup(id).status).isEqualTo(MessageStatus.PENDING);
+
+        store.enqueue(StateUpdate.failed(state(id, 6, MessageStatus.FAILED)));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+        assertThat(store.lookup(id).status).isEqualTo(MessageStatus.FAILED);
+        assertThat(store.lookup("client-42")).isEqualTo(null);
+    }
+
+    @Test
+    void aClientIdThatWentTerminalIsNoLongerReportedPending() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+
+        store.enqueue(StateUpdate.pending(state("client-7", 1, MessageStatus.PENDING)));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+        assertThat(store.lookup("client-7").status).isEqualTo(MessageStatus.PENDING);
+
+        // no terminal folder is tried for a client id: the pending copy must be gone
+        store.enqueue(StateUpdate.success(state("client-7", 2, MessageStatus.SUCCESS)));
+        assertThat(store.writer().awaitIdle(5_000)).isTrue();
+        assertThat(store.lookup("client-7")).isEqualTo(null);
+        assertThat(store.loadPendingAll()).isEmpty();
+    }
+
+    @Test
+    void objectsRecoveryStreamsPartitionsInParallelAndCountsUnreadableObjects() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3StateStore writer = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0);
+        for (int i = 0; i < 400; i++)
+            writer.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        assertThat(writer.writer().awaitIdle(5_000)).isTrue();
+        writer.close();
+        s3.putObject(PutObjectRequest.builder().bucket(BUCKET).key("state/pending/7/broken.json").build(),
+                RequestBody.fromString("{not json"));
+
+        // 4 recovery threads: several partitions at once, never more than 4 in the sink
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.OBJECTS, false, 0, 4,
+                BinaryStateCodec.INSTANCE);
+        AtomicInteger inSink = new AtomicInteger();
+        AtomicInteger maxInSink = new AtomicInteger();
+        Map<String, MessageState> seen = new ConcurrentHashMap<>();
+        RecoveryProgress progress = new RecoveryProgress();
+        store.loadPending(s -> {
+            maxInSink.accumulateAndGet(inSink.incrementAndGet(), Math::max);
+            seen.put(s.messageId, s);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            inSink.decrementAndGet();
+        }, progress);
+
+        assertThat(seen).hasSize(400);
+        assertThat(maxInSink.get()).isBetween(2, 4);
+        assertThat(progress.isDone()).isTrue();
+        assertThat(progress.loadedCount()).isEqualTo(400L);
+        assertThat(progress.failedCount()).isEqualTo(1L);
+        assertThat(progress.snapshot().get("unitsDone")).isEqualTo(S3Writer.PARTITIONS);
+    }
+
+    @Test
+    void failedDeltaPutsAreRetriedAndCountedWhenGivenUp() throws Exception {
+        FlakyS3Client s3 = new FlakyS3Client();
+        S3StateStore store = new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0);
+        store.loadPendingAll();
+
+        s3.failures.set(2); // recovers within the backoff
+        for (int i = 0; i < 100; i++)
+            store.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        assertThat(store.writer().awaitIdle(10_000)).isTrue();
+        assertThat(store.writer().droppedCount()).isEqualTo(0L);
+        assertThat(new S3StateStore(s3, BUCKET, S3Writer.Layout.SEGMENTS, false, 0).loadPendingAll()).hasSize(100);
+
+        s3.failures.set(Integer.MAX_VALUE); // S3 stays down
+        for (int i = 100; i < 150; i++)
+            store.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        assertThat(store.writer().awaitIdle(10_000)).isTrue();
+        assertThat(store.writer().droppedCount()).isEqualTo(50L);
+        assertThat(store.writer().writtenCount()).isEqualTo(100L);
+    }
+
+    private static class FlakyS3Client extends InMemoryS3Client {
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest req, RequestBody body) {
+            if (failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0)
+                throw new IllegalStateException("503 Slow Down");
+            return super.putObject(req, body);
+        }
+    }
+
+    private static MessageState state(String id, int attempts, MessageStatus status) {
+        MessageState s = MessageState.fromMessage(new Message(id, "+15550000", "hello"), 1_000L);
+        s.attemptCount = attempts;
+        s.status = status;
+        return s;
+    }
+}
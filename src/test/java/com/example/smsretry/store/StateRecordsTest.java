@@ -0,0 +1,67 @@
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StateRecordsTest {
+
+    private static MessageState sample() {
+        MessageState s = MessageState.fromMessage(new Message("msg-1700000000000-42", "+15551234567",
+                "h\u00e9llo \uD83D\uDC4B w\u00f6rld"), 1_700_000_000_000L);
+        s.attemptCount = 3;
+        s.nextDueAtMs = s.arrivalAtMs + 4_000;
+        return s;
+    }
+
+    @Test
+    void binaryRoundTripsEveryField() throws Exception {
+        MessageState s = sample();
+        s.status = MessageStatus.FAILED;
+        s.lastError = "carrier said \u2717";
+        byte[] bytes = StateRecords.encode(StateUpdate.failed(s), BinaryStateCodec.INSTANCE);
+
+        StateUpdate u = StateRecords.decode(bytes, 0, bytes.length);
+        assertThat(u.kind).isEqualTo(StateUpdate.Kind.FAILED);
+        assertThat(u.state.messageId).isEqualTo(s.messageId);
+        assertThat(u.state.phone).isEqualTo(s.phone);
+        assertThat(u.state.body).isEqualTo(s.body);
+        assertThat(u.state.lastError).isEqualTo(s.lastError);
+        assertThat(u.state.status).isEqualTo(MessageStatus.FAILED);
+        assertThat(u.state.attemptCount).isEqualTo(3);
+        assertThat(u.state.arrivalAtMs).isEqualTo(s.arrivalAtMs);
+        assertThat(u.state.nextDueAtMs).isEqualTo(s.nextDueAtMs);
+    }
+
+    @Test
+    void jsonRecordsStillDecode() throws Exception {
+        byte[] json = StateRecords.encode(StateUpdate.pending(sample()), JsonStateCodec.INSTANCE);
+        byte[] binary = StateRecords.encode(StateUpdate.pending(sample()), BinaryStateCodec.INSTANCE);
+
+        StateUpdate u = StateRecords.decode(json, 0, json.length);
+        assertThat(u.kind).isEqualTo(StateUpdate.Kind.PENDING);
+        assertThat(u.state.body).isEqualTo(sample().body);
+        assertThat(u.state.lastError).isEqualTo(null);
+        assertThat(binary.length).isLessThan(json.length);
+    }
+
+    @Test
+    void retryPolicyIsKeptOnlyWhenSet() throws Exception {
+        MessageState s = sample();
+        s.policy = "smooth";
+        byte[] withPolicy = StateRecords.encode(StateUpdate.pending(s), BinaryStateCodec.INSTANCE);
+        byte[] plain = StateRecords.encode(StateUpdate.pending(sample()), BinaryStateCodec.INSTANCE);
+
+        assertThat(StateRecords.decode(withPolicy, 0, withPolicy.length).state.policy).isEqualTo("smooth");
+        assertThat(StateRecords.decode(plain, 0, plain.length).state.policy).isEqualTo(null);
+        // default-policy records keep the version 1 layout
+        assertThat(plain[0] & 0xFF).isEqualTo(0xB1);
+        assertThat(withPolicy[0] & 0xFF).isEqualTo(0xB2);
+
+        byte[] json = StateRecords.encode(StateUpdate.pending(s), JsonStateCodec.INSTANCE);
+        assertThat(StateRecords.decode(json, 0, json.length).state.policy).isEqualTo("smooth");
+    }
+}
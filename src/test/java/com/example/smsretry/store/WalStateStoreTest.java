@@ -0,0 +1,174 @@
+package com.example.smsretry.store;
+
+import com.example.smsretry.model.Message;
+import com.example.smsretry.model.MessageState;
+import com.example.smsretry.model.MessageStatus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WalStateStoreTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+    private static final String TEXT = "x".repeat(200); // ~260 bytes a record, ~250 records a segment
+
+    @Test
+    void replaysTheLatestPendingStateAfterRestart() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        WalStateStore wal = wal(dir, 60_000, null);
+        for (int i = 0; i < 100; i++)
+            wal.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        for (int i = 0; i < 40; i++)
+            wal.enqueue(StateUpdate.success(state("m" + i, 2, MessageStatus.SUCCESS)));
+        for (int i = 90; i < 100; i++)
+            wal.enqueue(StateUpdate.pending(state("m" + i, 3, MessageStatus.PENDING)));
+        // no close(): enqueue returned, so the records are in the mapping
+        Map<String, MessageState> pending = byId(wal(dir, 60_000, null).loadPendingAll());
+
+        assertThat(pending).hasSize(60);
+        assertThat(pending).doesNotContainKeys("m0", "m39");
+        assertThat(pending.get("m40").attemptCount).isEqualTo(1);
+        assertThat(pending.get("m99").attemptCount).isEqualTo(3);
+    }
+
+    @Test
+    void replayStopsAtATornOrCorruptRecord() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        WalStateStore wal = wal(dir, 60_000, null);
+        for (int i = 0; i < 10; i++)
+            wal.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        wal.close();
+        Path segment = segments(dir).get(0);
+        List<Integer> offsets = recordOffsets(segment);
+        assertThat(offsets).hasSize(10);
+
+        // torn tail: a length with no matching payload behind it
+        int end = offsets.get(9) + 8 + readInt(segment, offsets.get(9));
+        writeInt(segment, end, 300);
+        writeInt(segment, end + 4, 0xCAFE);
+        WalStateStore reopened = wal(dir, 60_000, null);
+        assertThat(reopened.loadPendingAll()).hasSize(10);
+        // the tail was cleared, so the next record lands where the torn one was
+        reopened.enqueue(StateUpdate.pending(state("m10", 1, MessageStatus.PENDING)));
+        reopened.close();
+        assertThat(wal(dir, 60_000, null).loadPendingAll()).hasSize(11);
+
+        // flipped bit in record #5: it and everything after it is not replayed
+        int pos = offsets.get(5) + 8;
+        writeInt(segment, pos, readInt(segment, pos) ^ 1);
+        Map<String, MessageState> pending = byId(wal(dir, 60_000, null).loadPendingAll());
+        assertThat(pending).hasSize(5);
+        assertThat(pending).containsKeys("m0", "m4");
+        assertThat(pending).doesNotContainKeys("m5", "m10");
+    }
+
+    @Test
+    void rollsSegmentsAndCompactsOnesMostlyHoldingFinishedMessages() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        WalStateStore wal = wal(dir, 60_000, null);
+        for (int i = 0; i < 1_000; i++)
+            wal.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        for (int i = 0; i < 900; i++)
+            wal.enqueue(StateUpdate.success(state("m" + i, 2, MessageStatus.SUCCESS)));
+        wal.close();
+        int rolled = segments(dir).size();
+        assertThat(rolled).isGreaterThan(3);
+
+        // same files, compacting every 10ms now
+        WalStateStore compacting = wal(dir, 10, null);
+        assertThat(compacting.loadPendingAll()).hasSize(100);
+        await(() -> segments(dir).size() <= 2);
+        compacting.close();
+
+        Map<String, MessageState> pending = byId(wal(dir, 60_000, null).loadPendingAll());
+        assertThat(pending).hasSize(100);
+        assertThat(pending).containsKeys("m900", "m999");
+    }
+
+    @Test
+    void shipsSealedSegmentsBeforeCompactingThem() throws Exception {
+        Path dir = Files.createTempDirectory("wal");
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        WalStateStore wal = wal(dir, 10, s3);
+        for (int i = 0; i < 600; i++)
+            wal.enqueue(StateUpdate.pending(state("m" + i, 1, MessageStatus.PENDING)));
+        for (int i = 0; i < 600; i++)
+            wal.enqueue(StateUpdate.success(state("m" + i, 2, MessageStatus.SUCCESS)));
+
+        // every rolled segment reaches the bucket; only shipped ones are deleted
+        await(() -> segments(dir).size() == 1);
+        assertThat(s3.objectCount("wal-bucket")).isGreaterThanOrEqualTo(2);
+        wal.close();
+        assertThat(wal(dir, 60_000, null).loadPendingAll()).isEmpty();
+    }
+
+    private static WalStateStore wal(Path dir, long compactIntervalMs, InMemoryS3Client shipper)
+            throws IOException {
+        return new WalStateStore(dir, SEGMENT_BYTES, 5, compactIntervalMs, 0.5, shipper, "wal-bucket", "wal/",
+                BinaryStateCodec.INSTANCE);
+    }
+
+    private static MessageState state(String id, int attempts, MessageStatus status) {
+        MessageState s = MessageState.fromMessage(new Message(id, "+15550000", TEXT), 1_000L);
+        s.attemptCount = attempts;
+        s.status = status;
+        return s;
+    }
+
+    private static Map<String, MessageState> byId(List<MessageState> states) {
+        return states.stream().collect(Collectors.toMap(s -> s.messageId, Function.identity()));
+    }
+
+    private static List<Path> segments(Path dir) {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".wal")).sorted().toList();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    // [int length][int crc][payload]..., zero length = end of log
+    private static List<Integer> recordOffsets(Path segment) throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        int pos = 0;
+        for (int len; (len = readInt(segment, pos)) > 0; pos += 8 + len)
+            offsets.add(pos);
+        return offsets;
+    }
+
+    private static int readInt(Path file, long pos) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            ch.read(b, pos);
+            return b.flip().getInt();
+        }
+    }
+
+    private static void writeInt(Path file, long pos, int value) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.write(ByteBuffer.allocate(4).putInt(0, value), pos);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}